@@ -0,0 +1,73 @@
+package virgo;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+
+// Cifrado de cada mensaje con los contextos de sesión de ContextoCripto, por tamaño y
+// modo (GCM: AES-GCM sin firma; FIRMA: AES-ECB con firma SHA256withRSA):
+//  - cifrarYFirmar: lo que hace el cliente al mandar un mensaje;
+//  - ida: eso más lo que hace el servidor al recibirlo (descifrar y verificar la firma).
+// En GCM cada mensaje usa el nonce siguiente y no se puede descifrar dos veces el mismo
+// cifrado, por eso el costo del servidor es la diferencia entre los dos.
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CriptoMensajesBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int bytes;
+
+    @Param({"GCM", "FIRMA"})
+    public String modo;
+
+    private ContextoCripto cliente;
+    private ContextoCripto servidor;
+    private byte[] mensaje;
+
+    @Setup
+    public void preparar() throws Exception {
+        KeyGenerator generadorAES = KeyGenerator.getInstance("AES");
+        generadorAES.init(128);
+        SecretKey claveAES = generadorAES.generateKey();
+        KeyPairGenerator generadorRSA = KeyPairGenerator.getInstance("RSA");
+        generadorRSA.initialize(2048);
+        KeyPair claveCliente = generadorRSA.generateKeyPair();
+
+        int opciones = "GCM".equals(modo) ? OpcionesSesion.GCM : OpcionesSesion.FIRMA;
+        cliente = ContextoCripto.sesion(claveAES, opciones, false, null, claveCliente.getPrivate());
+        servidor = ContextoCripto.sesion(claveAES, opciones, true, claveCliente.getPublic(), null);
+
+        mensaje = new byte[bytes];
+        new SplittableRandom(1).nextBytes(mensaje);
+    }
+
+    @Benchmark
+    public void cifrarYFirmar(Blackhole agujero) throws Exception {
+        agujero.consume(cliente.cifrar(mensaje));
+        if (cliente.usaFirma()) {
+            agujero.consume(cliente.firmar(mensaje));
+        }
+    }
+
+    @Benchmark
+    public boolean ida() throws Exception {
+        byte[] cifrado = cliente.cifrar(mensaje);
+        byte[] firma = cliente.usaFirma() ? cliente.firmar(mensaje) : new byte[0];
+
+        int tamaño = servidor.descifrar(ByteBuffer.wrap(cifrado));
+        return !servidor.usaFirma() || servidor.verificar(tamaño, ByteBuffer.wrap(firma));
+    }
+}
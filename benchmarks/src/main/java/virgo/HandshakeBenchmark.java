@@ -0,0 +1,95 @@
+package virgo;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+
+// Costo del lado del servidor de cada forma de acordar la clave AES de una sesión:
+// RSA (descifrar la clave que manda el cliente), X25519 (efímera propia, dos acuerdos
+// y HKDF) y la reanudación con ticket (abrirlo, derivar la clave nueva y emitir el
+// ticket siguiente).
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandshakeBenchmark {
+    private KeyPair claveRSAServidor;
+    private byte[] claveAESCifrada;
+    private KeyPair claveX25519Servidor;
+    private KeyPair efimeraCliente;
+    private SecretKey claveAES;
+    private TicketsSesion tickets;
+    private byte[] ticket;
+    private byte[] nonceCliente;
+
+    @Setup
+    public void preparar() throws Exception {
+        KeyPairGenerator generadorRSA = KeyPairGenerator.getInstance("RSA");
+        generadorRSA.initialize(2048);
+        claveRSAServidor = generadorRSA.generateKeyPair();
+
+        KeyGenerator generadorAES = KeyGenerator.getInstance("AES");
+        generadorAES.init(128);
+        claveAES = generadorAES.generateKey();
+        Cipher cifradorRSA = Cipher.getInstance("RSA");
+        cifradorRSA.init(Cipher.ENCRYPT_MODE, claveRSAServidor.getPublic());
+        claveAESCifrada = cifradorRSA.doFinal(claveAES.getEncoded());
+
+        claveX25519Servidor = IntercambioX25519.generarPar();
+        efimeraCliente = IntercambioX25519.generarPar();
+    }
+
+    // Los tickets usados se acumulan con cada reanudación: cada iteración empieza sin
+    // ninguno, así todas miden lo mismo en vez de un registro que crece durante toda la
+    // corrida. El cupo alcanza para millones de reanudaciones por iteración y la vigencia
+    // es larga para que una pausa del GC no venza el ticket entre dos operaciones
+
+    @Setup(Level.Iteration)
+    public void prepararTickets() throws GeneralSecurityException, IOException {
+        tickets = new TicketsSesion(TimeUnit.MINUTES.toMillis(10), 1 << 22);
+        ticket = tickets.emitir(new TicketsSesion.Datos(claveAES, OpcionesSesion.GCM, "benchmark", new byte[0]));
+        nonceCliente = tickets.nuevoNonce();
+    }
+
+    @Benchmark
+    public SecretKey rsa() throws GeneralSecurityException {
+        return Servidor.descifrarClaveAES(claveRSAServidor.getPrivate(), claveAESCifrada);
+    }
+
+    @Benchmark
+    public SecretKey x25519() throws GeneralSecurityException {
+        KeyPair efimeraServidor = IntercambioX25519.generarPar();
+        byte[] secretoEstatico = IntercambioX25519.acordar(claveX25519Servidor.getPrivate(), efimeraCliente.getPublic());
+        byte[] secretoEfimero = IntercambioX25519.acordar(efimeraServidor.getPrivate(), efimeraCliente.getPublic());
+        return IntercambioX25519.derivarClaveAES(secretoEstatico, secretoEfimero,
+                efimeraCliente.getPublic(), efimeraServidor.getPublic());
+    }
+
+    // Como en el servidor: cada ticket sirve una vez, así que la reanudación emite el siguiente.
+    // AES-GCM tarda más que los otros en compilarse: con 3 iteraciones de calentamiento la
+    // medición todavía bajaba de una iteración a otra
+
+    @Benchmark
+    @Warmup(iterations = 8)
+    public SecretKey reanudacion() throws GeneralSecurityException, IOException {
+        TicketsSesion.Datos datos = tickets.abrir(ticket);
+        if (datos == null) {
+            throw new IllegalStateException("el servidor no aceptó el ticket (" + tickets.getUsados() + " usados)");
+        }
+        SecretKey clave = TicketsSesion.derivarClave(datos.getClave(), nonceCliente, tickets.nuevoNonce());
+        ticket = tickets.emitir(new TicketsSesion.Datos(clave, datos.getOpciones(), datos.getNombre(),
+                datos.getClavePublicaCliente()));
+        return clave;
+    }
+}
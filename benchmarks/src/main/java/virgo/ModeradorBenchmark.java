@@ -0,0 +1,64 @@
+package virgo;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+// Enlace con el moderador: armar y cifrar un lote como CanalModerador (lado servidor)
+// y descifrarlo como Moderador, según cuántos mensajes lleva el lote.
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModeradorBenchmark {
+
+    @Param({"1", "16", "64"})
+    public int mensajes;
+
+    @Param({"256"})
+    public int bytesMensaje;
+
+    private ContextoCripto servidor;
+    private ContextoCripto moderador;
+    private List<SolicitudModeracion> lote;
+    private ByteArrayOutputStream bytes;
+    private byte[] loteCifrado;
+
+    @Setup
+    public void preparar() throws Exception {
+        KeyGenerator generadorAES = KeyGenerator.getInstance("AES");
+        generadorAES.init(128);
+        SecretKey claveAES = generadorAES.generateKey();
+        servidor = new ContextoCripto(claveAES, null, null);
+        moderador = new ContextoCripto(claveAES, null, null);
+
+        lote = new ArrayList<>(mensajes);
+        for (int i = 0; i < mensajes; i++) {
+            lote.add(new SolicitudModeracion(i, new Mensaje("cliente" + i, "x".repeat(bytesMensaje)), ""));
+        }
+        bytes = new ByteArrayOutputStream();
+        loteCifrado = cifrarLote();
+    }
+
+    @Benchmark
+    public byte[] cifrarLote() throws Exception {
+        bytes.reset();
+        CanalModerador.escribirLote(new DataOutputStream(bytes), lote);
+        return servidor.cifrar(bytes.toByteArray());
+    }
+
+    @Benchmark
+    public int descifrarLote() throws Exception {
+        return moderador.descifrar(loteCifrado);
+    }
+}
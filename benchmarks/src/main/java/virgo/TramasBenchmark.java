@@ -0,0 +1,84 @@
+package virgo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+
+// Lectura de paquetes de clientes con CodecTramas.leerPaquete (tramas validadas y
+// leídas en buffers del pool) según el tamaño del mensaje, con uno y con varios hilos
+// a la vez: todos comparten el pool de buffers. Cada hilo lee de su propio canal en
+// memoria, que repite el mismo paquete sin fin.
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TramasBenchmark {
+
+    @Param({"64", "1024", "16384", "60000"})
+    public int bytes;
+
+    private ReadableByteChannel canal;
+
+    @Setup
+    public void preparar() {
+        byte[] mensaje = new byte[bytes];
+        new SplittableRandom(1).nextBytes(mensaje);
+        ByteBuffer paquete = ByteBuffer.allocate(Integer.BYTES * 2 + bytes);
+        paquete.putInt(bytes).put(mensaje).putInt(0);
+        canal = new CanalCircular(paquete.array());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int unHilo() throws Exception {
+        return leer();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int cuatroHilos() throws Exception {
+        return leer();
+    }
+
+    private int leer() throws Exception {
+        Paquete paquete = CodecTramas.leerPaquete(canal);
+        int tamaño = paquete.getMensajeCifrado().remaining();
+        paquete.liberar();
+        return tamaño;
+    }
+
+    // Canal que devuelve los mismos bytes una y otra vez, como un socket que nunca se vacía
+
+    private static class CanalCircular implements ReadableByteChannel {
+        private final byte[] datos;
+        private int posicion;
+
+        CanalCircular(byte[] datos) {
+            this.datos = datos;
+        }
+
+        @Override
+        public int read(ByteBuffer destino) {
+            int leidos = Math.min(destino.remaining(), datos.length - posicion);
+            destino.put(datos, posicion, leidos);
+            posicion = (posicion + leidos) % datos.length;
+            return leidos;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,669 @@
+package virgo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+
+// Registro de auditoría de la moderación: cada mensaje aprobado o rechazado queda con
+// su remitente, su contenido, la decisión, cuándo llegó, cuándo se decidió y cuánto
+// esperó la moderación, para poder investigar abusos después.
+//
+// Quien decide solo deja el registro en una cola acotada (si está llena se descarta y
+// se cuenta, nunca espera); un hilo lo escribe en el segmento activo, un archivo de
+// segmentoBytes mapeado en memoria. Cuando un registro no entra se pasa a un segmento
+// nuevo y el anterior se cierra: se fuerza a disco, se guarda su índice y se libera
+// (deja de estar mapeado y su índice sale del heap). De los segmentos cerrados solo
+// queda en memoria el resumen (fin, primera y última decisión); el mapeo y el índice
+// se cargan recién cuando una consulta los necesita. Al arrancar se lee el resumen de
+// cada índice y se recorre el último segmento (que no tiene) para seguir escribiendo
+// donde quedó.
+//
+// Retención: al arrancar y en cada cambio de segmento se borran (datos e índice) los
+// segmentos cerrados más viejos mientras haya más de maximoSegmentos o su última
+// decisión tenga más de retencionMillis. El activo nunca se borra.
+//
+// Formato de cada registro (el tamaño se escribe al final, así un lector nunca ve uno
+// a medias; un tamaño 0 o un crc que no coincide marcan el fin del segmento):
+//   [tamaño (int)][crc32 (int)][decidido (long)][recibido (long)][espera µs (int)]
+//   [decisión (byte)][remitente][contenido]            (textos: [tamaño (int)][UTF-8])
+// Los instantes son milisegundos de época; el de decisión nunca retrocede dentro del
+// registro (se toma el mayor con el anterior, los hilos deciden casi a la vez), así
+// cada segmento queda ordenado por tiempo.
+//
+// El índice de un segmento guarda su resumen, la posición de uno de cada PASO_PUNTOS registros
+// (para ubicar un instante con búsqueda binaria) y, por remitente, la posición de
+// cada uno de sus registros. Una consulta salta los segmentos fuera del rango y dentro
+// de cada uno va directo al primer registro que corresponde.
+
+class AuditoriaModeracion {
+    private static final byte APROBADO = 1;
+    private static final byte RECHAZADO = 2;
+    private static final int MAGIA_INDICE = 0x56414932;
+    private static final int PASO_PUNTOS = 64;
+    private static final int CABECERA = 2 * Integer.BYTES;
+    // decidido, recibido, espera, decisión y los dos tamaños de texto
+    private static final int FIJOS = 2 * Long.BYTES + Integer.BYTES + 1 + 2 * Integer.BYTES;
+
+    private final Path directorio;
+    private final int segmentoBytes;
+    private final int maximoSegmentos;
+    private final long retencionMillis;
+    private final BlockingQueue<Entrada> porEscribir;
+    private final List<Segmento> segmentos;
+    private final AtomicLong registrados;
+    private final AtomicLong descartados;
+    private final AtomicLong errores;
+    private final AtomicLong borrados;
+    private Segmento activo;
+    // Número del último segmento (los nombres son segmento-NNNNNN.datos)
+    private int ultimoNumero;
+    private long ultimoDecidido;
+
+    // maximoSegmentos o retencionMillis en 0 no limitan por esa razón
+
+    AuditoriaModeracion(Path directorio, int segmentoBytes, int maximoCola, int maximoSegmentos, long retencionMillis) {
+        this.directorio = directorio;
+        this.segmentoBytes = segmentoBytes;
+        this.maximoSegmentos = maximoSegmentos;
+        this.retencionMillis = retencionMillis;
+        this.porEscribir = new ArrayBlockingQueue<>(maximoCola);
+        this.segmentos = new CopyOnWriteArrayList<>();
+        this.registrados = new AtomicLong();
+        this.descartados = new AtomicLong();
+        this.errores = new AtomicLong();
+        this.borrados = new AtomicLong();
+    }
+
+    // Abre los segmentos que ya hay, borra los que pasaron la retención y arranca el hilo escritor
+
+    void iniciar() throws IOException {
+        Files.createDirectories(directorio);
+        cargar(false);
+        if (activo == null) {
+            activo = crearSegmento(segmentoBytes);
+        }
+        aplicarRetencion();
+        Hilos.iniciarBucle("auditoria", this::escribirTandas);
+    }
+
+    // Abre un registro existente solo para consultarlo (p. ej. mientras el servidor lo escribe)
+
+    static AuditoriaModeracion abrirLectura(Path directorio) throws IOException {
+        AuditoriaModeracion auditoria = new AuditoriaModeracion(directorio, 0, 1, 0, 0);
+        if (Files.isDirectory(directorio)) {
+            auditoria.cargar(true);
+        }
+        return auditoria;
+    }
+
+    // Registra la decisión sobre un mensaje; no espera nunca
+
+    void registrar(Mensaje mensaje, String decision, long recibido, long esperaNanos) {
+        Entrada entrada = new Entrada(mensaje.getOrigen(), mensaje.getContenido(),
+                "APROBADO".equalsIgnoreCase(decision) ? APROBADO : RECHAZADO,
+                recibido, System.currentTimeMillis(), (int) Math.min(Integer.MAX_VALUE, esperaNanos / 1000));
+        if (!porEscribir.offer(entrada)) {
+            descartados.incrementAndGet();
+        }
+    }
+
+    // Espera (un tiempo acotado) a que se escriba lo registrado y lo fuerza a disco; al apagar
+
+    void vaciar() {
+        Entrada marca = new Entrada(null, null, (byte) 0, 0, 0, 0);
+        try {
+            if (porEscribir.offer(marca, 1, TimeUnit.SECONDS)) {
+                marca.escrita.await(2, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getRegistrados() {
+        return registrados.get();
+    }
+
+    long getDescartados() {
+        return descartados.get();
+    }
+
+    long getErrores() {
+        return errores.get();
+    }
+
+    int getSegmentos() {
+        return segmentos.size();
+    }
+
+    long getBorrados() {
+        return borrados.get();
+    }
+
+    // Decisiones tomadas entre desde y hasta (inclusive, ms de época), en orden de
+    // decisión y como mucho maximo; remitente null es cualquiera. Solo se abren los
+    // segmentos cuyo resumen cae en el rango
+
+    List<Entrada> consultar(String remitente, long desde, long hasta, int maximo) {
+        List<Entrada> encontradas = new ArrayList<>();
+        for (Segmento segmento : segmentos) {
+            if (encontradas.size() >= maximo) {
+                break;
+            }
+            if (segmento.ultimo < 0 || segmento.ultimoDecidido < desde || segmento.primerDecidido > hasta) {
+                continue;
+            }
+            try {
+                segmento.abrir();
+            } catch (IOException e) {
+                // Lo borró la retención del servidor después de listarlo
+                continue;
+            }
+            if (remitente != null) {
+                segmento.buscarDe(remitente, desde, hasta, maximo, encontradas);
+            } else {
+                segmento.buscar(desde, hasta, maximo, encontradas);
+            }
+        }
+        return encontradas;
+    }
+
+    private void escribirTandas() {
+        List<Entrada> tanda = new ArrayList<>();
+        while (true) {
+            try {
+                tanda.add(porEscribir.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            porEscribir.drainTo(tanda);
+            for (Entrada entrada : tanda) {
+                if (entrada.escrita != null) {
+                    activo.buffer.force();
+                    entrada.escrita.countDown();
+                    continue;
+                }
+                try {
+                    escribir(entrada);
+                    registrados.incrementAndGet();
+                } catch (IOException e) {
+                    errores.incrementAndGet();
+                    Registro.error("No se pudo escribir la auditoría en " + directorio + ": " + e.getMessage());
+                }
+            }
+            tanda.clear();
+        }
+    }
+
+    private void escribir(Entrada entrada) throws IOException {
+        byte[] remitente = entrada.remitente.getBytes(StandardCharsets.UTF_8);
+        byte[] contenido = entrada.contenido.getBytes(StandardCharsets.UTF_8);
+        int tamaño = FIJOS + remitente.length + contenido.length;
+        if (activo.fin + CABECERA + tamaño > activo.capacidad) {
+            rotar(CABECERA + tamaño);
+        }
+        long decidido = Math.max(entrada.decidido, ultimoDecidido);
+        ultimoDecidido = decidido;
+
+        // Las consultas leen el mismo buffer: el escritor usa una vista propia
+        int posicion = activo.fin;
+        ByteBuffer registro = activo.buffer.slice(posicion + CABECERA, tamaño);
+        registro.putLong(decidido).putLong(entrada.recibido).putInt(entrada.esperaMicros).put(entrada.decision);
+        registro.putInt(remitente.length).put(remitente);
+        registro.putInt(contenido.length).put(contenido);
+        CRC32 crc = new CRC32();
+        crc.update(registro.flip());
+        activo.buffer.putInt(posicion + Integer.BYTES, (int) crc.getValue());
+        activo.buffer.putInt(posicion, tamaño);
+        activo.indexar(posicion, entrada.remitente);
+    }
+
+    // Cierra el segmento activo (a disco, con su índice, y lo libera) y abre el siguiente
+    // con lugar al menos para un registro de necesarios bytes
+
+    private void rotar(int necesarios) throws IOException {
+        activo.buffer.force();
+        activo.guardarIndice();
+        activo.liberar();
+        activo = crearSegmento(Math.max(segmentoBytes, necesarios));
+        aplicarRetencion();
+    }
+
+    private Segmento crearSegmento(int capacidad) throws IOException {
+        Path datos = directorio.resolve(String.format("segmento-%06d.datos", ++ultimoNumero));
+        Segmento segmento = new Segmento(datos);
+        try (FileChannel canal = FileChannel.open(datos, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            segmento.usar(canal.map(FileChannel.MapMode.READ_WRITE, 0, capacidad));
+        }
+        segmentos.add(segmento);
+        return segmento;
+    }
+
+    // Borra los segmentos cerrados más viejos que sobran por cantidad o por antigüedad
+
+    private void aplicarRetencion() {
+        long limite = retencionMillis > 0 ? System.currentTimeMillis() - retencionMillis : Long.MIN_VALUE;
+        while (segmentos.size() > 1) {
+            Segmento masViejo = segmentos.get(0);
+            boolean sobra = maximoSegmentos > 0 && segmentos.size() > maximoSegmentos;
+            boolean vencido = masViejo.ultimo < 0 || masViejo.ultimoDecidido < limite;
+            if (!sobra && !vencido) {
+                return;
+            }
+            segmentos.remove(0);
+            masViejo.liberar();
+            try {
+                Files.deleteIfExists(masViejo.indice);
+                Files.deleteIfExists(masViejo.datos);
+                borrados.incrementAndGet();
+            } catch (IOException e) {
+                errores.incrementAndGet();
+                Registro.error("No se pudo borrar el segmento de auditoría " + masViejo.datos + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Lee el resumen de los segmentos del directorio en orden; los que no tienen índice
+    // (o es de otro formato) se recorren una vez para rehacerlo. El último se mapea y se
+    // recorre: queda como activo (salvo en solo lectura)
+
+    private void cargar(boolean soloLectura) throws IOException {
+        List<Path> archivos = new ArrayList<>();
+        try (DirectoryStream<Path> lista = Files.newDirectoryStream(directorio, "segmento-*.datos")) {
+            lista.forEach(archivos::add);
+        }
+        archivos.sort(null);
+        for (int i = 0; i < archivos.size(); i++) {
+            Path datos = archivos.get(i);
+            Segmento segmento = new Segmento(datos);
+            ultimoNumero = Integer.parseInt(datos.getFileName().toString().replaceAll("\\D", ""));
+            if (i == archivos.size() - 1) {
+                try (FileChannel canal = soloLectura
+                        ? FileChannel.open(datos, StandardOpenOption.READ)
+                        : FileChannel.open(datos, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    segmento.usar(canal.map(soloLectura ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+                            0, canal.size()));
+                }
+                segmento.recorrer();
+                if (!soloLectura) {
+                    activo = segmento;
+                }
+            } else if (!segmento.leerResumen()) {
+                segmento.abrir();
+                if (!soloLectura) {
+                    segmento.guardarIndice();
+                }
+                segmento.liberar();
+            }
+            segmentos.add(segmento);
+            if (segmento.ultimo >= 0) {
+                ultimoDecidido = Math.max(ultimoDecidido, segmento.ultimoDecidido);
+            }
+        }
+    }
+
+    // Un archivo de registros con su índice. Solo el hilo escritor agrega; fin, ultimo y
+    // las decisiones extremas publican lo escrito a las consultas y sirven de resumen
+    // mientras el segmento está cerrado (sin mapear y sin índice en memoria). abrir() y
+    // liberar() no se usan a la vez que una consulta sobre el mismo segmento: el servidor
+    // solo libera y ConsultaAuditoria solo abre
+
+    private static class Segmento {
+        final Path datos;
+        final Path indice;
+        MappedByteBuffer buffer;
+        int capacidad;
+        // Bytes escritos y posición del último registro (-1 si está vacío)
+        volatile int fin;
+        volatile int ultimo = -1;
+        // Instantes de la primera y la última decisión
+        volatile long primerDecidido;
+        volatile long ultimoDecidido;
+        // Índice, protegido por el propio segmento
+        private int registros;
+        private final Posiciones puntos;
+        private final Map<String, Posiciones> porRemitente;
+
+        Segmento(Path datos) {
+            this.datos = datos;
+            this.indice = datos.resolveSibling(datos.getFileName().toString().replace(".datos", ".indice"));
+            this.puntos = new Posiciones();
+            this.porRemitente = new HashMap<>();
+        }
+
+        synchronized void usar(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            this.capacidad = buffer.capacity();
+        }
+
+        // Mapea el segmento (solo lectura) y carga su índice, o lo rehace recorriéndolo
+
+        synchronized void abrir() throws IOException {
+            if (buffer != null) {
+                return;
+            }
+            try (FileChannel canal = FileChannel.open(datos, StandardOpenOption.READ)) {
+                usar(canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()));
+            }
+            if (!cargarIndice()) {
+                recorrer();
+            }
+        }
+
+        // Suelta el mapeo (lo desmapea el GC) y el índice; queda el resumen
+
+        synchronized void liberar() {
+            buffer = null;
+            liberarIndice();
+        }
+
+        synchronized void indexar(int posicion, String remitente) {
+            if (registros++ % PASO_PUNTOS == 0) {
+                puntos.agregar(posicion);
+                if (registros == 1) {
+                    primerDecidido = decididoEn(posicion);
+                }
+            }
+            porRemitente.computeIfAbsent(remitente, r -> new Posiciones()).agregar(posicion);
+            ultimoDecidido = decididoEn(posicion);
+            ultimo = posicion;
+            fin = posicion + CABECERA + buffer.getInt(posicion);
+        }
+
+        long decididoEn(int posicion) {
+            return buffer.getLong(posicion + CABECERA);
+        }
+
+        // Registros del remitente en el rango: búsqueda binaria en sus posiciones
+
+        void buscarDe(String remitente, long desde, long hasta, int maximo, List<Entrada> encontradas) {
+            int[] posiciones;
+            synchronized (this) {
+                Posiciones suyas = porRemitente.get(remitente);
+                if (suyas == null) {
+                    return;
+                }
+                posiciones = suyas.copia();
+            }
+            for (int i = primeraDesde(posiciones, desde); i < posiciones.length && encontradas.size() < maximo; i++) {
+                if (decididoEn(posiciones[i]) > hasta) {
+                    return;
+                }
+                encontradas.add(leer(posiciones[i]));
+            }
+        }
+
+        // Registros en el rango: desde el punto anterior a desde, en orden
+
+        void buscar(long desde, long hasta, int maximo, List<Entrada> encontradas) {
+            int[] marcas;
+            synchronized (this) {
+                marcas = puntos.copia();
+            }
+            int i = primeraDesde(marcas, desde);
+            int posicion = i > 0 ? marcas[i - 1] : 0;
+            int limite = fin;
+            while (posicion < limite && encontradas.size() < maximo) {
+                long decidido = decididoEn(posicion);
+                if (decidido > hasta) {
+                    return;
+                }
+                if (decidido >= desde) {
+                    encontradas.add(leer(posicion));
+                }
+                posicion += CABECERA + buffer.getInt(posicion);
+            }
+        }
+
+        // Primer índice de posiciones cuyo registro se decidió en desde o después
+
+        private int primeraDesde(int[] posiciones, long desde) {
+            int bajo = 0;
+            int alto = posiciones.length;
+            while (bajo < alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (decididoEn(posiciones[medio]) < desde) {
+                    bajo = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            return bajo;
+        }
+
+        Entrada leer(int posicion) {
+            ByteBuffer registro = buffer.slice(posicion + CABECERA, buffer.getInt(posicion));
+            long decidido = registro.getLong();
+            long recibido = registro.getLong();
+            int espera = registro.getInt();
+            byte decision = registro.get();
+            String remitente = leerTexto(registro);
+            return new Entrada(remitente, leerTexto(registro), decision, recibido, decidido, espera);
+        }
+
+        // Recorre los registros desde el principio e indexa los que están completos
+
+        void recorrer() {
+            CRC32 crc = new CRC32();
+            int posicion = 0;
+            while (posicion + CABECERA + FIJOS <= capacidad) {
+                int tamaño = buffer.getInt(posicion);
+                if (tamaño < FIJOS || posicion + CABECERA + tamaño > capacidad) {
+                    break;
+                }
+                crc.reset();
+                crc.update(buffer.slice(posicion + CABECERA, tamaño));
+                if ((int) crc.getValue() != buffer.getInt(posicion + Integer.BYTES)) {
+                    break;
+                }
+                int antes = FIJOS - 2 * Integer.BYTES;
+                ByteBuffer remitente = buffer.slice(posicion + CABECERA + antes, tamaño - antes);
+                indexar(posicion, leerTexto(remitente));
+                posicion += CABECERA + tamaño;
+            }
+        }
+
+        // Índice: [magia][capacidad][fin][último][registros][primera y última decisión (long)]
+        //         [puntos][remitentes: (nombre, posiciones)...]; lo anterior a los puntos es el resumen
+
+        synchronized void guardarIndice() throws IOException {
+            Path temporal = indice.resolveSibling(indice.getFileName() + ".tmp");
+            try (DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal)))) {
+                salida.writeInt(MAGIA_INDICE);
+                salida.writeInt(capacidad);
+                salida.writeInt(fin);
+                salida.writeInt(ultimo);
+                salida.writeInt(registros);
+                salida.writeLong(primerDecidido);
+                salida.writeLong(ultimoDecidido);
+                puntos.escribir(salida);
+                salida.writeInt(porRemitente.size());
+                for (Map.Entry<String, Posiciones> remitente : porRemitente.entrySet()) {
+                    salida.writeUTF(remitente.getKey());
+                    remitente.getValue().escribir(salida);
+                }
+            }
+            Files.move(temporal, indice, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // Lee solo el resumen del índice, sin mapear el segmento; false si no está o no sirve
+
+        synchronized boolean leerResumen() {
+            if (!Files.exists(indice)) {
+                return false;
+            }
+            try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(indice)))) {
+                return leerResumen(entrada, Files.size(datos));
+            } catch (IOException e) {
+                Registro.error("Índice de auditoría dañado, se recorre el segmento " + datos + ": " + e.getMessage());
+                return false;
+            }
+        }
+
+        private boolean leerResumen(DataInputStream entrada, long tamañoDatos) throws IOException {
+            if (entrada.readInt() != MAGIA_INDICE) {
+                return false;
+            }
+            int capacidadGuardada = entrada.readInt();
+            int finGuardado = entrada.readInt();
+            int ultimoGuardado = entrada.readInt();
+            int registrosGuardados = entrada.readInt();
+            if (capacidadGuardada != tamañoDatos || finGuardado < 0 || finGuardado > capacidadGuardada
+                    || ultimoGuardado >= finGuardado || registrosGuardados < 0
+                    || registrosGuardados > maximoRegistros(capacidadGuardada)) {
+                throw new IOException("resumen inválido");
+            }
+            capacidad = capacidadGuardada;
+            registros = registrosGuardados;
+            primerDecidido = entrada.readLong();
+            ultimoDecidido = entrada.readLong();
+            fin = finGuardado;
+            ultimo = ultimoGuardado;
+            return true;
+        }
+
+        // Carga el índice completo de un segmento ya mapeado; false si no está o no sirve
+
+        private boolean cargarIndice() {
+            if (!Files.exists(indice)) {
+                return false;
+            }
+            try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(indice)))) {
+                if (!leerResumen(entrada, capacidad)) {
+                    return false;
+                }
+                puntos.leer(entrada, capacidad);
+                for (int n = entrada.readInt(); n > 0; n--) {
+                    Posiciones posiciones = new Posiciones();
+                    porRemitente.put(entrada.readUTF(), posiciones);
+                    posiciones.leer(entrada, capacidad);
+                }
+                return true;
+            } catch (IOException e) {
+                Registro.error("Índice de auditoría dañado, se recorre el segmento " + datos + ": " + e.getMessage());
+                liberarIndice();
+                return false;
+            }
+        }
+
+        private void liberarIndice() {
+            registros = 0;
+            puntos.vaciar();
+            porRemitente.clear();
+        }
+
+        private static String leerTexto(ByteBuffer registro) {
+            byte[] bytes = new byte[registro.getInt()];
+            registro.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Lista de posiciones que solo crece
+
+    private static class Posiciones {
+        private int[] valores = new int[4];
+        private int cantidad;
+
+        void agregar(int posicion) {
+            if (cantidad == valores.length) {
+                valores = Arrays.copyOf(valores, cantidad * 2);
+            }
+            valores[cantidad++] = posicion;
+        }
+
+        int[] copia() {
+            return Arrays.copyOf(valores, cantidad);
+        }
+
+        void vaciar() {
+            valores = new int[4];
+            cantidad = 0;
+        }
+
+        void escribir(DataOutputStream salida) throws IOException {
+            salida.writeInt(cantidad);
+            for (int i = 0; i < cantidad; i++) {
+                salida.writeInt(valores[i]);
+            }
+        }
+
+        // Las posiciones vienen de un archivo: la cantidad y cada posición tienen que caber
+        // en un segmento de capacidad bytes antes de reservar nada
+
+        void leer(DataInputStream entrada, int capacidad) throws IOException {
+            int n = entrada.readInt();
+            if (n < 0 || n > maximoRegistros(capacidad)) {
+                throw new IOException("cantidad de posiciones inválida: " + n);
+            }
+            valores = new int[Math.max(4, n)];
+            for (int i = 0; i < n; i++) {
+                int posicion = entrada.readInt();
+                if (posicion < 0 || posicion > capacidad - CABECERA - FIJOS) {
+                    throw new IOException("posición fuera del segmento: " + posicion);
+                }
+                valores[i] = posicion;
+            }
+            cantidad = n;
+        }
+    }
+
+    // Cuántos registros entran como mucho en un segmento (el más chico ocupa CABECERA + FIJOS)
+
+    private static int maximoRegistros(int capacidad) {
+        return capacidad / (CABECERA + FIJOS);
+    }
+
+    // Un registro de la auditoría. Sin remitente es la marca de vaciar()
+
+    static class Entrada {
+        final String remitente;
+        final String contenido;
+        final byte decision;
+        final long recibido;
+        final long decidido;
+        final int esperaMicros;
+        final CountDownLatch escrita;
+
+        Entrada(String remitente, String contenido, byte decision, long recibido, long decidido, int esperaMicros) {
+            this.remitente = remitente;
+            this.contenido = contenido;
+            this.decision = decision;
+            this.recibido = recibido;
+            this.decidido = decidido;
+            this.esperaMicros = esperaMicros;
+            this.escrita = remitente == null ? new CountDownLatch(1) : null;
+        }
+
+        String getDecision() {
+            return decision == APROBADO ? "APROBADO" : "RECHAZADO";
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%tF %<tT.%<tL  %-9s  espera %7.1f ms  %s: %s", decidido, getDecision(),
+                    esperaMicros / 1000.0, remitente, contenido);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package virgo;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+
+// Autómata de Aho-Corasick sobre una lista de palabras o frases: recorre el texto
+// una sola vez, sin importar cuántas palabras haya, y encuentra cualquiera de ellas.
+// No distingue mayúsculas y solo cuenta coincidencias de palabras completas (la
+// palabra "mal" no coincide dentro de "animal").
+//
+// Los estados se guardan en arreglos: para cada estado, sus transiciones como pares
+// (carácter, destino) ordenados, el enlace de fallo, el largo de la palabra que
+// termina en él y el enlace al siguiente estado de la cadena de fallos donde termina
+// otra palabra. Una vez construido es inmutable y se puede usar desde cualquier hilo.
+
+class AutomataPalabras {
+    private static final int SIN_PALABRA = -1;
+
+    private final char[][] caracteres;
+    private final int[][] destinos;
+    private final int[] fallo;
+    private final int[] largoPalabra;
+    private final int[] siguienteSalida;
+
+    AutomataPalabras(List<String> palabras) {
+        // Trie en arreglos que crecen; al final cada estado queda con sus transiciones ordenadas
+        Constructor constructor = new Constructor();
+        for (String palabra : palabras) {
+            String normalizada = minusculas(palabra.trim());
+            if (!normalizada.isEmpty()) {
+                constructor.agregar(normalizada);
+            }
+        }
+        int estados = constructor.cantidad;
+        this.caracteres = new char[estados][];
+        this.destinos = new int[estados][];
+        this.fallo = new int[estados];
+        this.largoPalabra = Arrays.copyOf(constructor.largo, estados);
+        this.siguienteSalida = new int[estados];
+        for (int i = 0; i < estados; i++) {
+            int n = constructor.hijos[i];
+            Integer[] orden = new Integer[n];
+            for (int j = 0; j < n; j++) {
+                orden[j] = j;
+            }
+            final int estado = i;
+            Arrays.sort(orden, (a, b) -> Character.compare(constructor.caracter[estado][a], constructor.caracter[estado][b]));
+            caracteres[i] = new char[n];
+            destinos[i] = new int[n];
+            for (int j = 0; j < n; j++) {
+                caracteres[i][j] = constructor.caracter[i][orden[j]];
+                destinos[i][j] = constructor.destino[i][orden[j]];
+            }
+        }
+        calcularFallos();
+    }
+
+    boolean estaVacio() {
+        return caracteres.length == 1;
+    }
+
+    // true si alguna palabra aparece completa en el texto
+
+    boolean coincide(String texto) {
+        int estado = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            estado = avanzar(estado, Character.toLowerCase(texto.charAt(i)));
+            if (!esLimite(texto, i + 1)) {
+                continue;
+            }
+            // Todas las palabras que terminan aquí, de la más larga a la más corta
+            int salida = largoPalabra[estado] != SIN_PALABRA ? estado : siguienteSalida[estado];
+            while (salida != 0) {
+                if (esLimite(texto, i - largoPalabra[salida])) {
+                    return true;
+                }
+                salida = siguienteSalida[salida];
+            }
+        }
+        return false;
+    }
+
+    private int avanzar(int estado, char c) {
+        while (true) {
+            int siguiente = transicion(estado, c);
+            if (siguiente >= 0) {
+                return siguiente;
+            }
+            if (estado == 0) {
+                return 0;
+            }
+            estado = fallo[estado];
+        }
+    }
+
+    private int transicion(int estado, char c) {
+        int posicion = Arrays.binarySearch(caracteres[estado], c);
+        return posicion >= 0 ? destinos[estado][posicion] : -1;
+    }
+
+    // Enlaces de fallo y de salida por recorrido en anchura
+
+    private void calcularFallos() {
+        Queue<Integer> pendientes = new ArrayDeque<>();
+        for (int destino : destinos[0]) {
+            fallo[destino] = 0;
+            pendientes.add(destino);
+        }
+        while (!pendientes.isEmpty()) {
+            int estado = pendientes.poll();
+            for (int j = 0; j < caracteres[estado].length; j++) {
+                char c = caracteres[estado][j];
+                int hijo = destinos[estado][j];
+                int f = fallo[estado];
+                while (f != 0 && transicion(f, c) < 0) {
+                    f = fallo[f];
+                }
+                int destinoFallo = transicion(f, c);
+                fallo[hijo] = destinoFallo >= 0 && destinoFallo != hijo ? destinoFallo : 0;
+                siguienteSalida[hijo] = largoPalabra[fallo[hijo]] != SIN_PALABRA ? fallo[hijo] : siguienteSalida[fallo[hijo]];
+                pendientes.add(hijo);
+            }
+        }
+    }
+
+    private static String minusculas(String texto) {
+        char[] caracteres = texto.toCharArray();
+        for (int i = 0; i < caracteres.length; i++) {
+            caracteres[i] = Character.toLowerCase(caracteres[i]);
+        }
+        return new String(caracteres);
+    }
+
+    // Hay límite de palabra en la posición si está fuera del texto o no es letra ni dígito
+
+    private static boolean esLimite(String texto, int posicion) {
+        return posicion < 0 || posicion >= texto.length() || !Character.isLetterOrDigit(texto.charAt(posicion));
+    }
+
+    private static class Constructor {
+        char[][] caracter = new char[16][];
+        int[][] destino = new int[16][];
+        int[] hijos = new int[16];
+        int[] largo = new int[16];
+        int cantidad;
+
+        Constructor() {
+            nuevoEstado();
+        }
+
+        void agregar(String palabra) {
+            int estado = 0;
+            for (int i = 0; i < palabra.length(); i++) {
+                char c = palabra.charAt(i);
+                int siguiente = -1;
+                for (int j = 0; j < hijos[estado]; j++) {
+                    if (caracter[estado][j] == c) {
+                        siguiente = destino[estado][j];
+                        break;
+                    }
+                }
+                if (siguiente < 0) {
+                    siguiente = nuevoEstado();
+                    agregarHijo(estado, c, siguiente);
+                }
+                estado = siguiente;
+            }
+            largo[estado] = palabra.length();
+        }
+
+        private int nuevoEstado() {
+            if (cantidad == hijos.length) {
+                int nuevo = cantidad * 2;
+                caracter = Arrays.copyOf(caracter, nuevo);
+                destino = Arrays.copyOf(destino, nuevo);
+                hijos = Arrays.copyOf(hijos, nuevo);
+                largo = Arrays.copyOf(largo, nuevo);
+            }
+            caracter[cantidad] = new char[2];
+            destino[cantidad] = new int[2];
+            largo[cantidad] = SIN_PALABRA;
+            return cantidad++;
+        }
+
+        private void agregarHijo(int estado, char c, int hijo) {
+            if (hijos[estado] == caracter[estado].length) {
+                caracter[estado] = Arrays.copyOf(caracter[estado], hijos[estado] * 2);
+                destino[estado] = Arrays.copyOf(destino[estado], hijos[estado] * 2);
+            }
+            caracter[estado][hijos[estado]] = c;
+            destino[estado][hijos[estado]] = hijo;
+            hijos[estado]++;
+        }
+    }
+}
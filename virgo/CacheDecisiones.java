@@ -0,0 +1,162 @@
+package virgo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+
+// Caché LRU de decisiones de moderación por contenido. Los bots y las inundaciones
+// de copiar y pegar mandan el mismo texto muchas veces: la primera copia va al
+// moderador y las siguientes reciben la misma decisión sin esperar a nadie, también
+// las que llegan mientras la primera todavía está en moderación (comparten su futuro).
+//
+// La clave es el SHA-256 (128 bits) del contenido normalizado: NFKC, minúsculas y
+// espacios colapsados. Un hash criptográfico evita que alguien fabrique un texto
+// distinto que herede la aprobación de otro. Las entradas vencen vigenciaMillis
+// después de decididas y, si hay más de maximoEntradas, se descarta la usada hace
+// más tiempo. Las decisiones que fallan no se guardan.
+//
+// El lock del mapa solo cubre buscar y anotar: un fallo deja en la caché un futuro
+// vacío y la moderación (índice de parecidos, pool, diario) se pide fuera del lock;
+// su resultado completa ese futuro, que comparten las copias que llegan mientras tanto.
+
+class CacheDecisiones {
+    private static final Pattern ESPACIOS = Pattern.compile("\\s+");
+
+    private final int maximoEntradas;
+    private final long vigenciaNanos;
+    private final LinkedHashMap<Clave, Entrada> entradas;
+    private final AtomicLong aciertos;
+    private final AtomicLong fallos;
+
+    CacheDecisiones(int maximoEntradas, long vigenciaMillis) {
+        this.maximoEntradas = maximoEntradas;
+        this.vigenciaNanos = TimeUnit.MILLISECONDS.toNanos(vigenciaMillis);
+        // En orden de acceso: el primero es el usado hace más tiempo
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Clave, Entrada> masViejo) {
+                return size() > CacheDecisiones.this.maximoEntradas;
+            }
+        };
+        this.aciertos = new AtomicLong();
+        this.fallos = new AtomicLong();
+    }
+
+    // Decisión para un contenido: la guardada (o en curso) si la hay; si no, la pide con moderar
+
+    CompletableFuture<String> decidir(String contenido, Supplier<CompletableFuture<String>> moderar) {
+        if (maximoEntradas <= 0) {
+            return moderar.get();
+        }
+        Clave clave = Clave.de(contenido);
+        Entrada nueva;
+        synchronized (entradas) {
+            Entrada entrada = entradas.get(clave);
+            if (entrada != null && !entrada.vencida(System.nanoTime())) {
+                aciertos.incrementAndGet();
+                return entrada.decision;
+            }
+            fallos.incrementAndGet();
+            nueva = new Entrada(new CompletableFuture<>());
+            entradas.put(clave, nueva);
+        }
+
+        try {
+            moderar.get().whenComplete((decision, error) -> {
+                if (error != null) {
+                    nueva.decision.completeExceptionally(error);
+                } else {
+                    nueva.decision.complete(decision);
+                }
+            });
+        } catch (RuntimeException e) {
+            nueva.decision.completeExceptionally(e);
+        }
+        nueva.decision.whenComplete((decision, error) -> {
+            synchronized (entradas) {
+                if (error != null) {
+                    entradas.remove(clave, nueva);
+                } else {
+                    nueva.vence = System.nanoTime() + vigenciaNanos;
+                }
+            }
+        });
+        return nueva.decision;
+    }
+
+    long getAciertos() {
+        return aciertos.get();
+    }
+
+    long getFallos() {
+        return fallos.get();
+    }
+
+    double getTasaAciertos() {
+        long total = aciertos.get() + fallos.get();
+        return total == 0 ? 0 : (double) aciertos.get() / total;
+    }
+
+    int getTamaño() {
+        synchronized (entradas) {
+            return entradas.size();
+        }
+    }
+
+    private static class Entrada {
+        final CompletableFuture<String> decision;
+        // Se fija al completarse la decisión; mientras tanto la entrada no vence
+        long vence = Long.MAX_VALUE;
+
+        Entrada(CompletableFuture<String> decision) {
+            this.decision = decision;
+        }
+
+        boolean vencida(long ahora) {
+            return vence != Long.MAX_VALUE && ahora - vence > 0;
+        }
+    }
+
+    private static class Clave {
+        private final long alto;
+        private final long bajo;
+
+        private Clave(long alto, long bajo) {
+            this.alto = alto;
+            this.bajo = bajo;
+        }
+
+        static Clave de(String contenido) {
+            String normalizado = Normalizer.normalize(contenido, Normalizer.Form.NFKC)
+                    .toLowerCase().strip();
+            normalizado = ESPACIOS.matcher(normalizado).replaceAll(" ");
+            try {
+                byte[] hash = MessageDigest.getInstance("SHA-256").digest(normalizado.getBytes(StandardCharsets.UTF_8));
+                ByteBuffer bytes = ByteBuffer.wrap(hash);
+                return new Clave(bytes.getLong(), bytes.getLong());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object otro) {
+            return otro instanceof Clave c && c.alto == alto && c.bajo == bajo;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(alto);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package virgo;
+
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+
+// Conexión del servidor con el moderador, multiplexada por id de mensaje.
+// Los mensajes pendientes se agrupan en lotes (acotados por cantidad, bytes y
+// tiempo de espera) que viajan en una sola trama cifrada:
+//   [n (int)] y n veces [id (long)][remitente (UTF)][tamaño (int)][texto][sugerencia (UTF)][plazo (long)]
+// donde el plazo son los milisegundos que le quedan al mensaje al salir el lote (-1 si
+// no vence): pasado ese tiempo el servidor ya no espera su decisión y el moderador lo
+// saca de su cola de revisión. El moderador responde con lotes de decisiones, en
+// cualquier orden y agrupadas como quiera (no tienen que coincidir con los lotes enviados):
+//   [n (int)] y n veces [id (long)][decisión (UTF)]
+// Varios mensajes pueden estar en moderación a la vez y cada hilo de cliente
+// espera la decisión de su propio mensaje. Los mensajes los asigna el
+// PoolModeradores; si la conexión se cae, los que no tenían decisión vuelven al pool.
+
+class CanalModerador {
+    private final Socket socket;
+    private final DataInputStream entrada;
+    private final DataOutputStream salida;
+    private final ContextoCripto cifradoEnvio;
+    private final ContextoCripto cifradoLectura;
+    private final BlockingQueue<SolicitudModeracion> porEnviar;
+    private final Map<Long, SolicitudModeracion> pendientes;
+    private final PoolModeradores pool;
+    private final int maximoLote;
+    private final int maximoBytesLote;
+    private final long esperaLoteMillis;
+    private volatile boolean cerrado;
+    private Thread hiloEnvio;
+
+    CanalModerador(Socket socket, DataInputStream entrada, DataOutputStream salida,
+                   SecretKey claveAES, PoolModeradores pool) throws GeneralSecurityException {
+        this.socket = socket;
+        this.entrada = entrada;
+        this.salida = salida;
+        // Un contexto por hilo: el de envío cifra lotes y el lector descifra decisiones
+        this.cifradoEnvio = new ContextoCripto(claveAES, null, null);
+        this.cifradoLectura = new ContextoCripto(claveAES, null, null);
+        this.porEnviar = new LinkedBlockingQueue<>();
+        this.pendientes = new ConcurrentHashMap<>();
+        this.pool = pool;
+        this.maximoLote = Configuracion.entero("virgo.lote.maximo", 64);
+        this.maximoBytesLote = Configuracion.entero("virgo.lote.bytes", 64 * 1024);
+        this.esperaLoteMillis = Configuracion.enteroLargo("virgo.lote.esperaMs", 5);
+    }
+
+    // Arranca el hilo que envía los lotes y el que lee las decisiones
+
+    void iniciar() {
+        hiloEnvio = Hilos.fabrica("moderador-envio-").newThread(this::enviarLotes);
+        hiloEnvio.start();
+        Hilos.ejecutar(() -> {
+            try {
+                while (true) {
+                    byte[] respuestaCifrada = CodecTramas.leerTrama(entrada, CodecTramas.MAXIMO_LOTE);
+
+                    recibirDecisiones(respuestaCifrada);
+                }
+            } catch (Exception e) {
+                Registro.info("Un moderador se desconectó (" + socket.getInetAddress() + ").");
+                cerrado = true;
+                cerrar();
+                hiloEnvio.interrupt();
+                pool.quitar(this);
+                devolverPendientes();
+            }
+        });
+    }
+
+    // Recibe un mensaje del pool para enviarlo en el próximo lote
+
+    void asignar(SolicitudModeracion solicitud) {
+        solicitud.asignar(this);
+        pendientes.put(solicitud.getId(), solicitud);
+        porEnviar.add(solicitud);
+        // Si la conexión se cerró mientras tanto, el mensaje vuelve al pool
+        if (cerrado) {
+            devolverPendientes();
+        }
+    }
+
+    // Saca un mensaje que venció estando asignado: deja de contar como pendiente de este
+    // moderador y, si todavía no salió en un lote, no se envía. Su decisión, si llega, se
+    // ignora. false si ya no estaba (se decidió o se devolvió al pool)
+
+    boolean retirar(SolicitudModeracion solicitud) {
+        if (!pendientes.remove(solicitud.getId(), solicitud)) {
+            return false;
+        }
+        pool.avisarCupo();
+        return true;
+    }
+
+    int getPendientes() {
+        return pendientes.size();
+    }
+
+    private void devolverPendientes() {
+        porEnviar.clear();
+        for (Long id : pendientes.keySet()) {
+            SolicitudModeracion solicitud = pendientes.remove(id);
+            if (solicitud != null) {
+                pool.devolver(solicitud);
+            }
+        }
+    }
+
+    // Espera el primer mensaje y junta los que lleguen en los siguientes milisegundos,
+    // hasta completar el lote; cada lote se cifra y se envía con un solo flush
+
+    private void enviarLotes() {
+        List<SolicitudModeracion> lote = new ArrayList<>(maximoLote);
+        Acumulador bytes = new Acumulador();
+        try {
+            while (true) {
+                SolicitudModeracion primera = porEnviar.take();
+                if (descartarRetirada(primera)) {
+                    continue;
+                }
+                lote.add(primera);
+                int tamañoLote = primera.getMensaje().getTextoUTF8().length;
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaLoteMillis);
+
+                while (lote.size() < maximoLote && tamañoLote < maximoBytesLote) {
+                    SolicitudModeracion siguiente = porEnviar.poll(limite - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (siguiente == null) {
+                        break;
+                    }
+                    if (descartarRetirada(siguiente)) {
+                        continue;
+                    }
+                    lote.add(siguiente);
+                    tamañoLote += siguiente.getMensaje().getTextoUTF8().length;
+                }
+
+                bytes.reset();
+                escribirLote(new DataOutputStream(bytes), lote);
+                byte[] loteCifrado = cifradoEnvio.cifrar(bytes.contenido(), 0, bytes.size());
+
+                // Se marca antes de escribir: la decisión no puede llegar antes que esto
+                long enviado = System.nanoTime();
+                for (SolicitudModeracion solicitud : lote) {
+                    solicitud.marcarEnviada(enviado);
+                    Metricas.COLA_MODERACION.registrar(enviado - solicitud.getCreada());
+                }
+
+                salida.writeInt(loteCifrado.length);
+                salida.write(loteCifrado);
+                salida.flush();
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // El hilo lector detecta el cierre y falla las solicitudes pendientes
+            cerrar();
+        }
+    }
+
+    // Contenido de un lote, antes de cifrarlo
+
+    static void escribirLote(DataOutputStream datos, List<SolicitudModeracion> lote) throws IOException {
+        long ahora = System.nanoTime();
+        datos.writeInt(lote.size());
+        for (SolicitudModeracion solicitud : lote) {
+            byte[] texto = solicitud.getMensaje().getTextoUTF8();
+            datos.writeLong(solicitud.getId());
+            datos.writeUTF(solicitud.getMensaje().getOrigen());
+            datos.writeInt(texto.length);
+            datos.write(texto);
+            datos.writeUTF(solicitud.getSugerencia());
+            long vence = solicitud.getVence();
+            datos.writeLong(vence == 0 ? -1 : Math.max(0, TimeUnit.NANOSECONDS.toMillis(vence - ahora)));
+        }
+    }
+
+    // Un mensaje que venció o se retiró mientras esperaba el lote ya no se manda al moderador
+
+    private boolean descartarRetirada(SolicitudModeracion solicitud) {
+        if (!solicitud.getDecision().isDone() && pendientes.get(solicitud.getId()) == solicitud) {
+            return false;
+        }
+        retirar(solicitud);
+        return true;
+    }
+
+    private void recibirDecisiones(byte[] respuestaCifrada) throws Exception {
+        int tamaño = cifradoLectura.descifrar(respuestaCifrada);
+        DataInputStream respuesta = new DataInputStream(
+                new ByteArrayInputStream(cifradoLectura.getBuffer(), 0, tamaño));
+        int cantidad = respuesta.readInt();
+
+        for (int i = 0; i < cantidad; i++) {
+            long id = respuesta.readLong();
+            String decision = respuesta.readUTF();
+
+            SolicitudModeracion solicitud = pendientes.remove(id);
+            if (solicitud == null) {
+                // Venció mientras el moderador lo tenía: la decisión llega tarde
+                Registro.detalle(() -> "Decisión tardía del moderador para el mensaje " + id + ", se ignora");
+                continue;
+            }
+            Metricas.MODERADOR.registrarDesde(solicitud.getEnviada());
+            solicitud.getDecision().complete(decision);
+        }
+        pool.avisarCupo();
+    }
+
+    void cerrar() {
+        try { socket.close(); } catch (Exception ignored) {}
+    }
+
+    // ByteArrayOutputStream que deja leer su arreglo interno sin copiarlo
+
+    private static class Acumulador extends ByteArrayOutputStream {
+        byte[] contenido() {
+            return buf;
+        }
+    }
+}
@@ -4,30 +4,83 @@ import javax.crypto.*;
 import java.io.*;
 import java.net.*;
 import java.security.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.spec.*;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public class Cliente {
-    private Socket socket;
-    private DataInputStream entradaServidor;
-    private DataOutputStream salidaServidor;
+    // Lo que entra en una trama de mensaje una vez cifrado (relleno de ECB o etiqueta de GCM)
+    // junto con el id del mensaje
+    private static final int MAXIMO_TEXTO = CodecTramas.MAXIMO_MENSAJE - 32 - CodecTramas.BYTES_ID;
+
+    private final String ipServidor;
+    private final int puertoServidor;
+    private volatile Socket socket;
+    private volatile DataInputStream entradaServidor;
+    private volatile DataOutputStream salidaServidor;
     private BufferedReader entradaConsola;
     private SecretKey claveAESCompartida;
     private PublicKey clavePublicaCliente;
     private PrivateKey clavePrivadaCliente;
-    private boolean esperandoRespuesta;
+    private volatile ContextoCripto contextoCripto;
+    private final boolean usarX25519;
+    private final boolean firmarMensajes;
+    private final int tamañoVentana;
+    private final Semaphore ventana;
+    private final Map<Long, CompletableFuture<Acuse>> enVuelo;
+    private final ReentrantLock lockEnvio;
+    private long siguienteId;
+    private volatile Consumer<String> oyenteDifusiones;
+    private String nombre;
+    private int opcionesSesion;
+    private byte[] ticketSesion;
+    private boolean sesionReanudada;
+    private final ReentrantLock lockReconexion;
+    private volatile int generacionConexion;
 
     public Cliente(String ipServidor, int puertoServidor) throws IOException {
-        this.socket = new Socket(ipServidor, puertoServidor);
-        this.entradaServidor = new DataInputStream(socket.getInputStream());
-        this.salidaServidor = new DataOutputStream(socket.getOutputStream());
+        this.ipServidor = ipServidor;
+        this.puertoServidor = puertoServidor;
         this.entradaConsola = new BufferedReader(new InputStreamReader(System.in));
-        this.esperandoRespuesta = false;
+        this.usarX25519 = "x25519".equalsIgnoreCase(Configuracion.texto("virgo.intercambio", "x25519"));
+        this.firmarMensajes = Configuracion.booleano("virgo.firma", false);
+        // Mensajes que se pueden enviar sin haber recibido todavía su respuesta
+        this.tamañoVentana = Configuracion.entero("virgo.cliente.ventana", 16);
+        this.ventana = new Semaphore(tamañoVentana);
+        this.enVuelo = new ConcurrentHashMap<>();
+        this.lockEnvio = new ReentrantLock();
+        this.lockReconexion = new ReentrantLock();
+        this.oyenteDifusiones = texto -> {
+            System.out.println("\n📩 " + texto);
+            System.out.print("Escribe tu mensaje: ");
+        };
+        conectar();
 
         System.out.println("Conectado al servidor " + ipServidor + ":" + puertoServidor);
     }
 
-    
+    private void conectar() throws IOException {
+        this.socket = new Socket(ipServidor, puertoServidor);
+        // Cada trama sale entera en el flush, sin esperar el ACK de la anterior (Nagle)
+        socket.setTcpNoDelay(true);
+        this.entradaServidor = new DataInputStream(socket.getInputStream());
+        this.salidaServidor = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    // Las claves RSA del cliente solo hacen falta para el intercambio RSA o para firmar;
+    // con X25519 y sin firma se evita generarlas al arrancar
+
+    public boolean necesitaClavesRSA() {
+        return !usarX25519 || firmarMensajes;
+    }
+
     public void generarClavesPub_y_Priv() throws NoSuchAlgorithmException {
         KeyPairGenerator generador = KeyPairGenerator.getInstance("RSA");
         generador.initialize(2048);
@@ -40,19 +93,49 @@ public class Cliente {
     // Establece la conexión segura con el servidor mediante intercambio de claves
      
     public void establecerConexionSegura() throws Exception {
-        // Recibir clave pública del servidor
+        // Recibir claves públicas del servidor (RSA y X25519 estática)
         PublicKey clavePublicaServidor = recibirClavePublicaDelServidor();
+        PublicKey claveX25519Servidor = recibirClaveX25519DelServidor();
+
+        // Con un ticket de una conexión anterior se intenta reanudar la sesión
+        sesionReanudada = ticketSesion != null && reanudarSesion();
+        if (sesionReanudada) {
+            return;
+        }
 
-        // Enviar clave pública del cliente al servidor
-        enviarClavePublicaAlServidor();
+        if (usarX25519) {
+            salidaServidor.writeInt(IntercambioX25519.X25519);
+
+            // Acordar la clave AES con X25519 + HKDF
+            acordarClaveX25519ConElServidor(claveX25519Servidor);
+
+            // Enviar clave pública del cliente (vacía si no va a firmar)
+            enviarClavePublicaAlServidor();
+        } else {
+            salidaServidor.writeInt(IntercambioX25519.RSA);
 
-        // Generar clave AES para comunicación simétrica
-        generarClaveAESAleatoria();
+            // Enviar clave pública del cliente al servidor
+            enviarClavePublicaAlServidor();
 
-        // Cifrar y enviar la clave AES al servidor
-        enviarClaveAESCifradaAlServidor(clavePublicaServidor);
+            // Generar clave AES para comunicación simétrica
+            generarClaveAESAleatoria();
 
-        System.out.println(" Conexión establecida");
+            // Cifrar y enviar la clave AES al servidor
+            enviarClaveAESCifradaAlServidor(clavePublicaServidor);
+        }
+
+        // Pedir el modo de la sesión: AES-GCM por defecto, firma RSA solo si se pide
+        int opciones = negociarOpcionesDeSesion();
+
+        if (opciones == 0) {
+            throw new IOException("El servidor no aceptó ningún modo de sesión");
+        }
+        opcionesSesion = opciones;
+
+        // Cifrador y firmador de la sesión, inicializados una sola vez
+        contextoCripto = ContextoCripto.sesion(claveAESCompartida, opciones, false, null, clavePrivadaCliente);
+
+        System.out.println(" Conexión establecida (" + OpcionesSesion.describir(opciones) + ")");
     }
 
     // Recibe y reconstruye la clave pública Asimetrica del servidor
@@ -66,11 +149,80 @@ public class Cliente {
         return fabricaClaves.generatePublic(new X509EncodedKeySpec(bytesClavePublica));
     }
 
-    
-    // Envía la clave pública del cliente al servidor
+    // Presenta el ticket de la sesión anterior. Si el servidor lo acepta, ambos derivan
+    // una clave nueva de la anterior con un nonce de cada lado (sin operaciones
+    // asimétricas); si no, se sigue con un handshake completo en la misma conexión
+
+    private boolean reanudarSesion() throws Exception {
+        byte[] nonceCliente = new byte[TicketsSesion.BYTES_NONCE];
+        new SecureRandom().nextBytes(nonceCliente);
+
+        salidaServidor.writeInt(IntercambioX25519.REANUDAR);
+        salidaServidor.writeInt(ticketSesion.length);
+        salidaServidor.write(ticketSesion);
+        salidaServidor.writeInt(nonceCliente.length);
+        salidaServidor.write(nonceCliente);
+        salidaServidor.flush();
+
+        if (entradaServidor.readInt() != 1) {
+            System.out.println(" El servidor no aceptó el ticket, handshake completo");
+            ticketSesion = null;
+            return false;
+        }
+        byte[] nonceServidor = new byte[entradaServidor.readInt()];
+        entradaServidor.readFully(nonceServidor);
+
+        claveAESCompartida = TicketsSesion.derivarClave(claveAESCompartida, nonceCliente, nonceServidor);
+        contextoCripto = ContextoCripto.sesion(claveAESCompartida, opcionesSesion, false, null, clavePrivadaCliente);
+        recibirTicketDeSesion();
+
+        System.out.println(" Sesión reanudada (" + OpcionesSesion.describir(opcionesSesion) + ")");
+        return true;
+    }
+
+    // Guarda el ticket que entrega el servidor para una futura reconexión
+
+    private void recibirTicketDeSesion() throws IOException {
+        byte[] ticket = new byte[entradaServidor.readInt()];
+        entradaServidor.readFully(ticket);
+        ticketSesion = ticket;
+    }
+
+    // Recibe la clave X25519 estática del servidor
+
+    private PublicKey recibirClaveX25519DelServidor() throws Exception {
+        int tamaño = entradaServidor.readInt();
+        byte[] bytesClave = new byte[tamaño];
+        entradaServidor.readFully(bytesClave);
+
+        return IntercambioX25519.decodificar(bytesClave);
+    }
+
+    // Acuerdo X25519: envía una clave efímera, recibe la efímera del servidor y
+    // deriva la clave AES compartida sin operaciones RSA
+
+    private void acordarClaveX25519ConElServidor(PublicKey claveX25519Servidor) throws Exception {
+        KeyPair efimeraCliente = IntercambioX25519.generarPar();
+        byte[] efimeraClienteBytes = efimeraCliente.getPublic().getEncoded();
+        salidaServidor.writeInt(efimeraClienteBytes.length);
+        salidaServidor.write(efimeraClienteBytes);
+        salidaServidor.flush();
+
+        int tamaño = entradaServidor.readInt();
+        byte[] efimeraServidorBytes = new byte[tamaño];
+        entradaServidor.readFully(efimeraServidorBytes);
+        PublicKey efimeraServidor = IntercambioX25519.decodificar(efimeraServidorBytes);
+
+        byte[] secretoEstatico = IntercambioX25519.acordar(efimeraCliente.getPrivate(), claveX25519Servidor);
+        byte[] secretoEfimero = IntercambioX25519.acordar(efimeraCliente.getPrivate(), efimeraServidor);
+        claveAESCompartida = IntercambioX25519.derivarClaveAES(secretoEstatico, secretoEfimero,
+                efimeraCliente.getPublic(), efimeraServidor);
+    }
+
+    // Envía la clave pública del cliente al servidor (tamaño 0 si no tiene)
      
     private void enviarClavePublicaAlServidor() throws IOException {
-        byte[] clavePublicaBytes = clavePublicaCliente.getEncoded();
+        byte[] clavePublicaBytes = clavePublicaCliente != null ? clavePublicaCliente.getEncoded() : new byte[0];
         salidaServidor.writeInt(clavePublicaBytes.length);
         salidaServidor.write(clavePublicaBytes);
         salidaServidor.flush();
@@ -96,81 +248,242 @@ public class Cliente {
         salidaServidor.flush();
     }
 
+    // Envía las opciones pedidas y devuelve las que aceptó el servidor
+
+    private int negociarOpcionesDeSesion() throws IOException {
+        int pedidas = 0;
+        if (Configuracion.booleano("virgo.gcm", true)) {
+            pedidas |= OpcionesSesion.GCM;
+        }
+        if (firmarMensajes) {
+            pedidas |= OpcionesSesion.FIRMA;
+        }
+        if (Configuracion.booleano("virgo.compresion", false)) {
+            pedidas |= OpcionesSesion.COMPRESION;
+        }
+        salidaServidor.writeInt(pedidas);
+        salidaServidor.flush();
+        return entradaServidor.readInt();
+    }
+
     // Solicita y envía el nombre del cliente al servidor
      
     public void enviarNombreDeUsuario() throws IOException {
         System.out.print("Ingresa tu nombre: ");
-        String nombre = entradaConsola.readLine();
-        byte[] nombreBytes = nombre.getBytes();
-        salidaServidor.writeInt(nombreBytes.length);
-        salidaServidor.write(nombreBytes);
-        salidaServidor.flush();
+        registrar(entradaConsola.readLine());
         System.out.println("Registrado como: " + nombre);
     }
 
+    // Registra el nombre sin pasar por la consola (clientes automáticos)
+
+    public void registrar(String nombre) throws IOException {
+        this.nombre = nombre;
+        registrarNombre();
+    }
+
+    // Qué hacer con los mensajes aprobados de otros clientes (por defecto, mostrarlos)
+
+    public void setOyenteDifusiones(Consumer<String> oyente) {
+        this.oyenteDifusiones = oyente;
+    }
+
+    private void registrarNombre() throws IOException {
+        CodecTramas.escribirTrama(salidaServidor, nombre.getBytes(StandardCharsets.UTF_8));
+        salidaServidor.flush();
+        recibirTicketDeSesion();
+    }
+
+    // Vuelve a conectarse después de un corte, con reintentos. Si otro hilo ya
+    // reconectó (la generación cambió) no hace nada. Devuelve false si no pudo.
+    // Los mensajes que estaban en vuelo fallan: pudieron no haberse entregado
+
+    private boolean reconectar(int generacionFallida) {
+        lockReconexion.lock();
+        lockEnvio.lock();
+        try {
+            if (generacionConexion != generacionFallida) {
+                return true;
+            }
+            try { socket.close(); } catch (Exception ignored) {}
+            int perdidos = fallarEnVuelo(new IOException("conexión perdida"));
+
+            int intentos = Configuracion.entero("virgo.reconexion.intentos", 5);
+            for (int intento = 0; intento < intentos; intento++) {
+                try {
+                    Thread.sleep(500L << intento);
+                    System.out.println("\nReconectando con el servidor...");
+                    conectar();
+                    establecerConexionSegura();
+                    if (!sesionReanudada) {
+                        registrarNombre();
+                    }
+                    generacionConexion++;
+                    System.out.println("Reconectado." + (perdidos > 0
+                            ? " " + perdidos + " mensaje(s) sin respuesta pudieron no haberse entregado." : ""));
+                    System.out.print("Escribe tu mensaje: ");
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (Exception e) {
+                    try { socket.close(); } catch (Exception ignored) {}
+                    System.err.println("No se pudo reconectar: " + e.getMessage());
+                }
+            }
+            return false;
+        } finally {
+            lockEnvio.unlock();
+            lockReconexion.unlock();
+        }
+    }
+
+    private int fallarEnVuelo(Exception causa) {
+        int fallados = 0;
+        for (Long id : enVuelo.keySet()) {
+            CompletableFuture<Acuse> acuse = enVuelo.remove(id);
+            if (acuse != null && acuse.completeExceptionally(causa)) {
+                fallados++;
+            }
+        }
+        return fallados;
+    }
+
     // Inicia el hilo que escucha respuestas del servidor
      
     public void iniciarHiloEscuchaRespuestas() {
-        new Thread(() -> {
-            try {
-                while (true) {
-                    int tamaño = entradaServidor.readInt();
-                    byte[] respuestaBytes = new byte[tamaño];
-                    entradaServidor.readFully(respuestaBytes);
-                    String respuesta = new String(respuestaBytes);
+        Hilos.ejecutar(() -> {
+            while (true) {
+                int generacion = generacionConexion;
+                try {
+                    byte[] respuesta = CodecTramas.leerTrama(entradaServidor, CodecTramas.MAXIMO_RESPUESTA);
 
                     procesarRespuestaDelServidor(respuesta);
+                } catch (IOException e) {
+                    System.err.println("Error al recibir respuesta: " + e.getMessage());
+                    if (!reconectar(generacion)) {
+                        return;
+                    }
                 }
-            } catch (IOException e) {
-                System.err.println("Error al recibir respuesta: " + e.getMessage());
             }
-        }).start();
+        });
     }
 
-    // Procesa las respuestas del servidor (ENVIADO o RECHAZADO)
+    // Procesa las respuestas del servidor: [código][datos]. ENVIADO, RECHAZADO y OCUPADO
+    // traen el id del mensaje al que responden (OCUPADO, además, cuánto esperar antes de
+    // reintentar) y completan su acuse; una DIFUSION trae el mensaje aprobado de otro
+    // cliente, cifrado
      
-    private void procesarRespuestaDelServidor(String respuesta) {
-        if ("ENVIADO".equals(respuesta)) {
-            System.out.println("Tu mensaje fue enviado");
-        } else if ("RECHAZADO".equals(respuesta)) {
-            System.out.println("Tu mensaje fue rechazado");
-        } else {
-            System.out.println("📩 " + respuesta);
+    private void procesarRespuestaDelServidor(byte[] respuesta) throws IOException {
+        byte codigo = respuesta.length > 0 ? respuesta[0] : 0;
+        if (codigo == CodecTramas.DIFUSION) {
+            try {
+                int tamaño = contextoCripto.descifrar(ByteBuffer.wrap(respuesta, 1, respuesta.length - 1));
+                oyenteDifusiones.accept(contextoCripto.texto(tamaño));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("difusión inválida: " + e.getMessage());
+            }
+            return;
         }
 
-        esperandoRespuesta = false;
-        System.out.print("Escribe tu mensaje: ");
+        if (respuesta.length < 1 + CodecTramas.BYTES_ID) {
+            System.out.println("Respuesta desconocida del servidor: " + codigo);
+            return;
+        }
+        ByteBuffer datos = ByteBuffer.wrap(respuesta, 1, respuesta.length - 1);
+        long id = datos.getLong();
+        int reintentarMillis = codigo == CodecTramas.OCUPADO && datos.remaining() >= Integer.BYTES ? datos.getInt() : 0;
+
+        CompletableFuture<Acuse> acuse = enVuelo.remove(id);
+        if (acuse == null) {
+            System.out.println("Respuesta para un mensaje desconocido: " + id);
+            return;
+        }
+        acuse.complete(new Acuse(id, codigo, reintentarMillis));
     }
 
-    // Inicia el bucle para enviar mensajes
+    // Envía un mensaje y devuelve su acuse, que se completa cuando responde el servidor
+    // (o falla si se corta la conexión antes). Si ya hay tantos mensajes sin respuesta
+    // como permite la ventana, espera a que se libere uno
+
+    public CompletableFuture<Acuse> enviar(String mensaje) throws Exception {
+        ventana.acquire();
+        CompletableFuture<Acuse> acuse = new CompletableFuture<>();
+        acuse.whenComplete((a, error) -> ventana.release());
+
+        lockEnvio.lock();
+        try {
+            long id = siguienteId++;
+            enVuelo.put(id, acuse);
+            try {
+                enviarMensajeCifradoConFirma(id, mensaje);
+            } catch (Exception e) {
+                enVuelo.remove(id);
+                acuse.completeExceptionally(e);
+                throw e;
+            }
+        } finally {
+            lockEnvio.unlock();
+        }
+        return acuse;
+    }
+
+    // Inicia el bucle para enviar mensajes. No espera la respuesta de cada uno: la
+    // muestra el hilo de escucha cuando llega. Al terminar la entrada espera las
+    // respuestas pendientes y vuelve
      
     public void iniciarBucleMensajes() throws Exception {
         System.out.print("Escribe tu mensaje: ");
 
-        while (true) {
-            // Esperar si hay una respuesta pendiente
-            while (esperandoRespuesta) {
-                Thread.sleep(100);
+        String mensaje;
+        while ((mensaje = entradaConsola.readLine()) != null) {
+            if (mensaje.getBytes(StandardCharsets.UTF_8).length > MAXIMO_TEXTO) {
+                System.out.println("Mensaje demasiado largo (máximo " + MAXIMO_TEXTO + " bytes)");
+                System.out.print("Escribe tu mensaje: ");
+            } else if (!mensaje.trim().isEmpty()) {
+                int generacion = generacionConexion;
+                try {
+                    enviar(mensaje).whenComplete(this::mostrarAcuse);
+                } catch (IOException e) {
+                    System.err.println("No se pudo enviar el mensaje: " + e.getMessage());
+                    if (!reconectar(generacion)) {
+                        throw e;
+                    }
+                }
             }
+        }
 
-            String mensaje = entradaConsola.readLine();
+        // Todos los lugares de la ventana libres: no queda ningún mensaje sin respuesta
+        ventana.acquire(tamañoVentana);
+        ventana.release(tamañoVentana);
+    }
 
-            if (mensaje != null && !mensaje.trim().isEmpty()) {
-                enviarMensajeCifradoConFirma(mensaje);
-                esperandoRespuesta = true;
-            }
+    private void mostrarAcuse(Acuse acuse, Throwable error) {
+        if (error != null) {
+            return;
         }
+        if (acuse.getCodigo() == CodecTramas.ENVIADO) {
+            System.out.println("Tu mensaje fue enviado");
+        } else if (acuse.getCodigo() == CodecTramas.RECHAZADO) {
+            System.out.println("Tu mensaje fue rechazado");
+        } else if (acuse.getCodigo() == CodecTramas.OCUPADO) {
+            System.out.printf("El servidor está ocupado, reintenta en %.1f s%n", acuse.getReintentarMillis() / 1000.0);
+        } else {
+            System.out.println("Respuesta desconocida del servidor: " + acuse.getCodigo());
+        }
+        System.out.print("Escribe tu mensaje: ");
     }
 
-    // Cifra un mensaje, lo firma y lo envía al servidor
-    private void enviarMensajeCifradoConFirma(String mensaje) throws Exception {
+    // Cifra un mensaje (precedido por su id), lo firma y lo envía al servidor
+    private void enviarMensajeCifradoConFirma(long id, String mensaje) throws Exception {
+        byte[] texto = mensaje.getBytes(StandardCharsets.UTF_8);
+        byte[] mensajeBytes = ByteBuffer.allocate(CodecTramas.BYTES_ID + texto.length).putLong(id).put(texto).array();
+
         // 1. Cifrar el mensaje con AES
-        Cipher cifradorAES = Cipher.getInstance("AES");
-        cifradorAES.init(Cipher.ENCRYPT_MODE, claveAESCompartida);
-        byte[] mensajeCifrado = cifradorAES.doFinal(mensaje.getBytes());
+        byte[] mensajeCifrado = contextoCripto.cifrar(mensajeBytes);
 
-        // 2. Firmar el mensaje original con la clave privada del cliente
-        byte[] firma = firmarMensaje(mensaje);
+        // 2. Firmar el mensaje original con la clave privada del cliente (solo si la
+        //    sesión usa firma; con AES-GCM la etiqueta ya protege la integridad)
+        byte[] firma = contextoCripto.usaFirma() ? firmarMensaje(mensajeBytes) : new byte[0];
 
         // 3. Crear el paquete con mensaje cifrado + firma
         Paquete paquete = new Paquete(mensajeCifrado, firma);
@@ -181,27 +494,14 @@ public class Cliente {
 
     // Firma un mensaje usando SHA-256 y la clave privada del cliente
     
-    private byte[] firmarMensaje(String mensaje) throws Exception {
-        Signature firmador = Signature.getInstance("SHA256withRSA");
-        firmador.initSign(clavePrivadaCliente);
-        firmador.update(mensaje.getBytes());
-        return firmador.sign();
+    private byte[] firmarMensaje(byte[] mensaje) throws Exception {
+        return contextoCripto.firmar(mensaje);
     }
 
     // Envía un paquete (mensaje cifrado + firma) al servidor
 
     private void enviarPaquete(Paquete paquete) throws IOException {
-        // Enviar mensaje cifrado
-        byte[] mensajeCifrado = paquete.getMensajeCifradoBytes();
-        salidaServidor.writeInt(mensajeCifrado.length);
-        salidaServidor.write(mensajeCifrado);
-
-        // Enviar firma
-        byte[] firma = paquete.getFirmaBytes();
-        salidaServidor.writeInt(firma.length);
-        salidaServidor.write(firma);
-
-        salidaServidor.flush();
+        CodecTramas.escribirPaquete(salidaServidor, paquete);
     }
 
     public static void main(String[] args) {
@@ -216,11 +516,14 @@ public class Cliente {
             int puerto = Integer.parseInt(args[1]);
 
             Cliente cliente = new Cliente(ipServidor, puerto);
-            cliente.generarClavesPub_y_Priv();
+            if (cliente.necesitaClavesRSA()) {
+                cliente.generarClavesPub_y_Priv();
+            }
             cliente.establecerConexionSegura();
             cliente.enviarNombreDeUsuario();
             cliente.iniciarHiloEscuchaRespuestas();
             cliente.iniciarBucleMensajes();
+            System.exit(0);
 
         } catch (NumberFormatException e) {
             System.err.println("Error: El puerto debe ser un número entero");
@@ -232,4 +535,30 @@ public class Cliente {
         }
     }
 
+    // Respuesta del servidor a un mensaje: ENVIADO, RECHAZADO u OCUPADO (con la espera
+    // sugerida antes de reintentar)
+
+    public static class Acuse {
+        private final long id;
+        private final byte codigo;
+        private final int reintentarMillis;
+
+        Acuse(long id, byte codigo, int reintentarMillis) {
+            this.id = id;
+            this.codigo = codigo;
+            this.reintentarMillis = reintentarMillis;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public byte getCodigo() {
+            return codigo;
+        }
+
+        public int getReintentarMillis() {
+            return reintentarMillis;
+        }
+    }
 }
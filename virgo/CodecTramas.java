@@ -0,0 +1,219 @@
+package virgo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Lectura y escritura de las tramas del protocolo ([tamaño (int)][bytes]) en un
+// solo lugar, para el servidor, los clientes y los moderadores:
+//  - el tamaño de cada trama se valida contra un máximo antes de reservar memoria
+//    (el int viene de la red y no es confiable);
+//  - los paquetes de los clientes se leen en buffers directos que se toman de un
+//    pool y se devuelven al terminar de procesar el paquete, sin arreglos por mensaje.
+//    El tamaño se lee antes en 4 bytes propios del hilo, así una conexión que espera
+//    su próximo mensaje no retiene ningún buffer, y el buffer se toma de la clase de
+//    tamaño que alcanza para la trama (1 KB, 4 KB, 16 KB... hasta MAXIMO_MENSAJE);
+//  - el texto viaja siempre en UTF-8, sin depender del charset de la plataforma;
+//  - las respuestas al cliente empiezan con un código de un byte ([código][datos]);
+//    las de estado llevan el id del mensaje al que responden (OCUPADO, además, la
+//    espera sugerida), así el cliente puede tener varios mensajes en vuelo.
+
+final class CodecTramas {
+    // Respuestas a un mensaje del cliente: [código][id del mensaje (long)]
+    static final byte ENVIADO = 1;
+    static final byte RECHAZADO = 2;
+    // Mensaje aprobado de otro cliente: [DIFUSION][texto cifrado con la clave de la sesión]
+    static final byte DIFUSION = 3;
+    // La moderación está saturada: [OCUPADO][id][milisegundos para reintentar (int)]
+    static final byte OCUPADO = 4;
+
+    // Cada mensaje de un cliente, ya descifrado, empieza con el id que le asignó el cliente
+    static final int BYTES_ID = Long.BYTES;
+
+    // Mensaje cifrado de un cliente (la clase más grande de buffers del pool)
+    static final int MAXIMO_MENSAJE = Configuracion.entero("virgo.trama.maximoMensaje", 64 * 1024);
+    // Firma RSA de un paquete
+    static final int MAXIMO_FIRMA = 1024;
+    // Claves, nonces, tickets y nombres del handshake
+    static final int MAXIMO_CONTROL = 8 * 1024;
+    // Respuestas y difusiones que recibe el cliente (un mensaje cifrado con el nombre
+    // de su autor, más el código)
+    static final int MAXIMO_RESPUESTA = MAXIMO_MENSAJE + MAXIMO_CONTROL;
+    // Lotes del enlace con el moderador
+    static final int MAXIMO_LOTE = Configuracion.entero("virgo.trama.maximoLote", 4 * 1024 * 1024);
+
+    // Cada clase del pool guarda a lo sumo estos bytes en buffers libres
+    private static final long BYTES_POR_CLASE = Configuracion.enteroLargo("virgo.trama.poolBytes", 16 * 1024 * 1024);
+    private static final int MINIMO_CLASE = 1024;
+    private static final ClaseBuffers[] CLASES = clases();
+    private static final ThreadLocal<ByteBuffer> CABECERA = ThreadLocal.withInitial(() -> ByteBuffer.allocate(Integer.BYTES));
+    private static final ByteBuffer VACIO = ByteBuffer.allocate(0);
+
+    private CodecTramas() {
+    }
+
+    private static ClaseBuffers[] clases() {
+        List<ClaseBuffers> clases = new ArrayList<>();
+        for (int capacidad = MINIMO_CLASE; capacidad < MAXIMO_MENSAJE; capacidad *= 4) {
+            clases.add(new ClaseBuffers(capacidad));
+        }
+        clases.add(new ClaseBuffers(MAXIMO_MENSAJE));
+        return clases.toArray(new ClaseBuffers[0]);
+    }
+
+    // Buffer directo de al menos tamaño bytes (a lo sumo MAXIMO_MENSAJE), listo para escribir
+
+    static ByteBuffer tomarBuffer(int tamaño) {
+        for (ClaseBuffers clase : CLASES) {
+            if (tamaño <= clase.capacidad) {
+                return clase.tomar();
+            }
+        }
+        throw new IllegalArgumentException("Buffer más grande que el máximo de un mensaje: " + tamaño);
+    }
+
+    // Devuelve un buffer al pool de su clase; los que no salieron de él (o sobran) quedan para el GC
+
+    static void devolverBuffer(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        for (ClaseBuffers clase : CLASES) {
+            if (buffer.capacity() == clase.capacidad) {
+                clase.devolver(buffer);
+                return;
+            }
+        }
+    }
+
+    static int validarTamaño(int tamaño, int maximo) throws IOException {
+        if (tamaño < 0 || tamaño > maximo) {
+            throw new IOException("Tamaño de trama inválido: " + tamaño + " (máximo " + maximo + ")");
+        }
+        return tamaño;
+    }
+
+    // Lee una trama pequeña (handshake, lotes, respuestas) en un arreglo propio
+
+    static byte[] leerTrama(DataInputStream entrada, int maximo) throws IOException {
+        byte[] trama = new byte[validarTamaño(entrada.readInt(), maximo)];
+        entrada.readFully(trama);
+        return trama;
+    }
+
+    static void escribirTrama(DataOutputStream salida, byte[] datos) throws IOException {
+        salida.writeInt(datos.length);
+        salida.write(datos);
+    }
+
+    // Lee un paquete de cliente (mensaje cifrado y firma) en buffers del pool;
+    // quien lo procese debe llamar a Paquete.liberar()
+
+    static Paquete leerPaquete(ReadableByteChannel canal) throws IOException {
+        // El tiempo de lectura se cuenta desde que llegó el tamaño, sin la espera a que
+        // el cliente mande algo
+        int tamaño = leerTamaño(canal, MAXIMO_MENSAJE);
+        long inicio = System.nanoTime();
+        ByteBuffer mensajeCifrado = leerCuerpo(canal, tamaño);
+        try {
+            Paquete paquete = new Paquete(mensajeCifrado, leerCuerpo(canal, leerTamaño(canal, MAXIMO_FIRMA)));
+            Metricas.LECTURA.registrarDesde(inicio);
+            return paquete;
+        } catch (IOException e) {
+            devolverBuffer(mensajeCifrado);
+            throw e;
+        }
+    }
+
+    // Lee el tamaño de la trama en los 4 bytes del hilo y lo valida
+
+    private static int leerTamaño(ReadableByteChannel canal, int maximo) throws IOException {
+        ByteBuffer cabecera = CABECERA.get().clear();
+        leerCompleto(canal, cabecera);
+        return validarTamaño(cabecera.getInt(0), maximo);
+    }
+
+    // Lee el contenido de la trama en un buffer del pool; si falla, el buffer vuelve al pool
+
+    private static ByteBuffer leerCuerpo(ReadableByteChannel canal, int tamaño) throws IOException {
+        if (tamaño == 0) {
+            return VACIO;
+        }
+        ByteBuffer buffer = tomarBuffer(tamaño);
+        try {
+            buffer.limit(tamaño);
+            leerCompleto(canal, buffer);
+            return buffer.flip();
+        } catch (IOException e) {
+            devolverBuffer(buffer);
+            throw e;
+        }
+    }
+
+    private static void leerCompleto(ReadableByteChannel canal, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (canal.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    static void escribirPaquete(DataOutputStream salida, Paquete paquete) throws IOException {
+        escribirBuffer(salida, paquete.getMensajeCifrado());
+        escribirBuffer(salida, paquete.getFirma());
+        salida.flush();
+    }
+
+    private static void escribirBuffer(DataOutputStream salida, ByteBuffer datos) throws IOException {
+        salida.writeInt(datos.remaining());
+        if (datos.hasArray()) {
+            salida.write(datos.array(), datos.arrayOffset() + datos.position(), datos.remaining());
+        } else {
+            byte[] copia = new byte[datos.remaining()];
+            datos.duplicate().get(copia);
+            salida.write(copia);
+        }
+    }
+
+    // Buffers libres de una misma capacidad
+
+    private static class ClaseBuffers {
+        final int capacidad;
+        final int maximoLibres;
+        final Queue<ByteBuffer> libres;
+        final AtomicInteger cantidadLibres;
+
+        ClaseBuffers(int capacidad) {
+            this.capacidad = capacidad;
+            this.maximoLibres = (int) Math.max(1, Math.min(Integer.MAX_VALUE, BYTES_POR_CLASE / capacidad));
+            this.libres = new ConcurrentLinkedQueue<>();
+            this.cantidadLibres = new AtomicInteger();
+        }
+
+        ByteBuffer tomar() {
+            ByteBuffer buffer = libres.poll();
+            if (buffer == null) {
+                return ByteBuffer.allocateDirect(capacidad);
+            }
+            cantidadLibres.decrementAndGet();
+            return buffer.clear();
+        }
+
+        void devolver(ByteBuffer buffer) {
+            if (cantidadLibres.incrementAndGet() <= maximoLibres) {
+                libres.add(buffer);
+            } else {
+                cantidadLibres.decrementAndGet();
+            }
+        }
+    }
+}
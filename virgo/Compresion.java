@@ -0,0 +1,198 @@
+package virgo;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+// Compresión de los mensajes antes de cifrarlos, en las sesiones que la negociaron
+// (bit COMPRESION de OpcionesSesion). Lo que se cifra lleva delante un byte con el códec:
+//   [SIN_COMPRIMIR][mensaje]
+//   [DEFLATE][tamaño original (int)][mensaje en deflate, sin cabecera zlib]
+// Solo se intenta con los mensajes de virgo.compresion.umbral bytes o más, y si el
+// resultado no ahorra nada el mensaje va sin comprimir: los textos cortos y lo que ya
+// viene comprimido no pagan el deflate del otro lado. El byte de códec deja lugar para
+// otros algoritmos sin cambiar la negociación.
+//
+// Como ContextoCripto, cada lado (empaquetar al cifrar, desempaquetar al descifrar) se
+// usa desde un solo hilo a la vez. Los Deflater e Inflater (cientos de KB de memoria
+// nativa de zlib cada uno) no son de la sesión: se toman de un pool compartido solo
+// mientras se comprime o descomprime un mensaje, así la memoria nativa depende de los
+// mensajes en proceso y no de los clientes conectados, y nada queda esperando al GC.
+//
+// Comprimir antes de cifrar deja ver en el tamaño cifrado cuánto se repite el texto
+// (ataques tipo CRIME): quien logra meter texto propio junto a un secreto puede
+// adivinarlo por el largo. Por eso cada mensaje se comprime solo, nunca junto con los
+// de otros usuarios (el enlace con el moderador, que manda lotes mezclados, no
+// comprime), y la compresión está apagada salvo que se active con virgo.compresion.
+
+final class Compresion {
+    static final byte SIN_COMPRIMIR = 0;
+    static final byte DEFLATE = 1;
+    private static final int CABECERA_DEFLATE = 1 + Integer.BYTES;
+    private static final int UMBRAL = Configuracion.entero("virgo.compresion.umbral", 256);
+    private static final int NIVEL = Configuracion.entero("virgo.compresion.nivel", Deflater.BEST_SPEED);
+    private static final int MAXIMO_EN_POOL = Configuracion.entero("virgo.compresion.pool", 64);
+    private static final Libres<Deflater> DEFLATERS = new Libres<>(() -> new Deflater(NIVEL, true), Deflater::end);
+    private static final Libres<Inflater> INFLATERS = new Libres<>(() -> new Inflater(true), Inflater::end);
+
+    // Mensajes que pasaron por una sesión con compresión (en las dos direcciones),
+    // cuántos iban comprimidos y los bytes de esos antes y después de comprimir
+    private static final LongAdder MENSAJES = Metricas.contador("compresion.mensajes");
+    private static final LongAdder COMPRIMIDOS = Metricas.contador("compresion.comprimidos");
+    private static final LongAdder BYTES_ORIGINALES = Metricas.contador("compresion.bytesOriginales");
+    private static final LongAdder BYTES_COMPRIMIDOS = Metricas.contador("compresion.bytesComprimidos");
+
+    private final int maximoDescomprimido;
+    private byte[] empaquetado;
+    private byte[] descomprimido;
+
+    // maximoDescomprimido acota lo que puede declarar un mensaje comprimido que llega
+
+    Compresion(int maximoDescomprimido) {
+        this.maximoDescomprimido = maximoDescomprimido;
+        this.empaquetado = new byte[1024];
+        this.descomprimido = new byte[1024];
+    }
+
+    // Deja en getEmpaquetado() el mensaje con su byte de códec y devuelve su tamaño
+
+    int empaquetar(byte[] datos, int desde, int tamaño) {
+        MENSAJES.increment();
+        if (empaquetado.length < 1 + tamaño) {
+            empaquetado = new byte[Math.max(1 + tamaño, empaquetado.length * 2)];
+        }
+        if (tamaño >= UMBRAL && tamaño > CABECERA_DEFLATE) {
+            Deflater deflater = DEFLATERS.tomar();
+            int comprimidos;
+            boolean entra;
+            try {
+                deflater.setInput(datos, desde, tamaño);
+                deflater.finish();
+                // Si no termina en menos lugar que el original, no conviene
+                comprimidos = deflater.deflate(empaquetado, CABECERA_DEFLATE, tamaño - CABECERA_DEFLATE);
+                entra = deflater.finished();
+            } finally {
+                deflater.reset();
+                DEFLATERS.devolver(deflater);
+            }
+            if (entra) {
+                empaquetado[0] = DEFLATE;
+                ByteBuffer.wrap(empaquetado, 1, Integer.BYTES).putInt(tamaño);
+                COMPRIMIDOS.increment();
+                BYTES_ORIGINALES.add(tamaño);
+                BYTES_COMPRIMIDOS.add(CABECERA_DEFLATE + comprimidos);
+                return CABECERA_DEFLATE + comprimidos;
+            }
+        }
+        empaquetado[0] = SIN_COMPRIMIR;
+        System.arraycopy(datos, desde, empaquetado, 1, tamaño);
+        return 1 + tamaño;
+    }
+
+    byte[] getEmpaquetado() {
+        return empaquetado;
+    }
+
+    // Deja en getDescomprimido() el mensaje original y devuelve su tamaño
+
+    int desempaquetar(byte[] datos, int tamaño) throws DataFormatException {
+        if (tamaño < 1) {
+            throw new DataFormatException("mensaje sin códec");
+        }
+        MENSAJES.increment();
+        if (datos[0] == SIN_COMPRIMIR) {
+            asegurarDescomprimido(tamaño - 1);
+            System.arraycopy(datos, 1, descomprimido, 0, tamaño - 1);
+            return tamaño - 1;
+        }
+        if (datos[0] != DEFLATE || tamaño < CABECERA_DEFLATE) {
+            throw new DataFormatException("códec desconocido: " + datos[0]);
+        }
+        int original = ByteBuffer.wrap(datos, 1, Integer.BYTES).getInt();
+        if (original <= 0 || original > maximoDescomprimido) {
+            throw new DataFormatException("tamaño descomprimido inválido: " + original);
+        }
+        asegurarDescomprimido(original);
+        Inflater inflater = INFLATERS.tomar();
+        try {
+            inflater.setInput(datos, CABECERA_DEFLATE, tamaño - CABECERA_DEFLATE);
+            int leidos = inflater.inflate(descomprimido, 0, original);
+            if (leidos != original || !inflater.finished()) {
+                throw new DataFormatException("el mensaje no ocupa el tamaño declarado: " + original);
+            }
+        } finally {
+            inflater.reset();
+            INFLATERS.devolver(inflater);
+        }
+        COMPRIMIDOS.increment();
+        BYTES_ORIGINALES.add(original);
+        BYTES_COMPRIMIDOS.add(tamaño);
+        return original;
+    }
+
+    byte[] getDescomprimido() {
+        return descomprimido;
+    }
+
+    private void asegurarDescomprimido(int tamaño) {
+        if (descomprimido.length < tamaño) {
+            descomprimido = new byte[Math.max(tamaño, descomprimido.length * 2)];
+        }
+    }
+
+    // Una línea para el resumen al apagar el servidor, o null si no pasó ningún mensaje
+
+    static String resumen() {
+        long mensajes = MENSAJES.sum();
+        if (mensajes == 0) {
+            return null;
+        }
+        long comprimidos = COMPRIMIDOS.sum();
+        long originales = BYTES_ORIGINALES.sum();
+        return String.format(" Compresión: %d de %d mensajes comprimidos (%.1f%%), a %.1f%% de su tamaño",
+                comprimidos, mensajes, 100.0 * comprimidos / mensajes,
+                originales == 0 ? 100.0 : 100.0 * BYTES_COMPRIMIDOS.sum() / originales);
+    }
+
+    // Deflaters o Inflaters libres, listos para usar; los que sobran se terminan en el acto
+
+    private static class Libres<T> {
+        private final Queue<T> libres;
+        private final AtomicInteger cantidad;
+        private final Supplier<T> crear;
+        private final Consumer<T> terminar;
+
+        Libres(Supplier<T> crear, Consumer<T> terminar) {
+            this.libres = new ConcurrentLinkedQueue<>();
+            this.cantidad = new AtomicInteger();
+            this.crear = crear;
+            this.terminar = terminar;
+        }
+
+        T tomar() {
+            T libre = libres.poll();
+            if (libre == null) {
+                return crear.get();
+            }
+            cantidad.decrementAndGet();
+            return libre;
+        }
+
+        void devolver(T usado) {
+            if (cantidad.incrementAndGet() <= MAXIMO_EN_POOL) {
+                libres.add(usado);
+            } else {
+                cantidad.decrementAndGet();
+                terminar.accept(usado);
+            }
+        }
+    }
+}
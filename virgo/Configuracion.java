@@ -0,0 +1,46 @@
+package virgo;
+
+
+// Lectura de opciones del proceso a partir de propiedades del sistema (-Dvirgo.xxx=valor)
+
+final class Configuracion {
+
+    private Configuracion() {
+    }
+
+    static String texto(String nombre, String porDefecto) {
+        String valor = System.getProperty(nombre);
+        return (valor == null || valor.trim().isEmpty()) ? porDefecto : valor.trim();
+    }
+
+    static int entero(String nombre, int porDefecto) {
+        String valor = System.getProperty(nombre);
+        if (valor == null) {
+            return porDefecto;
+        }
+        try {
+            return Integer.parseInt(valor.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + nombre + ": " + valor + " (se usa " + porDefecto + ")");
+            return porDefecto;
+        }
+    }
+
+    static long enteroLargo(String nombre, long porDefecto) {
+        String valor = System.getProperty(nombre);
+        if (valor == null) {
+            return porDefecto;
+        }
+        try {
+            return Long.parseLong(valor.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + nombre + ": " + valor + " (se usa " + porDefecto + ")");
+            return porDefecto;
+        }
+    }
+
+    static boolean booleano(String nombre, boolean porDefecto) {
+        String valor = System.getProperty(nombre);
+        return valor == null ? porDefecto : Boolean.parseBoolean(valor.trim());
+    }
+}
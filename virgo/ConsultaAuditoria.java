@@ -0,0 +1,64 @@
+package virgo;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+
+// Consulta el registro de auditoría de la moderación, también mientras el servidor lo
+// escribe (lo abre solo para leer). Muestra las decisiones de un remitente (o de todos
+// con *) en un rango de tiempo, en orden:
+//
+//   java ConsultaAuditoria "ana" 2026-10-18T09:00 2026-10-18T18:00
+//   java -Dvirgo.auditoria.maximo=100 ConsultaAuditoria "*" 2026-10-18T09:00
+//
+//   -Dvirgo.auditoria.directorio=auditoria   el mismo directorio que usa el servidor
+//   -Dvirgo.auditoria.maximo=1000            cantidad máxima de decisiones a mostrar
+
+public class ConsultaAuditoria {
+
+    // Instante en hora local (2026-10-18T09:00) a ms de época; "-" es sin límite
+
+    private static long instante(String texto, long sinLimite) {
+        if (texto.equals("-")) {
+            return sinLimite;
+        }
+        return LocalDateTime.parse(texto).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Uso: java ConsultaAuditoria <remitente|*> [desde|-] [hasta|-]");
+            System.err.println("Ejemplo: java ConsultaAuditoria \"ana\" 2026-10-18T09:00 2026-10-18T18:00");
+            System.exit(1);
+        }
+
+        try {
+            String remitente = args[0].equals("*") ? null : args[0];
+            long desde = args.length > 1 ? instante(args[1], Long.MIN_VALUE) : Long.MIN_VALUE;
+            long hasta = args.length > 2 ? instante(args[2], Long.MAX_VALUE) : Long.MAX_VALUE;
+            AuditoriaModeracion auditoria = AuditoriaModeracion.abrirLectura(
+                    Path.of(Configuracion.texto("virgo.auditoria.directorio", "auditoria")));
+
+            long inicio = System.nanoTime();
+            List<AuditoriaModeracion.Entrada> decisiones = auditoria.consultar(remitente, desde, hasta,
+                    Configuracion.entero("virgo.auditoria.maximo", 1000));
+            long nanos = System.nanoTime() - inicio;
+
+            for (AuditoriaModeracion.Entrada decision : decisiones) {
+                System.out.println(decision);
+            }
+            System.out.printf("%d decisiones en %d segmentos (%.1f ms)%n", decisiones.size(),
+                    auditoria.getSegmentos(), nanos / 1e6);
+        } catch (DateTimeParseException e) {
+            System.err.println("Error: Las fechas van como 2026-10-18T09:00 (hora local) o -");
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println("Error al consultar la auditoría: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
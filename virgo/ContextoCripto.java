@@ -0,0 +1,212 @@
+package virgo;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.zip.DataFormatException;
+
+
+// Estado criptográfico de una sesión: cifradores AES y firmador/verificador RSA
+// ya inicializados con las claves de la sesión, más un buffer reutilizable donde
+// se descifran los mensajes. Se crean una vez por conexión en lugar de buscar el
+// proveedor e inicializar en cada mensaje.
+//
+// Si la sesión negoció compresión, cada mensaje pasa por Compresion antes de cifrarse
+// y después de descifrarse; quien usa el contexto ve siempre el mensaje original (las
+// firmas también son sobre el original).
+//
+// En modo GCM cada mensaje lleva su etiqueta de autenticación y el nonce se arma
+// con la dirección (cliente->servidor o servidor->cliente) y un número de
+// secuencia implícito que ambos lados llevan: un mensaje alterado, repetido o
+// fuera de orden no pasa la verificación.
+//
+// No es seguro entre hilos: el lado que cifra y el que descifra (con su firma)
+// pueden usarse desde dos hilos distintos, pero cada uno desde un solo hilo a la vez.
+
+class ContextoCripto {
+    private static final int BITS_ETIQUETA_GCM = 128;
+    private static final int DIRECCION_CLIENTE_A_SERVIDOR = 0;
+    private static final int DIRECCION_SERVIDOR_A_CLIENTE = 1;
+
+    private final SecretKey claveAES;
+    private final boolean gcm;
+    private final int direccionEnvio;
+    private final int direccionRecepcion;
+    private final byte[] nonceEnvio;
+    private final byte[] nonceRecepcion;
+    private long secuenciaEnvio;
+    private long secuenciaRecepcion;
+    private final Cipher cifrador;
+    private final Cipher descifrador;
+    private final Signature verificador;
+    private final Signature firmador;
+    private final Compresion compresion;
+    private byte[] buffer;
+    // Copia de la firma cuando llega en un buffer directo (sin arreglo detrás)
+    private byte[] firmaRecibida;
+    // Donde quedó el último mensaje descifrado: buffer, o el de Compresion si venía empaquetado
+    private byte[] contenido;
+
+    // Contexto clásico (AES/ECB) sin compresión, el del enlace con el moderador
+
+    ContextoCripto(SecretKey claveAES, PublicKey claveVerificacion, PrivateKey claveFirma)
+            throws GeneralSecurityException {
+        this(claveAES, false, false, claveVerificacion, claveFirma, null);
+    }
+
+    // Contexto de una sesión de cliente; ladoServidor indica qué dirección cifra este extremo
+
+    static ContextoCripto sesion(SecretKey claveAES, int opciones, boolean ladoServidor,
+                                 PublicKey claveVerificacion, PrivateKey claveFirma)
+            throws GeneralSecurityException {
+        boolean firma = OpcionesSesion.tiene(opciones, OpcionesSesion.FIRMA);
+        return new ContextoCripto(claveAES, OpcionesSesion.tiene(opciones, OpcionesSesion.GCM), ladoServidor,
+                firma ? claveVerificacion : null, firma ? claveFirma : null,
+                OpcionesSesion.tiene(opciones, OpcionesSesion.COMPRESION)
+                        ? new Compresion(CodecTramas.MAXIMO_RESPUESTA) : null);
+    }
+
+    private ContextoCripto(SecretKey claveAES, boolean gcm, boolean ladoServidor, PublicKey claveVerificacion,
+                           PrivateKey claveFirma, Compresion compresion) throws GeneralSecurityException {
+        this.claveAES = claveAES;
+        this.gcm = gcm;
+        this.direccionEnvio = ladoServidor ? DIRECCION_SERVIDOR_A_CLIENTE : DIRECCION_CLIENTE_A_SERVIDOR;
+        this.direccionRecepcion = ladoServidor ? DIRECCION_CLIENTE_A_SERVIDOR : DIRECCION_SERVIDOR_A_CLIENTE;
+        this.nonceEnvio = new byte[12];
+        this.nonceRecepcion = new byte[12];
+
+        String transformacion = gcm ? "AES/GCM/NoPadding" : "AES";
+        this.cifrador = Cipher.getInstance(transformacion);
+        this.descifrador = Cipher.getInstance(transformacion);
+        if (!gcm) {
+            // En ECB se inicializan una sola vez; en GCM se reinicializan con cada nonce
+            this.cifrador.init(Cipher.ENCRYPT_MODE, claveAES);
+            this.descifrador.init(Cipher.DECRYPT_MODE, claveAES);
+        }
+
+        if (claveVerificacion != null) {
+            this.verificador = Signature.getInstance("SHA256withRSA");
+            this.verificador.initVerify(claveVerificacion);
+        } else {
+            this.verificador = null;
+        }
+        if (claveFirma != null) {
+            this.firmador = Signature.getInstance("SHA256withRSA");
+            this.firmador.initSign(claveFirma);
+        } else {
+            this.firmador = null;
+        }
+        this.compresion = compresion;
+        this.buffer = new byte[1024];
+        this.firmaRecibida = new byte[0];
+        this.contenido = buffer;
+    }
+
+    // Cifra con la clave de la sesión; el cifrador queda listo para el siguiente mensaje
+
+    byte[] cifrar(byte[] datos, int desde, int tamaño) throws GeneralSecurityException {
+        if (compresion != null) {
+            tamaño = compresion.empaquetar(datos, desde, tamaño);
+            datos = compresion.getEmpaquetado();
+            desde = 0;
+        }
+        if (gcm) {
+            cifrador.init(Cipher.ENCRYPT_MODE, claveAES, siguienteNonce(nonceEnvio, direccionEnvio, secuenciaEnvio++));
+        }
+        return cifrador.doFinal(datos, desde, tamaño);
+    }
+
+    byte[] cifrar(byte[] datos) throws GeneralSecurityException {
+        return cifrar(datos, 0, datos.length);
+    }
+
+    // Descifra en el buffer de la sesión y devuelve cuántos bytes quedaron en él
+
+    int descifrar(byte[] cifrado) throws GeneralSecurityException {
+        return descifrar(ByteBuffer.wrap(cifrado));
+    }
+
+    // Igual, leyendo directo del buffer (directo o no) donde llegó la trama; lo consume.
+    // Un mensaje comprimido que no se puede descomprimir es tan inválido como uno mal cifrado
+
+    int descifrar(ByteBuffer cifrado) throws GeneralSecurityException {
+        if (gcm) {
+            descifrador.init(Cipher.DECRYPT_MODE, claveAES, siguienteNonce(nonceRecepcion, direccionRecepcion, secuenciaRecepcion++));
+        }
+        int necesario = descifrador.getOutputSize(cifrado.remaining());
+        if (buffer.length < necesario) {
+            buffer = new byte[Math.max(necesario, buffer.length * 2)];
+        }
+        int tamaño = descifrador.doFinal(cifrado, ByteBuffer.wrap(buffer));
+        if (compresion == null) {
+            contenido = buffer;
+            return tamaño;
+        }
+        try {
+            tamaño = compresion.desempaquetar(buffer, tamaño);
+        } catch (DataFormatException e) {
+            throw new GeneralSecurityException("mensaje comprimido inválido: " + e.getMessage(), e);
+        }
+        contenido = compresion.getDescomprimido();
+        return tamaño;
+    }
+
+    // Contenido descifrado, válido hasta la próxima llamada a descifrar
+
+    byte[] getBuffer() {
+        return contenido;
+    }
+
+    String texto(int tamaño) {
+        return texto(0, tamaño);
+    }
+
+    String texto(int desde, int tamaño) {
+        return new String(contenido, desde, tamaño, StandardCharsets.UTF_8);
+    }
+
+    boolean usaFirma() {
+        return verificador != null || firmador != null;
+    }
+
+    // Verifica una firma sobre los bytes que quedaron en el buffer; la firma se lee en
+    // su lugar si tiene arreglo detrás y si no se copia a uno del contexto, sin reservar nada
+
+    boolean verificar(int tamaño, ByteBuffer firma) throws GeneralSecurityException {
+        verificador.update(contenido, 0, tamaño);
+        int largo = firma.remaining();
+        if (firma.hasArray()) {
+            int desde = firma.arrayOffset() + firma.position();
+            firma.position(firma.limit());
+            return verificador.verify(firma.array(), desde, largo);
+        }
+        if (firmaRecibida.length < largo) {
+            firmaRecibida = new byte[largo];
+        }
+        firma.get(firmaRecibida, 0, largo);
+        return verificador.verify(firmaRecibida, 0, largo);
+    }
+
+    byte[] firmar(byte[] datos) throws GeneralSecurityException {
+        firmador.update(datos);
+        return firmador.sign();
+    }
+
+    // Nonce GCM de 96 bits: [dirección (4 bytes)][secuencia (8 bytes)]
+
+    private static GCMParameterSpec siguienteNonce(byte[] nonce, int direccion, long secuencia) {
+        for (int i = 0; i < 4; i++) {
+            nonce[i] = (byte) (direccion >>> (24 - 8 * i));
+        }
+        for (int i = 0; i < 8; i++) {
+            nonce[4 + i] = (byte) (secuencia >>> (56 - 8 * i));
+        }
+        return new GCMParameterSpec(BITS_ETIQUETA_GCM, nonce);
+    }
+}
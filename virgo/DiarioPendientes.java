@@ -0,0 +1,315 @@
+package virgo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+
+// Diario (write-ahead log) de los mensajes que esperan moderación, para que un
+// reinicio del servidor no los pierda. Cada mensaje que entra al pool se anota como
+// ALTA y solo pasa a la cola cuando la anotación ya está en disco; al decidirse (o
+// vencer su plazo) se anota su BAJA sin esperar. Si el proceso se cae, al arrancar
+// se leen las ALTA sin BAJA y esos mensajes vuelven a moderarse con el mismo id (su
+// ALTA sigue vigente hasta que se deciden): a lo sumo alguno se modera dos veces (si se
+// perdió su BAJA), ninguno se pierde. Los ids crecen con la llegada, así que ordenar por
+// id es ordenar por llegada, también entre ejecuciones.
+//
+// Un solo hilo escribe: junta todo lo que se anotó mientras hacía el fsync anterior,
+// lo escribe de una vez y hace un solo fsync por tanda (group commit), así el costo
+// del disco se reparte entre todos los mensajes que llegaron juntos.
+//
+// Formato, un registro tras otro:
+//   [tamaño (int)][crc32 (int)][ALTA][id (long)][origen][contenido]   (textos: [tamaño (int)][UTF-8])
+//   [tamaño (int)][crc32 (int)][BAJA][id (long)]
+// Un registro cortado o con el crc mal (una escritura que no terminó) marca el fin
+// del diario. Cuando el archivo pasa de maximoBytes se reescribe solo con los
+// mensajes vigentes, en orden de id, y se reemplaza de forma atómica.
+
+class DiarioPendientes {
+    private static final byte ALTA = 1;
+    private static final byte BAJA = 2;
+    private static final int MAXIMO_TANDA = 1024;
+    private static final int MAXIMO_REGISTRO = 2 * CodecTramas.MAXIMO_MENSAJE + CodecTramas.MAXIMO_CONTROL;
+
+    private final Path archivo;
+    private final long maximoBytes;
+    private final BlockingQueue<Anotacion> porEscribir;
+    // Mensajes con ALTA y sin BAJA, para compactar el archivo
+    private final Map<Long, Mensaje> vigentes;
+    private final AtomicLong sincronizaciones;
+    private final AtomicLong registros;
+    private final AtomicLong errores;
+    private FileChannel canal;
+    // Una tanda no se pudo escribir: hasta que otra lo logre, cada tanda reescribe el archivo
+    private volatile boolean degradado;
+    // Tamaño a partir del cual se compacta: maximoBytes o el doble de lo que quedó tras
+    // la última compactación, así muchos mensajes vigentes no la repiten en cada tanda
+    private long umbralCompactar;
+
+    DiarioPendientes(Path archivo, long maximoBytes) {
+        this.archivo = archivo;
+        this.maximoBytes = maximoBytes;
+        this.porEscribir = new LinkedBlockingQueue<>();
+        this.vigentes = new ConcurrentHashMap<>();
+        this.sincronizaciones = new AtomicLong();
+        this.registros = new AtomicLong();
+        this.errores = new AtomicLong();
+    }
+
+    // Lee lo que dejó la ejecución anterior, deja el archivo solo con los mensajes sin
+    // decisión y arranca el hilo escritor. Devuelve esos mensajes por id, en orden de llegada
+
+    SortedMap<Long, Mensaje> iniciar() throws IOException {
+        SortedMap<Long, Mensaje> recuperados = leer();
+        vigentes.putAll(recuperados);
+        compactar();
+        Hilos.iniciarBucle("diario-pendientes", this::escribirTandas);
+        return recuperados;
+    }
+
+    // Anota la llegada de un mensaje; el futuro se completa cuando está en disco, o falla
+    // con la IOException si no se pudo escribir (el mensaje no sobreviviría un reinicio)
+
+    CompletableFuture<Void> alta(long id, Mensaje mensaje) {
+        Anotacion anotacion = new Anotacion(ALTA, id, mensaje);
+        porEscribir.add(anotacion);
+        return anotacion.escrita;
+    }
+
+    // Anota que el mensaje ya tiene decisión; no se espera el disco
+
+    void baja(long id) {
+        porEscribir.add(new Anotacion(BAJA, id, null));
+    }
+
+    long getSincronizaciones() {
+        return sincronizaciones.get();
+    }
+
+    long getRegistros() {
+        return registros.get();
+    }
+
+    long getErrores() {
+        return errores.get();
+    }
+
+    boolean estaDegradado() {
+        return degradado;
+    }
+
+    int getVigentes() {
+        return vigentes.size();
+    }
+
+    private void escribirTandas() {
+        List<Anotacion> tanda = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream datos = new DataOutputStream(bytes);
+        while (true) {
+            try {
+                tanda.add(porEscribir.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            porEscribir.drainTo(tanda, MAXIMO_TANDA - 1);
+            IOException fallo = null;
+            try {
+                bytes.reset();
+                for (Anotacion anotacion : tanda) {
+                    escribirRegistro(datos, anotacion.tipo, anotacion.id, anotacion.mensaje);
+                    if (anotacion.tipo == ALTA) {
+                        vigentes.put(anotacion.id, anotacion.mensaje);
+                    } else {
+                        vigentes.remove(anotacion.id);
+                    }
+                }
+                if (degradado) {
+                    // Tras una escritura fallida el final del archivo puede estar cortado y lo
+                    // que se agregue detrás no se leería: se reescribe entero con los vigentes
+                    compactar();
+                } else {
+                    escribirCompleto(canal, ByteBuffer.wrap(bytes.toByteArray()));
+                    canal.force(false);
+                }
+                degradado = false;
+                sincronizaciones.incrementAndGet();
+                registros.addAndGet(tanda.size());
+            } catch (IOException e) {
+                fallo = e;
+                degradado = true;
+                errores.incrementAndGet();
+                Registro.error("No se pudo escribir el diario de pendientes " + archivo + ": " + e.getMessage());
+            }
+            if (fallo == null) {
+                try {
+                    if (canal.size() > umbralCompactar) {
+                        compactar();
+                    }
+                } catch (IOException e) {
+                    // La tanda ya está en disco; el diario sigue creciendo hasta la próxima
+                    errores.incrementAndGet();
+                    Registro.error("No se pudo compactar el diario de pendientes " + archivo + ": " + e.getMessage());
+                }
+            }
+            for (Anotacion anotacion : tanda) {
+                if (anotacion.escrita != null) {
+                    Metricas.DIARIO.registrarDesde(anotacion.creada);
+                    if (fallo == null) {
+                        anotacion.escrita.complete(null);
+                    } else {
+                        anotacion.escrita.completeExceptionally(fallo);
+                    }
+                }
+            }
+            tanda.clear();
+        }
+    }
+
+    // Reescribe el archivo con los mensajes vigentes: primero en uno temporal con su
+    // fsync y después lo pone en lugar del diario con un rename atómico. El canal nuevo
+    // se abre antes del rename y reemplaza al anterior solo si todo salió bien: si algo
+    // falla, el diario sigue escribiéndose en el archivo de antes
+
+    private void compactar() throws IOException {
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream datos = new DataOutputStream(bytes);
+        for (Map.Entry<Long, Mensaje> vigente : new TreeMap<>(vigentes).entrySet()) {
+            escribirRegistro(datos, ALTA, vigente.getKey(), vigente.getValue());
+        }
+        Files.deleteIfExists(temporal);
+        FileChannel nuevo = FileChannel.open(temporal, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        try {
+            escribirCompleto(nuevo, ByteBuffer.wrap(bytes.toByteArray()));
+            nuevo.force(true);
+            Files.move(temporal, archivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            nuevo.close();
+            throw e;
+        }
+        FileChannel anterior = canal;
+        canal = nuevo;
+        umbralCompactar = Math.max(maximoBytes, 2 * canal.size());
+        if (anterior != null) {
+            try {
+                anterior.close();
+            } catch (IOException e) {
+                // Ya no se usa
+            }
+        }
+    }
+
+    // Lee el diario hasta el final o hasta el primer registro dañado
+
+    private SortedMap<Long, Mensaje> leer() throws IOException {
+        SortedMap<Long, Mensaje> pendientes = new TreeMap<>();
+        if (!Files.exists(archivo)) {
+            return pendientes;
+        }
+        long leidos = 0;
+        long total = Files.size(archivo);
+        CRC32 crc = new CRC32();
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(archivo)))) {
+            while (leidos < total) {
+                int tamaño = entrada.readInt();
+                int esperado = entrada.readInt();
+                if (tamaño <= 0 || tamaño > MAXIMO_REGISTRO || leidos + 2 * Integer.BYTES + tamaño > total) {
+                    break;
+                }
+                byte[] registro = new byte[tamaño];
+                entrada.readFully(registro);
+                crc.reset();
+                crc.update(registro);
+                if ((int) crc.getValue() != esperado) {
+                    break;
+                }
+                leidos += 2 * Integer.BYTES + tamaño;
+
+                DataInputStream campos = new DataInputStream(new ByteArrayInputStream(registro));
+                byte tipo = campos.readByte();
+                long id = campos.readLong();
+                if (tipo == ALTA) {
+                    pendientes.put(id, new Mensaje(leerTexto(campos), leerTexto(campos)));
+                } else {
+                    pendientes.remove(id);
+                }
+            }
+        } catch (EOFException e) {
+            // Registro cortado: termina ahí
+        }
+        if (leidos < total) {
+            Registro.error("Diario de pendientes: se descartan " + (total - leidos)
+                    + " bytes finales incompletos o dañados de " + archivo);
+        }
+        return pendientes;
+    }
+
+    private static void escribirRegistro(DataOutputStream datos, byte tipo, long id, Mensaje mensaje) throws IOException {
+        ByteArrayOutputStream registro = new ByteArrayOutputStream();
+        DataOutputStream campos = new DataOutputStream(registro);
+        campos.writeByte(tipo);
+        campos.writeLong(id);
+        if (tipo == ALTA) {
+            escribirTexto(campos, mensaje.getOrigen());
+            escribirTexto(campos, mensaje.getContenido());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(registro.toByteArray());
+        datos.writeInt(registro.size());
+        datos.writeInt((int) crc.getValue());
+        registro.writeTo(datos);
+    }
+
+    private static void escribirTexto(DataOutputStream datos, String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        datos.writeInt(bytes.length);
+        datos.write(bytes);
+    }
+
+    private static String leerTexto(DataInputStream datos) throws IOException {
+        byte[] bytes = new byte[CodecTramas.validarTamaño(datos.readInt(), CodecTramas.MAXIMO_MENSAJE)];
+        datos.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void escribirCompleto(FileChannel canal, ByteBuffer datos) throws IOException {
+        while (datos.hasRemaining()) {
+            canal.write(datos);
+        }
+    }
+
+    private static class Anotacion {
+        final byte tipo;
+        final long id;
+        final Mensaje mensaje;
+        // Solo las ALTA se esperan
+        final CompletableFuture<Void> escrita;
+        final long creada;
+
+        Anotacion(byte tipo, long id, Mensaje mensaje) {
+            this.tipo = tipo;
+            this.id = id;
+            this.mensaje = mensaje;
+            this.escrita = tipo == ALTA ? new CompletableFuture<>() : null;
+            this.creada = System.nanoTime();
+        }
+    }
+}
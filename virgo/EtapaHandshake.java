@@ -0,0 +1,109 @@
+package virgo;
+
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+// Etapa de intercambio de claves separada del hilo que acepta conexiones.
+// Un pool acotado de trabajadores hace los handshakes; si el pool y su cola están
+// llenos la conexión se rechaza en el acto, y cada handshake tiene un plazo máximo
+// (contado desde que se aceptó el socket) tras el cual se cierra la conexión.
+// Así un cliente lento o malicioso no frena la aceptación de los demás.
+
+class EtapaHandshake {
+
+    // Hace el intercambio de claves y devuelve lo que hay que arrancar después
+    // (el lector de mensajes del cliente), una vez desactivado el plazo
+
+    interface Handshake {
+        Runnable realizar(SesionCliente sesion) throws Exception;
+    }
+
+    private final ThreadPoolExecutor trabajadores;
+    private final ScheduledExecutorService temporizador;
+    private final long plazoMillis;
+    private final Consumer<SesionCliente> alFallar;
+    private final AtomicLong completados;
+    private final AtomicLong rechazados;
+    private final AtomicLong vencidos;
+
+    EtapaHandshake(int numeroTrabajadores, int maximoEnEspera, long plazoMillis, Consumer<SesionCliente> alFallar) {
+        this.trabajadores = new ThreadPoolExecutor(numeroTrabajadores, numeroTrabajadores,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maximoEnEspera),
+                Hilos.fabrica("handshake-"), new ThreadPoolExecutor.AbortPolicy());
+        this.temporizador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "handshake-plazos");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        this.plazoMillis = plazoMillis;
+        this.alFallar = alFallar;
+        this.completados = new AtomicLong();
+        this.rechazados = new AtomicLong();
+        this.vencidos = new AtomicLong();
+    }
+
+    // Encola el handshake de una sesión recién aceptada, o la rechaza si no hay capacidad
+
+    void admitir(SesionCliente sesion, Handshake handshake) {
+        long admitido = System.nanoTime();
+        try {
+            trabajadores.execute(() -> ejecutar(sesion, handshake, admitido));
+        } catch (RejectedExecutionException e) {
+            long total = rechazados.incrementAndGet();
+            Registro.info("Handshake rechazado (etapa llena) para " + sesion.getSocket().getInetAddress()
+                    + ", rechazados: " + total);
+            alFallar.accept(sesion);
+        }
+    }
+
+    private void ejecutar(SesionCliente sesion, Handshake handshake, long admitido) {
+        Socket socket = sesion.getSocket();
+        long restante = plazoMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - admitido);
+        if (restante <= 0) {
+            vencidos.incrementAndGet();
+            Registro.info("Handshake vencido en cola para " + socket.getInetAddress());
+            alFallar.accept(sesion);
+            return;
+        }
+
+        // Cerrar el socket desbloquea cualquier lectura en curso del handshake
+        ScheduledFuture<?> vencimiento = temporizador.schedule(() -> {
+            vencidos.incrementAndGet();
+            try { socket.close(); } catch (Exception ignored) {}
+        }, restante, TimeUnit.MILLISECONDS);
+
+        Runnable siguiente;
+        try {
+            socket.setSoTimeout((int) restante);
+            siguiente = handshake.realizar(sesion);
+            if (!vencimiento.cancel(false)) {
+                throw new SocketTimeoutException("plazo de handshake vencido");
+            }
+            socket.setSoTimeout(0);
+        } catch (Exception e) {
+            vencimiento.cancel(false);
+            Registro.error("Error en el handshake con " + socket.getInetAddress() + ": " + e.getMessage());
+            alFallar.accept(sesion);
+            return;
+        }
+
+        completados.incrementAndGet();
+        siguiente.run();
+    }
+
+    long getCompletados() {
+        return completados.get();
+    }
+
+    long getRechazados() {
+        return rechazados.get();
+    }
+
+    long getVencidos() {
+        return vencidos.get();
+    }
+}
@@ -0,0 +1,228 @@
+package virgo;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+// Prueba de carga sin consola: simula N clientes que hacen el handshake normal de
+// Cliente, se conectan escalonados a lo largo de la rampa y mandan mensajes a tasa
+// fija durante la duración configurada. Se combina con un moderador automático
+// (java -Dvirgo.moderador.auto=90 Moderador ...) para medir todo en una sola máquina.
+//
+// La latencia de cada mensaje va desde el momento en que le tocaba salir según la tasa
+// hasta su acuse (no desde que salió de verdad): si el cliente se atrasa porque la
+// ventana está llena o el servidor no da abasto, esa espera también se cuenta, en vez
+// de esconderse detrás de menos mensajes enviados.
+//
+//   -Dvirgo.carga.clientes=10        clientes simultáneos
+//   -Dvirgo.carga.tasa=10            mensajes por segundo de cada cliente
+//   -Dvirgo.carga.bytes=100          tamaño de cada mensaje
+//   -Dvirgo.carga.rampaMs=1000       tiempo en que se conectan todos los clientes
+//   -Dvirgo.carga.duracionMs=10000   tiempo de envío, contado desde el fin de la rampa
+//   -Dvirgo.carga.esperaFinalMs=10000 espera máxima por los acuses pendientes al final
+
+public class GeneradorCarga {
+    private final String ipServidor;
+    private final int puertoServidor;
+    private final int numeroClientes;
+    private final int tasa;
+    private final int bytesMensaje;
+    private final long rampaMillis;
+    private final long duracionMillis;
+    private final long esperaFinalMillis;
+    private final Histograma latencias;
+    private final Histograma handshakes;
+    private final AtomicInteger conectados;
+    private final AtomicLong enviados;
+    private final AtomicLong aprobados;
+    private final AtomicLong rechazados;
+    private final AtomicLong ocupados;
+    private final AtomicLong fallidos;
+    private final AtomicLong difusiones;
+    private final AtomicLong ultimoAcuse;
+
+    public GeneradorCarga(String ipServidor, int puertoServidor) {
+        this.ipServidor = ipServidor;
+        this.puertoServidor = puertoServidor;
+        this.numeroClientes = Configuracion.entero("virgo.carga.clientes", 10);
+        this.tasa = Configuracion.entero("virgo.carga.tasa", 10);
+        this.bytesMensaje = Configuracion.entero("virgo.carga.bytes", 100);
+        this.rampaMillis = Configuracion.enteroLargo("virgo.carga.rampaMs", 1000);
+        this.duracionMillis = Configuracion.enteroLargo("virgo.carga.duracionMs", 10000);
+        this.esperaFinalMillis = Configuracion.enteroLargo("virgo.carga.esperaFinalMs", 10000);
+        this.latencias = new Histograma();
+        this.handshakes = new Histograma();
+        this.conectados = new AtomicInteger();
+        this.enviados = new AtomicLong();
+        this.aprobados = new AtomicLong();
+        this.rechazados = new AtomicLong();
+        this.ocupados = new AtomicLong();
+        this.fallidos = new AtomicLong();
+        this.difusiones = new AtomicLong();
+        this.ultimoAcuse = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    // Lanza los clientes, muestra el avance cada segundo y al final el resumen
+
+    public void ejecutar() throws InterruptedException {
+        System.out.printf("Carga: %d clientes x %d msg/s de %d bytes, rampa %d ms, duración %d ms%n",
+                numeroClientes, tasa, bytesMensaje, rampaMillis, duracionMillis);
+
+        long inicio = System.nanoTime();
+        long fin = inicio + TimeUnit.MILLISECONDS.toNanos(rampaMillis + duracionMillis);
+        CountDownLatch terminados = new CountDownLatch(numeroClientes);
+        for (int i = 0; i < numeroClientes; i++) {
+            long conexion = inicio + TimeUnit.MILLISECONDS.toNanos(rampaMillis * i / numeroClientes);
+            int numero = i;
+            Hilos.fabrica("carga-").newThread(() -> {
+                try {
+                    simularCliente(numero, conexion, fin);
+                } finally {
+                    terminados.countDown();
+                }
+            }).start();
+        }
+
+        ScheduledExecutorService avance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "carga-avance");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        avance.scheduleAtFixedRate(() -> mostrarAvance(inicio), 1, 1, TimeUnit.SECONDS);
+
+        terminados.await();
+        // Los acuses que faltan, con un límite: un mensaje perdido no debe colgar la prueba
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaFinalMillis);
+        while (respondidos() + fallidos.get() < enviados.get() && System.nanoTime() < limite) {
+            Thread.sleep(10);
+        }
+        avance.shutdownNow();
+
+        mostrarResumen(inicio);
+    }
+
+    private void simularCliente(int numero, long conexion, long fin) {
+        esperarHasta(conexion);
+        Cliente cliente;
+        try {
+            long antes = System.nanoTime();
+            cliente = new Cliente(ipServidor, puertoServidor);
+            if (cliente.necesitaClavesRSA()) {
+                cliente.generarClavesPub_y_Priv();
+            }
+            cliente.establecerConexionSegura();
+            cliente.setOyenteDifusiones(texto -> difusiones.incrementAndGet());
+            cliente.registrar("carga-" + numero);
+            cliente.iniciarHiloEscuchaRespuestas();
+            handshakes.registrar(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - antes));
+            conectados.incrementAndGet();
+        } catch (Exception e) {
+            System.err.println("El cliente " + numero + " no pudo conectarse: " + e.getMessage());
+            return;
+        }
+
+        SplittableRandom aleatorio = new SplittableRandom(numero);
+        long intervalo = TimeUnit.SECONDS.toNanos(1) / Math.max(1, tasa);
+        // Cada cliente arranca en una fase distinta del intervalo para no mandar todos juntos
+        long programado = System.nanoTime() + aleatorio.nextLong(intervalo);
+        for (long k = 0; programado < fin; k++, programado += intervalo) {
+            esperarHasta(programado);
+            long salida = programado;
+            try {
+                enviados.incrementAndGet();
+                cliente.enviar(texto(numero, k, aleatorio)).whenComplete((acuse, error) -> {
+                    long ahora = System.nanoTime();
+                    ultimoAcuse.accumulateAndGet(ahora, Math::max);
+                    if (error != null) {
+                        fallidos.incrementAndGet();
+                        return;
+                    }
+                    latencias.registrar(TimeUnit.NANOSECONDS.toMicros(ahora - salida));
+                    if (acuse.getCodigo() == CodecTramas.ENVIADO) {
+                        aprobados.incrementAndGet();
+                    } else if (acuse.getCodigo() == CodecTramas.OCUPADO) {
+                        ocupados.incrementAndGet();
+                    } else {
+                        rechazados.incrementAndGet();
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                fallidos.incrementAndGet();
+            }
+        }
+    }
+
+    // Texto distinto en cada mensaje (letras al azar) para que no lo resuelva la caché
+    // de decisiones ni el índice de parecidos
+
+    private String texto(int numero, long k, SplittableRandom aleatorio) {
+        StringBuilder texto = new StringBuilder(bytesMensaje);
+        texto.append(numero).append(':').append(k).append(' ');
+        while (texto.length() < bytesMensaje) {
+            texto.append(aleatorio.nextInt(8) == 0 ? ' ' : (char) ('a' + aleatorio.nextInt(26)));
+        }
+        return texto.toString();
+    }
+
+    private long respondidos() {
+        return aprobados.get() + rechazados.get() + ocupados.get();
+    }
+
+    private void mostrarAvance(long inicio) {
+        System.out.printf("t=%ds conectados=%d enviados=%d respondidos=%d ocupados=%d fallidos=%d%n",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - inicio), conectados.get(),
+                enviados.get(), respondidos(), ocupados.get(), fallidos.get());
+    }
+
+    // El rendimiento se mide desde el arranque (la rampa incluida) hasta el último acuse
+
+    private void mostrarResumen(long inicio) {
+        long ultimo = ultimoAcuse.get();
+        double segundos = ultimo == Long.MIN_VALUE ? 1 : Math.max(1, ultimo - inicio) / 1e9;
+        System.out.println("--- Resumen");
+        System.out.printf("Clientes conectados: %d de %d%n", conectados.get(), numeroClientes);
+        System.out.printf("Mensajes: %d enviados, %d aprobados, %d rechazados, %d ocupados, %d fallidos, %d sin respuesta%n",
+                enviados.get(), aprobados.get(), rechazados.get(), ocupados.get(), fallidos.get(),
+                enviados.get() - respondidos() - fallidos.get());
+        System.out.printf("Rendimiento: %.1f respuestas/s, %d difusiones recibidas%n", respondidos() / segundos,
+                difusiones.get());
+        System.out.println("Latencia de extremo a extremo: " + latencias.resumenMillis());
+        System.out.println("Handshake + registro: " + handshakes.resumenMillis());
+    }
+
+    private static void esperarHasta(long instante) {
+        long restante;
+        while ((restante = instante - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(restante);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Uso: java GeneradorCarga <ipServidor> <puerto>");
+            System.err.println("Ejemplo: java -Dvirgo.carga.clientes=100 -Dvirgo.carga.tasa=20 GeneradorCarga 127.0.0.1 50001");
+            System.exit(1);
+        }
+
+        try {
+            new GeneradorCarga(args[0], Integer.parseInt(args[1])).ejecutar();
+            System.exit(0);
+        } catch (NumberFormatException e) {
+            System.err.println("Error: El puerto debe ser un número entero");
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println("Error en la prueba de carga: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package virgo;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+// Punto único para lanzar tareas concurrentes en Servidor, Cliente y Moderador.
+// Con -Dvirgo.hilos=virtual cada tarea corre en un hilo virtual, de modo que el
+// código de E/S bloqueante escala a cientos de miles de conexiones; por defecto se
+// usa un pool de hilos de plataforma.
+//
+// Las tareas que se lanzan por aquí no deben bloquearse dentro de un bloque
+// synchronized (fijaría el hilo virtual a su portador); para eso se usa ReentrantLock.
+
+final class Hilos {
+
+    enum Modo { PLATAFORMA, VIRTUAL }
+
+    static final Modo MODO = "virtual".equalsIgnoreCase(Configuracion.texto("virgo.hilos", "plataforma"))
+            ? Modo.VIRTUAL : Modo.PLATAFORMA;
+
+    private static final ExecutorService EJECUTOR = nuevoEjecutor("virgo-");
+
+    private Hilos() {
+    }
+
+    // Ejecuta una tarea en el ejecutor compartido del proceso
+
+    static void ejecutar(Runnable tarea) {
+        EJECUTOR.execute(tarea);
+    }
+
+    // Bucles de larga vida (aceptar conexiones): siempre en un hilo de plataforma no
+    // daemon, que además mantiene vivo el proceso cuando el resto son hilos virtuales
+
+    static Thread iniciarBucle(String nombre, Runnable bucle) {
+        return Thread.ofPlatform().name(nombre).start(bucle);
+    }
+
+    // Crea hilos del modo configurado, numerados a partir del prefijo
+
+    static ThreadFactory fabrica(String prefijo) {
+        return MODO == Modo.VIRTUAL
+                ? Thread.ofVirtual().name(prefijo, 0).factory()
+                : Thread.ofPlatform().name(prefijo, 0).factory();
+    }
+
+    // Ejecutor sin límite de tareas: un hilo virtual por tarea o un pool de hilos de plataforma
+
+    static ExecutorService nuevoEjecutor(String prefijo) {
+        return MODO == Modo.VIRTUAL
+                ? Executors.newThreadPerTaskExecutor(fabrica(prefijo))
+                : Executors.newCachedThreadPool(fabrica(prefijo));
+    }
+}
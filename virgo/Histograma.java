@@ -0,0 +1,100 @@
+package virgo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Histograma de valores (latencias en microsegundos, p. ej.) con precisión relativa
+// acotada, al estilo de HdrHistogram: los valores se agrupan por potencia de dos y
+// cada potencia se divide en 2^(BITS_PRECISION - 1) cubetas iguales, así cualquier
+// percentil se informa con un error menor al 1% sin importar la escala (microsegundos
+// o minutos) y con memoria fija. Registrar no asigna memoria y lo pueden usar muchos
+// hilos a la vez: la cuenta y la suma, que tocan todos los registros, son LongAdder
+// (repartidos en celdas según el hilo, sin pelear por una misma línea de caché); las
+// cubetas son incrementos atómicos, y como los valores se reparten entre muchas casi
+// no compiten.
+
+class Histograma {
+    private static final int BITS_PRECISION = 8;
+    private static final int MITAD = 1 << (BITS_PRECISION - 1);
+
+    private final AtomicLongArray cuentas;
+    private final LongAdder cantidad;
+    private final LongAdder suma;
+    private final AtomicLong maximo;
+
+    Histograma() {
+        // Cubeta 0: valores 0..2^BITS_PRECISION-1 exactos; cada potencia siguiente, MITAD cubetas
+        this.cuentas = new AtomicLongArray((Long.SIZE - BITS_PRECISION + 2) * MITAD);
+        this.cantidad = new LongAdder();
+        this.suma = new LongAdder();
+        this.maximo = new AtomicLong();
+    }
+
+    void registrar(long valor) {
+        if (valor < 0) {
+            valor = 0;
+        }
+        cuentas.incrementAndGet(indice(valor));
+        cantidad.increment();
+        suma.add(valor);
+        if (valor > maximo.get()) {
+            maximo.accumulateAndGet(valor, Math::max);
+        }
+    }
+
+    long getCantidad() {
+        return cantidad.sum();
+    }
+
+    long getMaximo() {
+        return maximo.get();
+    }
+
+    double getMedia() {
+        long n = cantidad.sum();
+        return n == 0 ? 0 : (double) suma.sum() / n;
+    }
+
+    // El menor valor v tal que al menos el porcentaje dado de los registros es <= v
+    // (el mayor valor de su cubeta, como HdrHistogram)
+
+    long percentil(double porcentaje) {
+        long total = cantidad.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(total * porcentaje / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < cuentas.length(); i++) {
+            acumulado += cuentas.get(i);
+            if (acumulado >= objetivo) {
+                return Math.min(mayorDeCubeta(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    // Resumen de una línea con valores en microsegundos, mostrados en milisegundos
+
+    String resumenMillis() {
+        return String.format("n=%d media=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f máx=%.2f ms",
+                getCantidad(), getMedia() / 1000.0, percentil(50) / 1000.0, percentil(90) / 1000.0,
+                percentil(99) / 1000.0, percentil(99.9) / 1000.0, getMaximo() / 1000.0);
+    }
+
+    // Potencia p = posición del bit más alto por encima de la precisión; dentro de ella,
+    // los BITS_PRECISION bits más altos del valor eligen la cubeta
+
+    private static int indice(long valor) {
+        int potencia = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(valor) - BITS_PRECISION);
+        return potencia * MITAD + (int) (valor >>> potencia);
+    }
+
+    private static long mayorDeCubeta(int indice) {
+        int potencia = Math.max(0, indice / MITAD - 1);
+        long base = indice - (long) potencia * MITAD;
+        return ((base + 1) << potencia) - 1;
+    }
+}
@@ -0,0 +1,102 @@
+package virgo;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.*;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+
+// Claves de identidad del servidor (RSA y X25519 estática), guardadas en un
+// archivo local para no regenerarlas en cada arranque. Si el archivo no existe se
+// generan y se guardan con permisos solo para el dueño.
+// Formato: [MAGICO] y cuatro veces [tamaño][bytes]: RSA privada (PKCS#8), RSA
+// pública (X.509), X25519 privada, X25519 pública.
+
+class IdentidadServidor {
+    private static final int MAGICO = 0x56495231; // "VIR1"
+
+    private final KeyPair claveRSA;
+    private final KeyPair claveX25519;
+
+    private IdentidadServidor(KeyPair claveRSA, KeyPair claveX25519) {
+        this.claveRSA = claveRSA;
+        this.claveX25519 = claveX25519;
+    }
+
+    KeyPair getClaveRSA() {
+        return claveRSA;
+    }
+
+    KeyPair getClaveX25519() {
+        return claveX25519;
+    }
+
+    static IdentidadServidor cargarOGenerar(Path archivo) throws IOException, GeneralSecurityException {
+        if (Files.exists(archivo)) {
+            IdentidadServidor identidad = cargar(archivo);
+            Registro.info("Claves del servidor cargadas de " + archivo);
+            return identidad;
+        }
+
+        KeyPairGenerator generador = KeyPairGenerator.getInstance("RSA");
+        generador.initialize(2048);
+        IdentidadServidor identidad = new IdentidadServidor(generador.generateKeyPair(), IntercambioX25519.generarPar());
+        identidad.guardar(archivo);
+        Registro.info("Claves del servidor generadas y guardadas en " + archivo);
+        return identidad;
+    }
+
+    private static IdentidadServidor cargar(Path archivo) throws IOException, GeneralSecurityException {
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(archivo)))) {
+            if (entrada.readInt() != MAGICO) {
+                throw new IOException("Archivo de identidad inválido: " + archivo);
+            }
+            KeyFactory rsa = KeyFactory.getInstance("RSA");
+            KeyFactory x25519 = KeyFactory.getInstance("X25519");
+
+            PrivateKey privadaRSA = rsa.generatePrivate(new PKCS8EncodedKeySpec(leer(entrada)));
+            PublicKey publicaRSA = rsa.generatePublic(new X509EncodedKeySpec(leer(entrada)));
+            PrivateKey privadaX25519 = x25519.generatePrivate(new PKCS8EncodedKeySpec(leer(entrada)));
+            PublicKey publicaX25519 = x25519.generatePublic(new X509EncodedKeySpec(leer(entrada)));
+
+            return new IdentidadServidor(new KeyPair(publicaRSA, privadaRSA), new KeyPair(publicaX25519, privadaX25519));
+        }
+    }
+
+    // El temporal se crea ya con permisos solo para el dueño, antes de escribir ninguna
+    // clave: con los de la umask alguien podría abrirlo mientras tanto y leerlas después
+
+    private void guardar(Path archivo) throws IOException {
+        Path temporal = archivo.resolveSibling(archivo.getFileName() + ".tmp");
+        // Uno que haya quedado de un intento anterior puede tener otros permisos
+        Files.deleteIfExists(temporal);
+        try {
+            Files.createFile(temporal, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // Sistema de archivos sin permisos POSIX (Windows)
+            Files.createFile(temporal);
+        }
+        try (DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporal, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)))) {
+            salida.writeInt(MAGICO);
+            escribir(salida, claveRSA.getPrivate().getEncoded());
+            escribir(salida, claveRSA.getPublic().getEncoded());
+            escribir(salida, claveX25519.getPrivate().getEncoded());
+            escribir(salida, claveX25519.getPublic().getEncoded());
+        }
+        Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] leer(DataInputStream entrada) throws IOException {
+        byte[] datos = new byte[entrada.readInt()];
+        entrada.readFully(datos);
+        return datos;
+    }
+
+    private static void escribir(DataOutputStream salida, byte[] datos) throws IOException {
+        salida.writeInt(datos.length);
+        salida.write(datos);
+    }
+}
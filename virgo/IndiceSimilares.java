@@ -0,0 +1,236 @@
+package virgo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Índice de firmas MinHash de los contenidos moderados hace poco, para reconocer
+// variantes de un mismo texto (un spammer que cambia una letra o dos) sin importar
+// quién las mande.
+//
+// La firma de un texto son los mínimos de FUNCIONES hashes sobre sus 3-gramas de
+// caracteres (en minúsculas, solo letras y dígitos separados por un espacio); la
+// proporción de posiciones iguales entre dos firmas estima la similitud de Jaccard
+// de los textos. Para no comparar contra todo el índice (LSH) la firma se parte en
+// BANDAS de FILAS_POR_BANDA valores: dos textos muy parecidos coinciden por completo
+// en alguna banda con alta probabilidad, así que solo se comparan las firmas de las
+// cubetas de sus bandas. Cada cubeta guarda a lo sumo MAXIMO_POR_CUBETA firmas y el
+// índice a lo sumo maximoEntradas (se descartan las más viejas): la memoria y el
+// costo de cada consulta están acotados.
+
+class IndiceSimilares {
+    private static final int BANDAS = 8;
+    private static final int FILAS_POR_BANDA = 4;
+    private static final int FUNCIONES = BANDAS * FILAS_POR_BANDA;
+    private static final int MAXIMO_POR_CUBETA = 32;
+    private static final int MINIMO_CARACTERES = 8;
+    private static final int MAXIMO_CARACTERES = 4096;
+    private static final int LARGO_GRAMA = 3;
+    private static final long[] MULTIPLICADORES = new long[FUNCIONES];
+    private static final long[] SUMANDOS = new long[FUNCIONES];
+
+    static {
+        // Semilla fija: las firmas son comparables entre ejecuciones
+        SplittableRandom aleatorio = new SplittableRandom(0x5eedL);
+        for (int i = 0; i < FUNCIONES; i++) {
+            MULTIPLICADORES[i] = aleatorio.nextLong() | 1;
+            SUMANDOS[i] = aleatorio.nextLong();
+        }
+    }
+
+    private final int coincidenciasMinimas;
+    private final int maximoEntradas;
+    private final long vigenciaNanos;
+    private final List<Map<Long, ArrayDeque<Entrada>>> cubetas;
+    private final ArrayDeque<Entrada> porAntiguedad;
+    private final AtomicLong consultas;
+    private final AtomicLong parecidos;
+
+    IndiceSimilares(int porcentajeSimilitud, int maximoEntradas, long vigenciaMillis) {
+        this.coincidenciasMinimas = (int) Math.ceil(FUNCIONES * porcentajeSimilitud / 100.0);
+        this.maximoEntradas = maximoEntradas;
+        this.vigenciaNanos = TimeUnit.MILLISECONDS.toNanos(vigenciaMillis);
+        this.cubetas = new ArrayList<>(BANDAS);
+        for (int b = 0; b < BANDAS; b++) {
+            cubetas.add(new HashMap<>());
+        }
+        this.porAntiguedad = new ArrayDeque<>();
+        this.consultas = new AtomicLong();
+        this.parecidos = new AtomicLong();
+    }
+
+    // Firma MinHash del texto, o null si es demasiado corto para compararlo con sentido
+
+    static int[] firma(String texto) {
+        String normalizado = normalizar(texto);
+        if (normalizado.length() < MINIMO_CARACTERES) {
+            return null;
+        }
+        int[] firma = new int[FUNCIONES];
+        Arrays.fill(firma, Integer.MAX_VALUE);
+        for (int i = 0; i + LARGO_GRAMA <= normalizado.length(); i++) {
+            long grama = hashGrama(normalizado, i);
+            for (int f = 0; f < FUNCIONES; f++) {
+                int valor = (int) ((grama * MULTIPLICADORES[f] + SUMANDOS[f]) >>> 33);
+                if (valor < firma[f]) {
+                    firma[f] = valor;
+                }
+            }
+        }
+        return firma;
+    }
+
+    // Decisión del contenido indexado más parecido (con la similitud mínima), o null
+
+    String buscar(int[] firma) {
+        if (firma == null) {
+            return null;
+        }
+        consultas.incrementAndGet();
+        long ahora = System.nanoTime();
+        Entrada mejor = null;
+        int mejorCoincidencias = coincidenciasMinimas - 1;
+        synchronized (this) {
+            for (int b = 0; b < BANDAS; b++) {
+                ArrayDeque<Entrada> cubeta = cubetas.get(b).get(banda(firma, b));
+                if (cubeta == null) {
+                    continue;
+                }
+                for (Entrada entrada : cubeta) {
+                    int coincidencias = coincidencias(entrada.firma, firma);
+                    if (coincidencias > mejorCoincidencias && ahora - entrada.vence < 0) {
+                        mejor = entrada;
+                        mejorCoincidencias = coincidencias;
+                    }
+                }
+            }
+        }
+        if (mejor == null) {
+            return null;
+        }
+        parecidos.incrementAndGet();
+        return mejor.decision;
+    }
+
+    void agregar(int[] firma, String decision) {
+        if (firma == null || maximoEntradas <= 0) {
+            return;
+        }
+        Entrada entrada = new Entrada(firma, decision, System.nanoTime() + vigenciaNanos);
+        synchronized (this) {
+            if (porAntiguedad.size() >= maximoEntradas) {
+                quitar(porAntiguedad.pollFirst());
+            }
+            porAntiguedad.addLast(entrada);
+            for (int b = 0; b < BANDAS; b++) {
+                ArrayDeque<Entrada> cubeta = cubetas.get(b).computeIfAbsent(banda(firma, b), k -> new ArrayDeque<>());
+                if (cubeta.size() >= MAXIMO_POR_CUBETA) {
+                    // La firma sigue en las demás cubetas hasta que salga del índice
+                    cubeta.pollLast();
+                }
+                cubeta.addFirst(entrada);
+            }
+        }
+    }
+
+    long getConsultas() {
+        return consultas.get();
+    }
+
+    long getParecidos() {
+        return parecidos.get();
+    }
+
+    synchronized int getTamaño() {
+        return porAntiguedad.size();
+    }
+
+    private void quitar(Entrada entrada) {
+        for (int b = 0; b < BANDAS; b++) {
+            long clave = banda(entrada.firma, b);
+            ArrayDeque<Entrada> cubeta = cubetas.get(b).get(clave);
+            if (cubeta == null) {
+                continue;
+            }
+            Iterator<Entrada> it = cubeta.descendingIterator();
+            while (it.hasNext()) {
+                if (it.next() == entrada) {
+                    it.remove();
+                    break;
+                }
+            }
+            if (cubeta.isEmpty()) {
+                cubetas.get(b).remove(clave);
+            }
+        }
+    }
+
+    private static int coincidencias(int[] a, int[] b) {
+        int iguales = 0;
+        for (int i = 0; i < FUNCIONES; i++) {
+            if (a[i] == b[i]) {
+                iguales++;
+            }
+        }
+        return iguales;
+    }
+
+    // Los valores de una banda combinados en una clave de 64 bits
+
+    private static long banda(int[] firma, int b) {
+        long clave = 0;
+        for (int i = b * FILAS_POR_BANDA; i < (b + 1) * FILAS_POR_BANDA; i++) {
+            clave = clave * 0x9e3779b97f4a7c15L + firma[i];
+        }
+        return clave;
+    }
+
+    private static String normalizar(String texto) {
+        StringBuilder normalizado = new StringBuilder(Math.min(texto.length(), MAXIMO_CARACTERES));
+        boolean espacio = true;
+        for (int i = 0; i < texto.length() && normalizado.length() < MAXIMO_CARACTERES; i++) {
+            char c = texto.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalizado.append(Character.toLowerCase(c));
+                espacio = false;
+            } else if (!espacio) {
+                normalizado.append(' ');
+                espacio = true;
+            }
+        }
+        return normalizado.toString().strip();
+    }
+
+    // FNV-1a sobre los caracteres del grama, mezclado con el finalizador de SplitMix64
+
+    private static long hashGrama(String texto, int desde) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = desde; i < desde + LARGO_GRAMA; i++) {
+            hash ^= texto.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    private static class Entrada {
+        final int[] firma;
+        final String decision;
+        final long vence;
+
+        Entrada(int[] firma, String decision, long vence) {
+            this.firma = firma;
+            this.decision = decision;
+            this.vence = vence;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package virgo;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.*;
+import java.security.spec.X509EncodedKeySpec;
+
+
+// Acuerdo de claves X25519 + HKDF-SHA256, alternativa al envío de la clave AES
+// cifrada con RSA. El cliente genera un par efímero y lo combina con la clave
+// estática del servidor (que lo autentica) y con una efímera del servidor (que da
+// secreto hacia adelante):
+//   clave = HKDF(DH(efímeraCliente, estáticaServidor) || DH(efímeraCliente, efímeraServidor),
+//                sal = efímeraCliente || efímeraServidor)
+// Cada lado hace solo dos operaciones X25519, mucho más baratas que RSA-2048.
+
+final class IntercambioX25519 {
+    static final int RSA = 0;
+    static final int X25519 = 1;
+    static final int REANUDAR = 2;
+
+    private static final byte[] INFO = "virgo sesion AES".getBytes();
+    private static final int BYTES_CLAVE_AES = 16;
+
+    private IntercambioX25519() {
+    }
+
+    static KeyPair generarPar() throws GeneralSecurityException {
+        return KeyPairGenerator.getInstance("X25519").generateKeyPair();
+    }
+
+    static PublicKey decodificar(byte[] clavePublica) throws GeneralSecurityException {
+        return KeyFactory.getInstance("X25519").generatePublic(new X509EncodedKeySpec(clavePublica));
+    }
+
+    static byte[] acordar(PrivateKey propia, PublicKey ajena) throws GeneralSecurityException {
+        KeyAgreement acuerdo = KeyAgreement.getInstance("X25519");
+        acuerdo.init(propia);
+        acuerdo.doPhase(ajena, true);
+        return acuerdo.generateSecret();
+    }
+
+    // Deriva la clave AES de la sesión a partir de los dos secretos compartidos
+
+    static SecretKey derivarClaveAES(byte[] secretoEstatico, byte[] secretoEfimero,
+                                     PublicKey efimeraCliente, PublicKey efimeraServidor)
+            throws GeneralSecurityException {
+        byte[] sal = concatenar(efimeraCliente.getEncoded(), efimeraServidor.getEncoded());
+        byte[] material = concatenar(secretoEstatico, secretoEfimero);
+
+        return hkdfClaveAES(sal, material, INFO);
+    }
+
+    // HKDF-SHA256 (RFC 5869) recortado a una clave AES de 128 bits
+
+    static SecretKey hkdfClaveAES(byte[] sal, byte[] material, byte[] info) throws GeneralSecurityException {
+        // HKDF extract
+        Mac hmac = Mac.getInstance("HmacSHA256");
+        hmac.init(new SecretKeySpec(sal, "HmacSHA256"));
+        byte[] prk = hmac.doFinal(material);
+
+        // HKDF expand (un solo bloque alcanza para 16 bytes)
+        hmac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        hmac.update(info);
+        hmac.update((byte) 1);
+        byte[] okm = hmac.doFinal();
+
+        return new SecretKeySpec(okm, 0, BYTES_CLAVE_AES, "AES");
+    }
+
+    static byte[] concatenar(byte[] a, byte[] b) {
+        byte[] resultado = new byte[a.length + b.length];
+        System.arraycopy(a, 0, resultado, 0, a.length);
+        System.arraycopy(b, 0, resultado, a.length, b.length);
+        return resultado;
+    }
+}
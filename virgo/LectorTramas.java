@@ -0,0 +1,63 @@
+package virgo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+// Decodifica de forma incremental las tramas con prefijo de longitud (int + bytes)
+// que llegan por un canal no bloqueante. Los datos pueden llegar partidos en
+// cualquier punto, por eso se guarda el estado entre lecturas. Cada trama se arma
+// en un buffer del pool de CodecTramas (de la clase que alcanza para su tamaño, que
+// se toma recién cuando llegó la cabecera) y lo devuelve quien la procesa.
+
+class LectorTramas {
+    private final int tamañoMaximo;
+    private final ByteBuffer cabecera;
+    private ByteBuffer trama;
+    private long inicio;
+
+    LectorTramas(int tamañoMaximo) {
+        this.tamañoMaximo = Math.min(tamañoMaximo, CodecTramas.MAXIMO_MENSAJE);
+        this.cabecera = ByteBuffer.allocate(Integer.BYTES);
+    }
+
+    // Consume bytes del buffer y devuelve una trama completa (lista para leer), o null si faltan datos
+
+    ByteBuffer leer(ByteBuffer datos) throws IOException {
+        if (trama == null) {
+            while (cabecera.hasRemaining() && datos.hasRemaining()) {
+                cabecera.put(datos.get());
+            }
+            if (cabecera.hasRemaining()) {
+                return null;
+            }
+
+            cabecera.flip();
+            int tamaño = CodecTramas.validarTamaño(cabecera.getInt(), tamañoMaximo);
+            cabecera.clear();
+            inicio = System.nanoTime();
+
+            trama = CodecTramas.tomarBuffer(tamaño);
+            trama.limit(tamaño);
+        }
+
+        int copiar = Math.min(trama.remaining(), datos.remaining());
+        trama.put(trama.position(), datos, datos.position(), copiar);
+        trama.position(trama.position() + copiar);
+        datos.position(datos.position() + copiar);
+
+        if (trama.hasRemaining()) {
+            return null;
+        }
+
+        ByteBuffer completa = trama.flip();
+        trama = null;
+        return completa;
+    }
+
+    // Cuándo llegó el tamaño de la última trama devuelta (System.nanoTime)
+
+    long getInicio() {
+        return inicio;
+    }
+}
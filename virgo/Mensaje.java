@@ -1,11 +1,14 @@
 package virgo;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 
 public class Mensaje implements Serializable {
     private String origen;
     private String contenido;
+    // "origen: contenido" en UTF-8, se codifica una sola vez al enviarlo a moderar
+    private transient byte[] textoUTF8;
 
     public Mensaje(String origen, String contenido) {
         this.origen = origen;
@@ -20,6 +23,13 @@ public class Mensaje implements Serializable {
         return contenido;
     }
 
+    byte[] getTextoUTF8() {
+        if (textoUTF8 == null) {
+            textoUTF8 = toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return textoUTF8;
+    }
+
     @Override
     public String toString() {
         return origen + ": " + contenido;
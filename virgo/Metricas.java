@@ -0,0 +1,223 @@
+package virgo;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+
+// Métricas del servidor, por etapa del camino de cada mensaje:
+//   lectura         del tamaño del paquete (ya recibido) a tener mensaje y firma completos
+//   descifrado      AES del mensaje (en GCM incluye verificar su integridad)
+//   firma           verificación SHA256withRSA (solo en las sesiones con firma)
+//   diario          de anotar el mensaje en el diario de pendientes a tenerlo en disco
+//   colaModeracion  de pedir la moderación a que sale en un lote hacia un moderador
+//   moderador       ida y vuelta con el moderador, hasta que llega su decisión
+//   respuesta       de encolar la respuesta al cliente a que sale en el flush del socket
+//   total           del paquete ya recibido a encolar su respuesta
+// Cada etapa es un Histograma en nanosegundos; registrar cuesta un par de LongAdder
+// y un incremento atómico, sin locks ni memoria nueva. Además hay indicadores: valores
+// que los componentes ya llevan (aciertos de la caché, moderación en curso...) y
+// contadores propios.
+//
+// Se publican como MBean virgo:type=Metricas en el servidor JMX de la plataforma
+// (jconsole, jcmd) y, con -Dvirgo.metricas.puerto=N, en texto plano por HTTP en
+// http://127.0.0.1:N/metricas (solo en la interfaz local). Con -Dvirgo.metricas=false
+// las etapas no registran nada.
+
+final class Metricas {
+    private static final boolean ACTIVAS = Configuracion.booleano("virgo.metricas", true);
+
+    static final Etapa LECTURA = new Etapa("lectura");
+    static final Etapa DESCIFRADO = new Etapa("descifrado");
+    static final Etapa FIRMA = new Etapa("firma");
+    static final Etapa DIARIO = new Etapa("diario");
+    static final Etapa COLA_MODERACION = new Etapa("colaModeracion");
+    static final Etapa MODERADOR = new Etapa("moderador");
+    static final Etapa RESPUESTA = new Etapa("respuesta");
+    static final Etapa TOTAL = new Etapa("total");
+
+    private static final List<Etapa> ETAPAS =
+            List.of(LECTURA, DESCIFRADO, FIRMA, DIARIO, COLA_MODERACION, MODERADOR, RESPUESTA, TOTAL);
+    private static final Map<String, LongSupplier> INDICADORES = new ConcurrentSkipListMap<>();
+
+    private Metricas() {
+    }
+
+    // Publica un valor que lleva otro componente (se lee cada vez que se consultan las métricas)
+
+    static void indicador(String nombre, LongSupplier valor) {
+        INDICADORES.put(nombre, valor);
+    }
+
+    // Contador nuevo, publicado con ese nombre
+
+    static LongAdder contador(String nombre) {
+        LongAdder contador = new LongAdder();
+        indicador(nombre, contador::sum);
+        return contador;
+    }
+
+    // Valores actuales: por etapa la cantidad, la media, los percentiles y el máximo
+    // (en microsegundos), y después los indicadores
+
+    static Map<String, Number> instantanea() {
+        Map<String, Number> valores = new LinkedHashMap<>();
+        for (Etapa etapa : ETAPAS) {
+            Histograma h = etapa.histograma;
+            valores.put(etapa.nombre + ".cantidad", h.getCantidad());
+            valores.put(etapa.nombre + ".mediaUs", micros(h.getMedia()));
+            valores.put(etapa.nombre + ".p50Us", micros(h.percentil(50)));
+            valores.put(etapa.nombre + ".p90Us", micros(h.percentil(90)));
+            valores.put(etapa.nombre + ".p99Us", micros(h.percentil(99)));
+            valores.put(etapa.nombre + ".p999Us", micros(h.percentil(99.9)));
+            valores.put(etapa.nombre + ".maximoUs", micros(h.getMaximo()));
+        }
+        for (Map.Entry<String, LongSupplier> indicador : INDICADORES.entrySet()) {
+            valores.put(indicador.getKey(), indicador.getValue().getAsLong());
+        }
+        return valores;
+    }
+
+    // Nanosegundos a microsegundos, con tres decimales
+
+    private static double micros(double nanos) {
+        return Math.round(nanos) / 1000.0;
+    }
+
+    // Una línea "nombre valor" por métrica
+
+    static String texto() {
+        StringBuilder texto = new StringBuilder();
+        for (Map.Entry<String, Number> valor : instantanea().entrySet()) {
+            texto.append(valor.getKey()).append(' ').append(valor.getValue()).append('\n');
+        }
+        return texto.toString();
+    }
+
+    // Una línea por etapa con datos, para el resumen al apagar el servidor
+
+    static String resumen() {
+        StringBuilder resumen = new StringBuilder();
+        for (Etapa etapa : ETAPAS) {
+            Histograma h = etapa.histograma;
+            if (h.getCantidad() > 0) {
+                resumen.append(String.format(" %-15s n=%d media=%.1f p50=%.1f p99=%.1f máx=%.1f µs%n", etapa.nombre,
+                        h.getCantidad(), h.getMedia() / 1000.0, h.percentil(50) / 1000.0,
+                        h.percentil(99) / 1000.0, h.getMaximo() / 1000.0));
+            }
+        }
+        return resumen.toString();
+    }
+
+    // Registra el MBean y, si hay puerto configurado, arranca el servidor HTTP
+
+    static void publicar() throws JMException, IOException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new BeanMetricas(), new ObjectName("virgo:type=Metricas"));
+
+        int puerto = Configuracion.entero("virgo.metricas.puerto", 0);
+        if (puerto > 0) {
+            HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto), 0);
+            http.createContext("/metricas", intercambio -> {
+                byte[] cuerpo = texto().getBytes(StandardCharsets.UTF_8);
+                intercambio.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                intercambio.sendResponseHeaders(200, cuerpo.length);
+                try (OutputStream salida = intercambio.getResponseBody()) {
+                    salida.write(cuerpo);
+                }
+            });
+            http.start();
+            Registro.info("Métricas en http://127.0.0.1:" + puerto + "/metricas");
+        }
+    }
+
+    // Una etapa del camino de un mensaje
+
+    static final class Etapa {
+        private final String nombre;
+        private final Histograma histograma;
+
+        private Etapa(String nombre) {
+            this.nombre = nombre;
+            this.histograma = new Histograma();
+        }
+
+        // Registra lo que pasó desde inicio (un System.nanoTime() anterior)
+
+        void registrarDesde(long inicio) {
+            registrar(System.nanoTime() - inicio);
+        }
+
+        void registrar(long nanos) {
+            if (ACTIVAS) {
+                histograma.registrar(nanos);
+            }
+        }
+    }
+
+    // MBean de solo lectura con un atributo por métrica; los nombres salen de la
+    // instantánea, así los indicadores que se agregan después también aparecen
+
+    private static class BeanMetricas implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String nombre) throws AttributeNotFoundException {
+            Number valor = instantanea().get(nombre);
+            if (valor == null) {
+                throw new AttributeNotFoundException(nombre);
+            }
+            return valor;
+        }
+
+        @Override
+        public void setAttribute(Attribute atributo) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Las métricas son de solo lectura: " + atributo.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] nombres) {
+            Map<String, Number> valores = instantanea();
+            AttributeList atributos = new AttributeList();
+            for (String nombre : nombres) {
+                if (valores.containsKey(nombre)) {
+                    atributos.add(new Attribute(nombre, valores.get(nombre)));
+                }
+            }
+            return atributos;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList atributos) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String accion, Object[] parametros, String[] firma) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(accion));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Number> valores = instantanea();
+            MBeanAttributeInfo[] atributos = new MBeanAttributeInfo[valores.size()];
+            int i = 0;
+            for (Map.Entry<String, Number> valor : valores.entrySet()) {
+                atributos[i++] = new MBeanAttributeInfo(valor.getKey(), valor.getValue().getClass().getName(),
+                        valor.getKey(), true, false, false);
+            }
+            return new MBeanInfo(Metricas.class.getName(), "Métricas del servidor virgo", atributos,
+                    null, null, null);
+        }
+    }
+}
@@ -3,11 +3,16 @@ package virgo;
 import javax.crypto.*;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 
 
 public class Moderador {
+    private static final int MAXIMO_LISTADO = 70;
     private Socket socket;
     private DataOutputStream salidaServidor;
     private DataInputStream entradaServidor;
@@ -15,12 +20,29 @@ public class Moderador {
     private SecretKey claveAESCompartida;
     private PublicKey clavePublicaModerador;
     private PrivateKey clavePrivadaModerador;
+    private ContextoCripto contextoCripto;
+    private ContextoCripto contextoEnvio;
+    // Mensajes que esperan la decisión de la persona, por id (el orden de llegada)
+    private final ConcurrentSkipListMap<Long, Pendiente> enRevision;
+    private volatile boolean cerrando;
+    // Moderación automática para pruebas de carga: porcentaje de mensajes que se aprueban
+    // (-1 = preguntar por consola) y demora simulada de cada decisión
+    private final int porcentajeAutomatico;
+    private final long demoraAutomaticaMillis;
+    private final SplittableRandom aleatorio;
+    private long decididos;
 
     public Moderador(String ipServidor, int puertoServidor) throws IOException {
         this.socket = new Socket(ipServidor, puertoServidor);
-        this.salidaServidor = new DataOutputStream(socket.getOutputStream());
+        // Cada lote de decisiones sale entero en el flush, sin esperar ACKs (Nagle)
+        socket.setTcpNoDelay(true);
+        this.salidaServidor = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
         this.entradaServidor = new DataInputStream(socket.getInputStream());
         this.entradaConsola = new BufferedReader(new InputStreamReader(System.in));
+        this.porcentajeAutomatico = Configuracion.entero("virgo.moderador.auto", -1);
+        this.demoraAutomaticaMillis = Configuracion.enteroLargo("virgo.moderador.demoraMs", 0);
+        this.aleatorio = new SplittableRandom();
+        this.enRevision = new ConcurrentSkipListMap<>();
 
         System.out.println("Moderador conectado al servidor " + ipServidor + ":" + puertoServidor);
     }
@@ -53,6 +75,11 @@ public class Moderador {
         // Cifrar y enviar la clave AES al servidor
         enviarClaveAESCifradaAlServidor(clavePublicaServidor);
 
+        // Cifradores de la sesión, inicializados una sola vez: uno para el hilo que lee
+        // los lotes y otro para el que envía las decisiones
+        contextoCripto = new ContextoCripto(claveAESCompartida, null, null);
+        contextoEnvio = new ContextoCripto(claveAESCompartida, null, null);
+
         System.out.println("Conexión segura establecida");
         System.out.println("Esperando mensajes para moderar...\n");
     }
@@ -96,57 +123,291 @@ public class Moderador {
         salidaServidor.flush();
     }
 
-    // Inicia la Moderacion
+    // Inicia la Moderacion. Los mensajes llegan en lotes de [id][remitente][texto] (con
+    // el plazo que les queda) y las decisiones se devuelven cada una con su id. En modo
+    // automático se decide cada lote al llegar; si no, un hilo lee los lotes hacia la cola
+    // de revisión y la consola decide sobre ella en el orden que quiera la persona
     public void iniciarModeracion() throws Exception {
-        while (true) {
-            int tamaño = entradaServidor.readInt();
-            byte[] mensajeCifrado = new byte[tamaño];
-            entradaServidor.readFully(mensajeCifrado);
+        if (porcentajeAutomatico >= 0) {
+            while (true) {
+                List<Pendiente> lote = leerLote();
+                long[] ids = new long[lote.size()];
+                String[] decisiones = new String[lote.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = lote.get(i).id;
+                    decisiones[i] = decidirAutomaticamente();
+                }
+                enviarDecisionesCifradas(ids, decisiones);
+            }
+        }
+
+        Hilos.iniciarBucle("moderador-lector", this::recibirParaRevision);
+        System.out.println("Escriba 'ayuda' para ver los comandos.");
+        atenderConsola();
+    }
 
-            // Descifrar el mensaje recibido
-            String mensajeDescifrado = descifrarMensajeDelServidor(mensajeCifrado);
+    // Lee y descifra el siguiente lote del servidor
+
+    private List<Pendiente> leerLote() throws Exception {
+        byte[] loteCifrado = CodecTramas.leerTrama(entradaServidor, CodecTramas.MAXIMO_LOTE);
+
+        int tamañoLote = descifrarMensajeDelServidor(loteCifrado);
+        DataInputStream lote = new DataInputStream(
+                new ByteArrayInputStream(contextoCripto.getBuffer(), 0, tamañoLote));
+        int cantidad = lote.readInt();
+        List<Pendiente> mensajes = new ArrayList<>(cantidad);
+        long llegada = System.nanoTime();
+
+        for (int i = 0; i < cantidad; i++) {
+            long id = lote.readLong();
+            String remitente = lote.readUTF();
+            int tamañoTexto = lote.readInt();
+            String texto = new String(contextoCripto.getBuffer(), tamañoLote - lote.available(), tamañoTexto,
+                    StandardCharsets.UTF_8);
+            lote.skipBytes(tamañoTexto);
+            String sugerencia = lote.readUTF();
+            long plazo = lote.readLong();
+            mensajes.add(new Pendiente(id, remitente, texto, sugerencia, llegada,
+                    plazo < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(plazo)));
+        }
+        return mensajes;
+    }
 
-            // Mostrar mensaje y solicitar decisión
-            System.out.println("Mensaje recibido: " + mensajeDescifrado);
-            String decision = solicitarDecisionAlModerador();
+    // Hilo lector: pasa cada lote a la cola de revisión y avisa por consola. Si se
+    // pierde la conexión no queda nada que decidir y el moderador termina
 
-            // Cifrar y enviar la decisión al servidor
-            enviarDecisionCifrada(decision);
+    private void recibirParaRevision() {
+        try {
+            while (true) {
+                List<Pendiente> lote = leerLote();
+                for (Pendiente pendiente : lote) {
+                    enRevision.put(pendiente.id, pendiente);
+                }
+                quitarVencidos();
+                if (lote.size() <= 5) {
+                    for (Pendiente pendiente : lote) {
+                        System.out.println("Mensaje recibido " + describir(pendiente, MAXIMO_LISTADO));
+                    }
+                } else {
+                    System.out.println("Llegaron " + lote.size() + " mensajes.");
+                }
+                System.out.println("(" + enRevision.size() + " pendientes)");
+            }
+        } catch (Exception e) {
+            if (!cerrando) {
+                System.err.println("Se perdió la conexión con el servidor: " + e.getMessage());
+                System.exit(1);
+            }
         }
     }
 
-    // Descifra un mensaje del servidor usando la clave AES compartida
-     
-    private String descifrarMensajeDelServidor(byte[] mensajeCifrado) throws Exception {
-        Cipher cifradorAES = Cipher.getInstance("AES");
-        cifradorAES.init(Cipher.DECRYPT_MODE, claveAESCompartida);
+    // Lee comandos hasta que se cierra la consola; entonces cierra la conexión y el
+    // servidor devuelve al pool los mensajes que quedaron sin decidir
+
+    private void atenderConsola() throws Exception {
+        String linea;
+        while ((linea = entradaConsola.readLine()) != null) {
+            String[] partes = linea.trim().split("[\\s,]+");
+            String comando = partes[0].toLowerCase();
+            switch (comando) {
+                case "" -> { }
+                case "l", "lista" -> listar(partes.length > 1 ? partes[1] : null);
+                case "v", "ver" -> ver(partes);
+                case "a", "aprobar" -> decidir(partes, "APROBADO");
+                case "r", "rechazar" -> decidir(partes, "RECHAZADO");
+                // Como antes: si/no deciden el mensaje más antiguo
+                case "si", "no" -> decidirMasAntiguo("si".equals(comando));
+                case "?", "ayuda" -> mostrarAyuda();
+                default -> System.out.println("Comando desconocido: " + comando + " (escriba 'ayuda')");
+            }
+        }
+        cerrando = true;
+        try { socket.close(); } catch (Exception ignored) {}
+    }
 
-        return new String(cifradorAES.doFinal(mensajeCifrado));
+    private void mostrarAyuda() {
+        System.out.println("  l [n]          lista los n mensajes pendientes más antiguos (20 por defecto)");
+        System.out.println("  v <id>         muestra el mensaje completo");
+        System.out.println("  a <ids>        aprueba los mensajes indicados");
+        System.out.println("  r <ids>        rechaza los mensajes indicados");
+        System.out.println("  si / no        aprueba o rechaza el mensaje más antiguo");
+        System.out.println("  <ids> es una lista de ids o rangos (3 5 8-12) o * para todos los pendientes");
     }
 
-    
-    // Solicita al moderador que decida si aprobar o rechazar el mensaje
+    // Saca de la cola los mensajes cuyo plazo pasó: el servidor ya no espera su decisión
+    // (la ignoraría) y puede habérselos dado a otro moderador
+
+    private void quitarVencidos() {
+        int vencidos = 0;
+        for (Pendiente pendiente : enRevision.values()) {
+            if (pendiente.vencido() && enRevision.remove(pendiente.id, pendiente)) {
+                vencidos++;
+            }
+        }
+        if (vencidos > 0) {
+            System.out.println(vencidos + (vencidos == 1 ? " mensaje venció" : " mensajes vencieron")
+                    + " sin decisión; el servidor ya no los espera.");
+        }
+    }
+
+    private void listar(String cantidad) {
+        int maximo = 20;
+        if (cantidad != null) {
+            try {
+                maximo = Integer.parseInt(cantidad);
+            } catch (NumberFormatException e) {
+                System.out.println("Cantidad inválida: " + cantidad);
+                return;
+            }
+        }
+        quitarVencidos();
+        if (enRevision.isEmpty()) {
+            System.out.println("No hay mensajes pendientes.");
+            return;
+        }
+        int mostrados = 0;
+        for (Pendiente pendiente : enRevision.values()) {
+            if (mostrados++ == maximo) {
+                break;
+            }
+            System.out.println("  " + describir(pendiente, MAXIMO_LISTADO));
+        }
+        System.out.println("(" + enRevision.size() + " pendientes)");
+    }
+
+    private void ver(String[] partes) {
+        quitarVencidos();
+        Pendiente pendiente = null;
+        try {
+            pendiente = partes.length == 2 ? enRevision.get(Long.parseLong(partes[1])) : null;
+        } catch (NumberFormatException ignored) {
+        }
+        if (pendiente == null) {
+            System.out.println("Uso: v <id de un mensaje pendiente>");
+            return;
+        }
+        System.out.println("  " + describir(pendiente, Integer.MAX_VALUE));
+        if (!pendiente.sugerencia.isEmpty()) {
+            System.out.println("  (parecido a un mensaje " + pendiente.sugerencia + " hace poco)");
+        }
+    }
+
+    // Aplica la misma decisión a todos los ids indicados y la envía en un solo lote
+
+    private void decidir(String[] partes, String decision) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 1; i < partes.length; i++) {
+            if (!agregarIds(partes[i], ids)) {
+                System.out.println("Id o rango inválido: " + partes[i]);
+                return;
+            }
+        }
+        if (ids.isEmpty()) {
+            System.out.println("Indique los ids de los mensajes (o * para todos).");
+            return;
+        }
+
+        List<Long> idsDecididos = new ArrayList<>();
+        List<Long> desconocidos = new ArrayList<>();
+        for (long id : ids) {
+            Pendiente pendiente = enRevision.remove(id);
+            (pendiente != null && !pendiente.vencido() ? idsDecididos : desconocidos).add(id);
+        }
+        if (!desconocidos.isEmpty()) {
+            System.out.println("No están pendientes: " + desconocidos);
+        }
+        if (idsDecididos.isEmpty()) {
+            return;
+        }
+        enviarDecisionesCifradas(idsDecididos.stream().mapToLong(Long::longValue).toArray(),
+                Collections.nCopies(idsDecididos.size(), decision).toArray(new String[0]));
+        System.out.println(idsDecididos.size() + (decision.equals("APROBADO") ? " aprobados" : " rechazados")
+                + " (" + enRevision.size() + " pendientes)");
+    }
+
+    // Agrega un id, un rango "desde-hasta" (solo los pendientes) o "*" (todos los pendientes)
+
+    private boolean agregarIds(String texto, List<Long> ids) {
+        try {
+            if (texto.equals("*")) {
+                ids.addAll(enRevision.keySet());
+            } else if (texto.indexOf('-') > 0) {
+                int guion = texto.indexOf('-');
+                long desde = Long.parseLong(texto.substring(0, guion));
+                long hasta = Long.parseLong(texto.substring(guion + 1));
+                ids.addAll(enRevision.subMap(desde, true, hasta, true).keySet());
+            } else {
+                ids.add(Long.parseLong(texto));
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException, o un rango al revés
+            return false;
+        }
+    }
+
+    private void decidirMasAntiguo(boolean aprobar) throws Exception {
+        quitarVencidos();
+        Map.Entry<Long, Pendiente> masAntiguo = enRevision.pollFirstEntry();
+        if (masAntiguo == null) {
+            System.out.println("No hay mensajes pendientes.");
+            return;
+        }
+        enviarDecisionesCifradas(new long[]{masAntiguo.getKey()},
+                new String[]{aprobar ? "APROBADO" : "RECHAZADO"});
+        System.out.println(aprobar ? "Mensaje aprobado" : "Mensaje rechazado");
+    }
+
+    // "#id (hace Ns, vence en Ms) remitente | texto", con el texto recortado al máximo
+    // indicado (sin el "remitente: " con que el servidor lo antepone al moderarlo)
+
+    private static String describir(Pendiente pendiente, int maximoTexto) {
+        long transcurrido = System.nanoTime() - pendiente.llegada;
+        long edad = TimeUnit.NANOSECONDS.toSeconds(transcurrido);
+        String vence = pendiente.plazo < 0 ? ""
+                : ", vence en " + Math.ceilDiv(pendiente.plazo - transcurrido, TimeUnit.SECONDS.toNanos(1)) + "s";
+        String texto = pendiente.texto.startsWith(pendiente.remitente + ": ")
+                ? pendiente.texto.substring(pendiente.remitente.length() + 2) : pendiente.texto;
+        texto = texto.length() > maximoTexto
+                ? texto.substring(0, maximoTexto) + "..." : texto;
+        return "#" + pendiente.id + " (hace " + edad + "s" + vence
+                + (pendiente.sugerencia.isEmpty() ? "" : ", parecido") + ") " + pendiente.remitente + " | " + texto;
+    }
+
+    // Descifra un mensaje del servidor usando la clave AES compartida; el resultado
+    // queda en el buffer del contexto y se devuelve su tamaño
      
-    private String solicitarDecisionAlModerador() throws IOException {
-        System.out.print("¿Aprobar mensaje? (si/no): ");
-        String respuesta = entradaConsola.readLine();
+    private int descifrarMensajeDelServidor(byte[] mensajeCifrado) throws Exception {
+        return contextoCripto.descifrar(mensajeCifrado);
+    }
+
+    
+    // Decisión sin consola: aprueba el porcentaje configurado, al azar, después de la demora
 
-        if ("si".equalsIgnoreCase(respuesta)) {
-            System.out.println("Mensaje aprobado");
-            return "APROBADO";
-        } else {
-            System.out.println("Mensaje rechazado");
-            return "RECHAZADO";
+    private String decidirAutomaticamente() throws InterruptedException {
+        if (demoraAutomaticaMillis > 0) {
+            Thread.sleep(demoraAutomaticaMillis);
         }
+        if (++decididos % 1000 == 0) {
+            System.out.println("Mensajes decididos: " + decididos);
+        }
+        return aleatorio.nextInt(100) < porcentajeAutomatico ? "APROBADO" : "RECHAZADO";
     }
 
     /**
-     * Cifra la decisión del moderador y la envía al servidor
+     * Cifra las decisiones de un lote, cada una con el id de su mensaje, y las envía al servidor
+     * en una sola trama
      */
-    private void enviarDecisionCifrada(String decision) throws Exception {
-        Cipher cifradorAES = Cipher.getInstance("AES");
-        cifradorAES.init(Cipher.ENCRYPT_MODE, claveAESCompartida);
-        byte[] decisionCifrada = cifradorAES.doFinal(decision.getBytes());
+    private void enviarDecisionesCifradas(long[] ids, String[] decisiones) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream datos = new DataOutputStream(bytes);
+        datos.writeInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            datos.writeLong(ids[i]);
+            datos.writeUTF(decisiones[i]);
+        }
+
+        byte[] decisionCifrada = contextoEnvio.cifrar(bytes.toByteArray());
 
         salidaServidor.writeInt(decisionCifrada.length);
         salidaServidor.write(decisionCifrada);
@@ -157,6 +418,7 @@ public class Moderador {
         if (args.length != 2) {
             System.err.println("Uso: java Moderador <ipServidor> <puerto>");
             System.err.println("Ejemplo: java Moderador 192.168.1.7 50000");
+            System.err.println("Automático: java -Dvirgo.moderador.auto=90 Moderador 127.0.0.1 50000");
             System.exit(1);
         }
 
@@ -179,4 +441,28 @@ public class Moderador {
         }
     }
 
+    // Un mensaje en la cola de revisión; la llegada es la del lote (System.nanoTime) y el
+    // plazo, en nanosegundos desde la llegada, el que le daba el servidor (-1 si no vence)
+
+    private static class Pendiente {
+        final long id;
+        final String remitente;
+        final String texto;
+        final String sugerencia;
+        final long llegada;
+        final long plazo;
+
+        Pendiente(long id, String remitente, String texto, String sugerencia, long llegada, long plazo) {
+            this.id = id;
+            this.remitente = remitente;
+            this.texto = texto;
+            this.sugerencia = sugerencia;
+            this.llegada = llegada;
+            this.plazo = plazo;
+        }
+
+        boolean vencido() {
+            return plazo >= 0 && System.nanoTime() - llegada >= plazo;
+        }
+    }
 }
@@ -0,0 +1,401 @@
+package virgo;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+// Motor alternativo de conexiones de clientes basado en ServerSocketChannel/Selector.
+// El intercambio de claves se sigue haciendo en modo bloqueante en la etapa de
+// handshake (son pocas tramas y duran poco); una vez identificado el cliente el canal
+// pasa a modo no bloqueante y unos pocos bucles de eventos leen los paquetes de
+// todos los clientes, con el mismo protocolo de tramas que el motor de hilos.
+
+class MotorNIO {
+    private static final int MAXIMO_PAQUETES_EN_COLA = 64;
+    private static final long MAXIMO_BYTES_SALIDA = Configuracion.enteroLargo("virgo.nio.maximoBytesSalida", 1024 * 1024);
+
+    private final Servidor servidor;
+    private final ServerSocketChannel canalServidor;
+    private final EtapaHandshake etapaHandshake;
+    private final BucleEventos[] bucles;
+    private final ExecutorService trabajadores;
+    private final AtomicInteger siguienteBucle;
+
+    MotorNIO(Servidor servidor, ServerSocketChannel canalServidor, EtapaHandshake etapaHandshake,
+             int numeroBucles, int numeroTrabajadores) throws IOException {
+        this.servidor = servidor;
+        this.canalServidor = canalServidor;
+        this.etapaHandshake = etapaHandshake;
+        this.bucles = new BucleEventos[numeroBucles];
+        for (int i = 0; i < numeroBucles; i++) {
+            bucles[i] = new BucleEventos();
+        }
+        this.trabajadores = Executors.newFixedThreadPool(numeroTrabajadores, Hilos.fabrica("nio-trabajador-"));
+        this.siguienteBucle = new AtomicInteger();
+    }
+
+    // Arranca los bucles de eventos y el hilo que acepta conexiones
+
+    void iniciar() {
+        for (int i = 0; i < bucles.length; i++) {
+            Hilos.iniciarBucle("nio-bucle-" + i, bucles[i]);
+        }
+        Hilos.iniciarBucle("nio-aceptador", this::aceptarConexiones);
+    }
+
+    private void aceptarConexiones() {
+        Registro.info(" Esperando clientes (NIO, " + bucles.length + " bucles de eventos)...");
+        while (canalServidor.isOpen()) {
+            try {
+                SocketChannel canal = canalServidor.accept();
+                SesionCliente sesion = servidor.registrarConexion(canal.socket());
+                etapaHandshake.admitir(sesion, s -> completarHandshake(canal, s));
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                Registro.error("Error al aceptar cliente: " + e.getMessage());
+            }
+        }
+    }
+
+    // Intercambio de claves en modo bloqueante y registro del canal en un bucle de eventos
+
+    private Runnable completarHandshake(SocketChannel canal, SesionCliente sesion) throws Exception {
+        Socket socket = canal.socket();
+        DataInputStream entrada = new DataInputStream(socket.getInputStream());
+        DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        servidor.realizarHandshakeCliente(sesion, entrada, salida);
+
+        return () -> {
+            try {
+                canal.configureBlocking(false);
+                BucleEventos bucle = bucles[Math.floorMod(siguienteBucle.getAndIncrement(), bucles.length)];
+                bucle.registrar(new ConexionNIO(canal, sesion, bucle));
+            } catch (IOException e) {
+                Registro.error("Error al registrar cliente: " + e.getMessage());
+                servidor.eliminarCliente(sesion);
+            }
+        };
+    }
+
+    // Un selector con su hilo; atiende las lecturas y escrituras de sus conexiones
+
+    private class BucleEventos implements Runnable {
+        private final Selector selector;
+        private final Queue<ConexionNIO> nuevas;
+        private final Queue<ConexionNIO> actualizaciones;
+        private final ByteBuffer bufferLectura;
+
+        BucleEventos() throws IOException {
+            this.selector = Selector.open();
+            this.nuevas = new ConcurrentLinkedQueue<>();
+            this.actualizaciones = new ConcurrentLinkedQueue<>();
+            this.bufferLectura = ByteBuffer.allocateDirect(64 * 1024);
+        }
+
+        void registrar(ConexionNIO conexion) {
+            nuevas.add(conexion);
+            selector.wakeup();
+        }
+
+        // Pide recalcular los eventos de interés de una conexión desde el hilo del bucle
+
+        void solicitarActualizacion(ConexionNIO conexion) {
+            actualizaciones.add(conexion);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    registrarNuevas();
+                    aplicarActualizaciones();
+
+                    Iterator<SelectionKey> claves = selector.selectedKeys().iterator();
+                    while (claves.hasNext()) {
+                        SelectionKey clave = claves.next();
+                        claves.remove();
+                        ConexionNIO conexion = (ConexionNIO) clave.attachment();
+                        try {
+                            if (clave.isValid() && clave.isReadable()) {
+                                leer(conexion);
+                            }
+                            if (clave.isValid() && clave.isWritable()) {
+                                escribir(conexion);
+                            }
+                        } catch (IOException e) {
+                            conexion.cerrar();
+                        }
+                    }
+                } catch (IOException e) {
+                    Registro.error("Error en el bucle de eventos: " + e.getMessage());
+                }
+            }
+        }
+
+        private void registrarNuevas() {
+            ConexionNIO conexion;
+            while ((conexion = nuevas.poll()) != null) {
+                try {
+                    conexion.clave = conexion.canal.register(selector, SelectionKey.OP_READ, conexion);
+                    actualizarInteres(conexion);
+                } catch (IOException e) {
+                    conexion.cerrar();
+                }
+            }
+        }
+
+        private void aplicarActualizaciones() {
+            ConexionNIO conexion;
+            while ((conexion = actualizaciones.poll()) != null) {
+                actualizarInteres(conexion);
+            }
+        }
+
+        private void actualizarInteres(ConexionNIO conexion) {
+            SelectionKey clave = conexion.clave;
+            if (clave == null || !clave.isValid()) {
+                return;
+            }
+            int interes = conexion.pausada ? 0 : SelectionKey.OP_READ;
+            if (!conexion.salida.isEmpty()) {
+                interes |= SelectionKey.OP_WRITE;
+            }
+            clave.interestOps(interes);
+        }
+
+        private void leer(ConexionNIO conexion) throws IOException {
+            bufferLectura.clear();
+            int leidos = conexion.canal.read(bufferLectura);
+            if (leidos < 0) {
+                throw new EOFException();
+            }
+            bufferLectura.flip();
+
+            ByteBuffer trama;
+            while ((trama = conexion.lector.leer(bufferLectura)) != null) {
+                conexion.tramaRecibida(trama);
+            }
+            if (conexion.pausada) {
+                actualizarInteres(conexion);
+            }
+        }
+
+        private void escribir(ConexionNIO conexion) throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = conexion.salida.peek()) != null) {
+                conexion.canal.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                conexion.salida.poll();
+                conexion.salidaNIO.entregado(buffer.capacity());
+            }
+            actualizarInteres(conexion);
+        }
+    }
+
+    // Estado de un cliente conectado: decodificador de tramas, cola de salida y
+    // paquetes pendientes de procesar (en orden, de a uno por cliente)
+
+    private class ConexionNIO {
+        final SocketChannel canal;
+        final SesionCliente sesion;
+        final BucleEventos bucle;
+        final LectorTramas lector;
+        final Queue<ByteBuffer> salida;
+        final SalidaNIO salidaNIO;
+        private final ArrayDeque<Paquete> pendientes;
+        private final AtomicBoolean cerrada;
+        private ByteBuffer mensajeCifrado;
+        private long inicioPaquete;
+        private boolean procesando;
+        volatile boolean pausada;
+        SelectionKey clave;
+
+        ConexionNIO(SocketChannel canal, SesionCliente sesion, BucleEventos bucle) {
+            this.canal = canal;
+            this.sesion = sesion;
+            this.bucle = bucle;
+            this.lector = new LectorTramas(CodecTramas.MAXIMO_MENSAJE);
+            this.salida = new ConcurrentLinkedQueue<>();
+            this.salidaNIO = new SalidaNIO(this);
+            servidor.registrarSalida(sesion, new DataOutputStream(salidaNIO), this::cerrar);
+            this.pendientes = new ArrayDeque<>();
+            this.cerrada = new AtomicBoolean();
+        }
+
+        // Un paquete son dos tramas seguidas: mensaje cifrado y firma
+
+        void tramaRecibida(ByteBuffer trama) throws IOException {
+            if (mensajeCifrado == null) {
+                mensajeCifrado = trama;
+                inicioPaquete = lector.getInicio();
+                return;
+            }
+            if (trama.remaining() > CodecTramas.MAXIMO_FIRMA) {
+                CodecTramas.devolverBuffer(trama);
+                throw new IOException("Firma demasiado grande: " + trama.remaining());
+            }
+            Paquete paquete = new Paquete(mensajeCifrado, trama);
+            mensajeCifrado = null;
+            Metricas.LECTURA.registrarDesde(inicioPaquete);
+
+            boolean lanzar;
+            synchronized (this) {
+                pendientes.add(paquete);
+                if (pendientes.size() >= MAXIMO_PAQUETES_EN_COLA) {
+                    pausada = true;
+                }
+                lanzar = !procesando;
+                procesando = true;
+            }
+            if (lanzar) {
+                trabajadores.execute(this::procesarPendientes);
+            }
+        }
+
+        private void procesarPendientes() {
+            while (true) {
+                Paquete paquete;
+                boolean reanudar = false;
+                synchronized (this) {
+                    paquete = pendientes.poll();
+                    if (paquete == null) {
+                        procesando = false;
+                        return;
+                    }
+                    if (pausada && pendientes.size() < MAXIMO_PAQUETES_EN_COLA / 2) {
+                        pausada = false;
+                        reanudar = true;
+                    }
+                }
+                if (reanudar) {
+                    bucle.solicitarActualizacion(this);
+                }
+
+                try {
+                    servidor.procesarPaqueteDelCliente(sesion, paquete);
+                } catch (Exception e) {
+                    cerrar();
+                    liberarPendientes();
+                    return;
+                }
+            }
+        }
+
+        void encolar(ByteBuffer datos) {
+            salida.add(datos);
+            bucle.solicitarActualizacion(this);
+        }
+
+        // Los paquetes que ya no se van a procesar devuelven sus buffers al pool
+
+        private synchronized void liberarPendientes() {
+            Paquete paquete;
+            while ((paquete = pendientes.poll()) != null) {
+                paquete.liberar();
+            }
+        }
+
+        void cerrar() {
+            if (cerrada.compareAndSet(false, true)) {
+                salidaNIO.cerrar();
+                servidor.eliminarCliente(sesion);
+            }
+        }
+    }
+
+    // Flujo de salida que acumula lo escrito y lo entrega al bucle de eventos en cada
+    // flush. Lo usa solo la tarea de escritura de SalidaCliente; si el bucle todavía
+    // tiene demasiados bytes sin escribir en el socket, flush espera (como un socket
+    // bloqueante lleno) y la cola de SalidaCliente queda como único límite
+
+    private static class SalidaNIO extends OutputStream {
+        private final ConexionNIO conexion;
+        private final ByteArrayOutputStream acumulado;
+        private final ReentrantLock lock;
+        private final Condition hayEspacio;
+        private long bytesEnCola;
+        private boolean cerrada;
+
+        SalidaNIO(ConexionNIO conexion) {
+            this.conexion = conexion;
+            this.acumulado = new ByteArrayOutputStream();
+            this.lock = new ReentrantLock();
+            this.hayEspacio = lock.newCondition();
+        }
+
+        @Override
+        public void write(int b) {
+            acumulado.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            acumulado.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (acumulado.size() == 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                while (bytesEnCola >= MAXIMO_BYTES_SALIDA && !cerrada) {
+                    hayEspacio.await();
+                }
+                if (cerrada) {
+                    throw new IOException("conexión cerrada");
+                }
+                bytesEnCola += acumulado.size();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                lock.unlock();
+            }
+            conexion.encolar(ByteBuffer.wrap(acumulado.toByteArray()));
+            acumulado.reset();
+        }
+
+        // El bucle de eventos terminó de escribir un buffer en el socket
+
+        void entregado(int bytes) {
+            lock.lock();
+            try {
+                bytesEnCola -= bytes;
+                if (bytesEnCola < MAXIMO_BYTES_SALIDA) {
+                    hayEspacio.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void cerrar() {
+            lock.lock();
+            try {
+                cerrada = true;
+                hayEspacio.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
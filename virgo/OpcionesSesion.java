@@ -0,0 +1,48 @@
+package virgo;
+
+
+// Opciones de sesión que el cliente pide después del intercambio de claves y el
+// servidor confirma (int con bits). Sin GCM la sesión usa el modo clásico
+// (AES/ECB), que no protege la integridad, por eso ahí la firma RSA es obligatoria.
+// COMPRESION comprime los mensajes antes de cifrarlos (ver Compresion); no se pide
+// salvo que el cliente la active.
+
+final class OpcionesSesion {
+    static final int GCM = 1;
+    static final int FIRMA = 1 << 1;
+    static final int COMPRESION = 1 << 2;
+
+    private OpcionesSesion() {
+    }
+
+    // Opciones que acepta el servidor a partir de las pedidas por el cliente.
+    // Devuelve 0 si la sesión no tendría forma de verificar los mensajes
+    // (sin GCM y sin clave RSA del cliente para las firmas)
+
+    static int negociar(int pedidas, boolean permitirGCM, boolean permitirCompresion, boolean clienteTieneClaveRSA) {
+        int aceptadas = pedidas & (GCM | FIRMA | COMPRESION);
+        if (!permitirGCM) {
+            aceptadas &= ~GCM;
+        }
+        if (!permitirCompresion) {
+            aceptadas &= ~COMPRESION;
+        }
+        if ((aceptadas & GCM) == 0) {
+            aceptadas |= FIRMA;
+        }
+        if (!clienteTieneClaveRSA) {
+            aceptadas &= ~FIRMA;
+        }
+        return (aceptadas & (GCM | FIRMA)) != 0 ? aceptadas : 0;
+    }
+
+    static boolean tiene(int opciones, int opcion) {
+        return (opciones & opcion) != 0;
+    }
+
+    static String describir(int opciones) {
+        return (tiene(opciones, GCM) ? "AES-GCM" : "AES-ECB")
+                + (tiene(opciones, FIRMA) ? " + firma RSA" : "")
+                + (tiene(opciones, COMPRESION) ? " + deflate" : "");
+    }
+}
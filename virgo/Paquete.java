@@ -1,24 +1,36 @@
 package virgo;
 
-import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 
-public class Paquete implements Serializable {
-    private byte[] mensajeCifrado;
-    private byte[] firma;
+// Mensaje cifrado y firma de un cliente. Del lado del servidor los buffers salen
+// del pool de CodecTramas y se devuelven con liberar() una vez procesado el paquete.
+
+public class Paquete {
+    private final ByteBuffer mensajeCifrado;
+    private final ByteBuffer firma;
 
 
     public Paquete(byte[] mensajeCifrado, byte[] firma) {
+        this(ByteBuffer.wrap(mensajeCifrado), ByteBuffer.wrap(firma));
+    }
+
+    Paquete(ByteBuffer mensajeCifrado, ByteBuffer firma) {
         this.mensajeCifrado = mensajeCifrado;
         this.firma = firma;
     }
 
 
-    public byte[] getMensajeCifradoBytes() {
+    public ByteBuffer getMensajeCifrado() {
         return mensajeCifrado;
     }
 
-    public byte[] getFirmaBytes() {
+    public ByteBuffer getFirma() {
         return firma;
     }
+
+    void liberar() {
+        CodecTramas.devolverBuffer(mensajeCifrado);
+        CodecTramas.devolverBuffer(firma);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,248 @@
+package virgo;
+
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+// Conjunto de moderadores conectados y cola compartida de mensajes por moderar.
+// Un hilo despachador asigna cada mensaje al moderador con menos mensajes
+// pendientes que todavía tenga cupo; si ninguno lo tiene (o no hay moderadores)
+// el mensaje espera en la cola. Los moderadores pueden entrar y salir en cualquier
+// momento: lo que tenía pendiente uno que se va vuelve al frente de la cola.
+//
+// La cantidad de mensajes sin decisión (en cola o en manos de un moderador) está
+// acotada por maximoEnCurso: pasado ese límite enviar() falla en el acto con
+// RejectedExecutionException y el cliente recibe "ocupado". Cada mensaje tiene
+// además un plazo: si vence sin decisión, su futuro falla con TimeoutException y
+// sale de la cola o deja de contar entre los pendientes del moderador que lo tenía
+// (si su decisión llega después, se ignora). Así, aunque los moderadores no
+// respondan o no haya ninguno, la memoria, la espera de cada cliente y el cupo de
+// cada moderador quedan acotados.
+//
+// Con un DiarioPendientes, cada mensaje pasa a la cola recién cuando su llegada está
+// en disco, y al decidirse (o vencer) se anota su baja: si el servidor se reinicia,
+// los mensajes sin decisión se recuperan del diario (ver recuperar()).
+
+class PoolModeradores {
+    private final BlockingDeque<SolicitudModeracion> cola;
+    private final List<CanalModerador> canales;
+    private final AtomicLong siguienteId;
+    private final int maximoPendientesPorModerador;
+    private final int maximoEnCurso;
+    private final long plazoMillis;
+    private final DiarioPendientes diario;
+    private final AtomicInteger enCurso;
+    private final AtomicLong ocupados;
+    private final AtomicLong vencidos;
+    private final AtomicLong reintentados;
+    private final ReentrantLock lock;
+    private final Condition hayCupo;
+
+    PoolModeradores(int maximoPendientesPorModerador, int maximoEnCurso, long plazoMillis, DiarioPendientes diario) {
+        this.cola = new LinkedBlockingDeque<>();
+        this.canales = new CopyOnWriteArrayList<>();
+        this.siguienteId = new AtomicLong();
+        this.maximoPendientesPorModerador = maximoPendientesPorModerador;
+        this.maximoEnCurso = maximoEnCurso;
+        this.plazoMillis = plazoMillis;
+        this.diario = diario;
+        this.enCurso = new AtomicInteger();
+        this.ocupados = new AtomicLong();
+        this.vencidos = new AtomicLong();
+        this.reintentados = new AtomicLong();
+        this.lock = new ReentrantLock();
+        this.hayCupo = lock.newCondition();
+    }
+
+    void iniciar() {
+        Hilos.ejecutar(this::despachar);
+    }
+
+    // Encola un mensaje a moderar; la decisión se completa cuando responda algún moderador,
+    // falla con TimeoutException si vence el plazo, o falla en el acto si no hay lugar
+
+    CompletableFuture<String> enviar(Mensaje mensaje, String sugerencia) {
+        if (enCurso.incrementAndGet() > maximoEnCurso) {
+            enCurso.decrementAndGet();
+            ocupados.incrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("cola de moderación llena"));
+        }
+        SolicitudModeracion solicitud = new SolicitudModeracion(siguienteId.incrementAndGet(), mensaje, sugerencia);
+        solicitud.vencerEn(solicitud.getCreada() + TimeUnit.MILLISECONDS.toNanos(plazoMillis));
+        solicitud.getDecision().orTimeout(plazoMillis, TimeUnit.MILLISECONDS).whenComplete((decision, error) -> {
+            enCurso.decrementAndGet();
+            if (error instanceof TimeoutException) {
+                vencidos.incrementAndGet();
+                // Si todavía no la tomó ningún moderador no ocupa lugar en la cola; si la
+                // tenía uno, deja de ocupar su cupo
+                cola.remove(solicitud);
+                CanalModerador canal = solicitud.getCanal();
+                if (canal != null) {
+                    canal.retirar(solicitud);
+                }
+            }
+            if (diario != null) {
+                diario.baja(solicitud.getId());
+            }
+        });
+        if (diario == null) {
+            cola.add(solicitud);
+        } else {
+            // Si no se pudo anotar se modera igual, aunque un reinicio lo perdería (el diario
+            // queda degradado y lo cuenta en sus errores)
+            diario.alta(solicitud.getId(), mensaje).whenComplete((escrita, error) -> {
+                if (!solicitud.getDecision().isDone()) {
+                    cola.add(solicitud);
+                }
+            });
+        }
+        return solicitud.getDecision();
+    }
+
+    // Vuelve a encolar, con su mismo id, un mensaje que la ejecución anterior dejó sin
+    // decisión: su alta ya está en el diario y la baja se anota recién cuando un moderador
+    // lo decide. Nadie espera la respuesta, así que no lo frena maximoEnCurso (ya está en
+    // memoria; sí cuenta en curso y hace esperar a los nuevos) ni tiene decisión por
+    // defecto: el plazo corre desde que lo toma un moderador y, si vence, vuelve a la cola
+
+    CompletableFuture<String> recuperar(long id, Mensaje mensaje) {
+        enCurso.incrementAndGet();
+        SolicitudModeracion solicitud = new SolicitudModeracion(id, mensaje, "", true);
+        solicitud.getDecision().whenComplete((decision, error) -> {
+            enCurso.decrementAndGet();
+            diario.baja(id);
+        });
+        cola.add(solicitud);
+        return solicitud.getDecision();
+    }
+
+    // Los ids siguen después del último que usó la ejecución anterior (los del diario),
+    // para no confundir las bajas de unos con las de otros
+
+    void continuarIdsDesde(long id) {
+        siguienteId.accumulateAndGet(id, Math::max);
+    }
+
+    void agregar(CanalModerador canal) {
+        canales.add(canal);
+        Registro.info("Moderadores conectados: " + canales.size());
+        avisarCupo();
+    }
+
+    void quitar(CanalModerador canal) {
+        canales.remove(canal);
+        Registro.info("Moderadores conectados: " + canales.size()
+                + (canales.isEmpty() ? " (los mensajes esperan en cola)" : ""));
+    }
+
+    // Devuelve al frente de la cola un mensaje que quedó sin decisión
+
+    void devolver(SolicitudModeracion solicitud) {
+        if (!solicitud.getDecision().isDone()) {
+            cola.addFirst(solicitud);
+        }
+    }
+
+    // Un moderador recibió decisiones o se conectó uno nuevo
+
+    void avisarCupo() {
+        lock.lock();
+        try {
+            hayCupo.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getConectados() {
+        return canales.size();
+    }
+
+    int getEnCola() {
+        return cola.size();
+    }
+
+    int getEnCurso() {
+        return enCurso.get();
+    }
+
+    long getOcupados() {
+        return ocupados.get();
+    }
+
+    long getVencidos() {
+        return vencidos.get();
+    }
+
+    long getReintentados() {
+        return reintentados.get();
+    }
+
+    private void despachar() {
+        try {
+            while (true) {
+                SolicitudModeracion solicitud = cola.take();
+                if (solicitud.getDecision().isDone()) {
+                    continue;
+                }
+                CanalModerador canal = esperarModeradorConCupo();
+                if (solicitud.esRecuperada()) {
+                    // Antes de asignarlo: el lote que lo lleva informa el plazo
+                    solicitud.vencerEn(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(plazoMillis));
+                }
+                canal.asignar(solicitud);
+                if (solicitud.esRecuperada()) {
+                    vigilarPlazo(solicitud, canal);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Un mensaje recuperado que el moderador no decide dentro del plazo se le retira y
+    // vuelve a la cola para otro intento (o para otro moderador)
+
+    private void vigilarPlazo(SolicitudModeracion solicitud, CanalModerador canal) {
+        CompletableFuture.delayedExecutor(plazoMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if (solicitud.getCanal() == canal && canal.retirar(solicitud) && !solicitud.getDecision().isDone()) {
+                reintentados.incrementAndGet();
+                cola.add(solicitud);
+            }
+        });
+    }
+
+    // El moderador con menos pendientes entre los que tienen cupo
+
+    private CanalModerador esperarModeradorConCupo() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                CanalModerador elegido = null;
+                for (CanalModerador canal : canales) {
+                    int pendientes = canal.getPendientes();
+                    if (pendientes < maximoPendientesPorModerador
+                            && (elegido == null || pendientes < elegido.getPendientes())) {
+                        elegido = canal;
+                    }
+                }
+                if (elegido != null) {
+                    return elegido;
+                }
+                hayCupo.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package virgo;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+
+// Registro de eventos del servidor. Las líneas van a una cola acotada que vacía un
+// solo hilo, así quien registra (p. ej. el hilo que procesa un paquete) no espera el
+// lock ni la escritura de System.out; si la cola está llena la línea se descarta y se
+// cuenta, nunca se bloquea. Con -Dvirgo.registro.asincrono=false se escribe en el
+// momento, como antes.
+//
+// Las líneas de detalle (una o más por mensaje: aprobado, rechazado, firma válida...,
+// y las de cada cliente que se conecta, se identifica o se va) se apagan con
+// -Dvirgo.registro.detalle=false; los moderadores, los eventos del servidor y los
+// errores se registran siempre.
+
+final class Registro {
+    private static final boolean ASINCRONO = Configuracion.booleano("virgo.registro.asincrono", true);
+    private static final boolean DETALLE = Configuracion.booleano("virgo.registro.detalle", true);
+    private static final BlockingQueue<Linea> COLA =
+            new ArrayBlockingQueue<>(Configuracion.entero("virgo.registro.cola", 8192));
+    private static final LongAdder DESCARTADAS = new LongAdder();
+
+    static {
+        if (ASINCRONO) {
+            Thread escritor = new Thread(Registro::escribirPendientes, "registro");
+            escritor.setDaemon(true);
+            escritor.start();
+        }
+    }
+
+    private Registro() {
+    }
+
+    static void info(String texto) {
+        registrar(new Linea(false, texto));
+    }
+
+    static void error(String texto) {
+        registrar(new Linea(true, texto));
+    }
+
+    // El texto solo se arma si el detalle está activo
+
+    static void detalle(Supplier<String> texto) {
+        if (DETALLE) {
+            registrar(new Linea(false, texto.get()));
+        }
+    }
+
+    static long getDescartadas() {
+        return DESCARTADAS.sum();
+    }
+
+    // Espera (un tiempo acotado) a que se escriba todo lo registrado hasta ahora; al
+    // apagar el proceso, porque el hilo escritor es daemon y no lo espera nadie
+
+    static void vaciar() {
+        if (!ASINCRONO) {
+            return;
+        }
+        Linea marca = new Linea(false, null);
+        try {
+            if (COLA.offer(marca, 1, TimeUnit.SECONDS)) {
+                marca.escrita.await(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void registrar(Linea linea) {
+        if (!ASINCRONO) {
+            (linea.error ? System.err : System.out).println(linea.texto);
+        } else if (!COLA.offer(linea)) {
+            DESCARTADAS.increment();
+        }
+    }
+
+    // Toma todas las líneas disponibles y las escribe con un solo flush por flujo
+
+    private static void escribirPendientes() {
+        List<Linea> lote = new ArrayList<>();
+        while (true) {
+            try {
+                lote.add(COLA.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            COLA.drainTo(lote);
+            escribir(lote);
+            lote.clear();
+        }
+    }
+
+    private static void escribir(List<Linea> lineas) {
+        for (Linea linea : lineas) {
+            if (linea.texto == null) {
+                System.out.flush();
+                System.err.flush();
+                linea.escrita.countDown();
+                continue;
+            }
+            PrintStream flujo = linea.error ? System.err : System.out;
+            flujo.println(linea.texto);
+        }
+        System.out.flush();
+        System.err.flush();
+    }
+
+    // Una línea sin texto es la marca de vaciar(): avisa cuando se escribió todo lo anterior
+
+    private static class Linea {
+        final boolean error;
+        final String texto;
+        final CountDownLatch escrita;
+
+        Linea(boolean error, String texto) {
+            this.error = error;
+            this.texto = texto;
+            this.escrita = texto == null ? new CountDownLatch(1) : null;
+        }
+    }
+}
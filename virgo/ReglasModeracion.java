@@ -0,0 +1,210 @@
+package virgo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+
+// Reglas automáticas que se aplican antes de mandar un mensaje al moderador humano:
+// lo obvio se rechaza o se aprueba en el servidor y solo lo dudoso llega al moderador.
+// Las reglas se leen de un archivo de texto, una por línea:
+//   # comentario
+//   rechazar: palabra o frase
+//   aprobar: palabra o frase
+//   rechazar-regex: expresión regular
+//   aprobar-regex: expresión regular
+// Un mensaje con alguna coincidencia de rechazo se rechaza; si no, uno con alguna
+// coincidencia de aprobación se aprueba (conviene que sean expresiones ancladas,
+// p. ej. ^(hola|gracias)[!. ]*$); el resto va al moderador.
+//
+// Las palabras de cada tipo se compilan en un AutomataPalabras y las regex de cada
+// tipo en un solo Pattern con alternativas, así cada mensaje se recorre una vez por
+// tipo sin importar cuántas reglas haya. El archivo se revisa periódicamente: si
+// cambió se recompila y las reglas nuevas reemplazan a las anteriores de una vez;
+// si tiene errores se siguen usando las anteriores.
+
+class ReglasModeracion {
+
+    enum Veredicto { APROBAR, RECHAZAR, MODERAR }
+
+    private final Path archivo;
+    private final ScheduledExecutorService revisor;
+    private final AtomicLong aprobados;
+    private final AtomicLong rechazados;
+    private final AtomicLong moderados;
+    private volatile Reglas reglas;
+    private FileTime ultimaModificacion;
+
+    ReglasModeracion(Path archivo) {
+        this.archivo = archivo;
+        this.revisor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "reglas-revisor");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        this.aprobados = new AtomicLong();
+        this.rechazados = new AtomicLong();
+        this.moderados = new AtomicLong();
+        this.reglas = Reglas.VACIAS;
+    }
+
+    // Carga el archivo (si existe) y empieza a revisarlo cada intervaloMillis
+
+    void iniciar(long intervaloMillis) {
+        revisar();
+        revisor.scheduleWithFixedDelay(this::revisar, intervaloMillis, intervaloMillis, TimeUnit.MILLISECONDS);
+    }
+
+    Veredicto evaluar(String texto) {
+        Veredicto veredicto = reglas.evaluar(texto);
+        switch (veredicto) {
+            case APROBAR -> aprobados.incrementAndGet();
+            case RECHAZAR -> rechazados.incrementAndGet();
+            default -> moderados.incrementAndGet();
+        }
+        return veredicto;
+    }
+
+    long getAprobados() {
+        return aprobados.get();
+    }
+
+    long getRechazados() {
+        return rechazados.get();
+    }
+
+    long getModerados() {
+        return moderados.get();
+    }
+
+    private void revisar() {
+        FileTime modificacion;
+        try {
+            modificacion = Files.getLastModifiedTime(archivo);
+        } catch (NoSuchFileException e) {
+            if (ultimaModificacion != null) {
+                Registro.info("Se borró " + archivo + ": sin reglas automáticas");
+                reglas = Reglas.VACIAS;
+                ultimaModificacion = null;
+            }
+            return;
+        } catch (IOException e) {
+            Registro.error("No se pudo revisar " + archivo + ": " + e.getMessage());
+            return;
+        }
+        if (modificacion.equals(ultimaModificacion)) {
+            return;
+        }
+        ultimaModificacion = modificacion;
+
+        try {
+            Reglas nuevas = Reglas.leer(Files.readAllLines(archivo, StandardCharsets.UTF_8));
+            reglas = nuevas;
+            Registro.info("Reglas cargadas de " + archivo + ": " + nuevas.cantidad + " reglas");
+        } catch (IOException | IllegalArgumentException e) {
+            Registro.error("Reglas de " + archivo + " inválidas, se siguen usando las anteriores: " + e.getMessage());
+        }
+    }
+
+    // Un juego de reglas compilado e inmutable
+
+    private static class Reglas {
+        static final Reglas VACIAS = new Reglas(new AutomataPalabras(List.of()), new AutomataPalabras(List.of()),
+                null, null, 0);
+
+        final AutomataPalabras palabrasRechazo;
+        final AutomataPalabras palabrasAprobacion;
+        final Pattern regexRechazo;
+        final Pattern regexAprobacion;
+        final int cantidad;
+
+        Reglas(AutomataPalabras palabrasRechazo, AutomataPalabras palabrasAprobacion,
+               Pattern regexRechazo, Pattern regexAprobacion, int cantidad) {
+            this.palabrasRechazo = palabrasRechazo;
+            this.palabrasAprobacion = palabrasAprobacion;
+            this.regexRechazo = regexRechazo;
+            this.regexAprobacion = regexAprobacion;
+            this.cantidad = cantidad;
+        }
+
+        Veredicto evaluar(String texto) {
+            if (palabrasRechazo.coincide(texto) || (regexRechazo != null && regexRechazo.matcher(texto).find())) {
+                return Veredicto.RECHAZAR;
+            }
+            if (palabrasAprobacion.coincide(texto) || (regexAprobacion != null && regexAprobacion.matcher(texto).find())) {
+                return Veredicto.APROBAR;
+            }
+            return Veredicto.MODERAR;
+        }
+
+        static Reglas leer(List<String> lineas) {
+            List<String> rechazo = new ArrayList<>();
+            List<String> aprobacion = new ArrayList<>();
+            List<String> regexRechazo = new ArrayList<>();
+            List<String> regexAprobacion = new ArrayList<>();
+
+            for (int i = 0; i < lineas.size(); i++) {
+                String linea = lineas.get(i).strip();
+                if (linea.isEmpty() || linea.startsWith("#")) {
+                    continue;
+                }
+                int separador = linea.indexOf(':');
+                if (separador < 0) {
+                    throw new IllegalArgumentException("línea " + (i + 1) + ": falta ':'");
+                }
+                String tipo = linea.substring(0, separador).strip().toLowerCase();
+                String valor = linea.substring(separador + 1).strip();
+                if (valor.isEmpty()) {
+                    throw new IllegalArgumentException("línea " + (i + 1) + ": regla vacía");
+                }
+                switch (tipo) {
+                    case "rechazar" -> rechazo.add(valor);
+                    case "aprobar" -> aprobacion.add(valor);
+                    case "rechazar-regex" -> regexRechazo.add(validarRegex(valor, i + 1));
+                    case "aprobar-regex" -> regexAprobacion.add(validarRegex(valor, i + 1));
+                    default -> throw new IllegalArgumentException("línea " + (i + 1) + ": tipo desconocido '" + tipo + "'");
+                }
+            }
+
+            return new Reglas(new AutomataPalabras(rechazo), new AutomataPalabras(aprobacion),
+                    unir(regexRechazo), unir(regexAprobacion),
+                    rechazo.size() + aprobacion.size() + regexRechazo.size() + regexAprobacion.size());
+        }
+
+        private static String validarRegex(String regex, int linea) {
+            try {
+                Pattern.compile(regex);
+                return regex;
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("línea " + linea + ": " + e.getDescription());
+            }
+        }
+
+        // Todas las regex de un tipo en un solo Pattern: (?:a)|(?:b)|...
+
+        private static Pattern unir(List<String> regex) {
+            if (regex.isEmpty()) {
+                return null;
+            }
+            StringBuilder alternativas = new StringBuilder();
+            for (String r : regex) {
+                if (alternativas.length() > 0) {
+                    alternativas.append('|');
+                }
+                alternativas.append("(?:").append(r).append(')');
+            }
+            return Pattern.compile(alternativas.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package virgo;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Cola de salida acotada de un cliente. Todo lo que el servidor le manda después
+// del handshake (respuestas de estado y mensajes aprobados de otros) pasa por aquí,
+// y una tarea la vacía de a una por cliente: escribe todo lo que haya y hace un
+// solo flush. Así un socket trabado solo frena su propia tarea.
+//
+// Los mensajes difundidos se cifran con el contexto de la sesión del cliente
+// (dirección servidor->cliente) en el momento de escribirlos, en el mismo orden en
+// que salen. Un cliente lento pierde difusiones cuando su cola está llena, y si
+// acumula demasiadas seguidas se lo desconecta.
+//
+// También lleva la cuenta de los mensajes del cliente que esperan decisión: cada uno
+// ocupa una reserva hasta que se le responde, y pasado virgo.cliente.maximoEnVuelo
+// los siguientes reciben OCUPADO.
+//
+// El tiempo de cada respuesta de estado, desde que se encola hasta el flush que la
+// manda, va a la etapa "respuesta" de Metricas.
+
+class SalidaCliente {
+    private static final LongAdder DESCARTES = Metricas.contador("difusion.descartadas");
+
+    private final DataOutputStream flujo;
+    private final ContextoCripto contexto;
+    private final Runnable alFallar;
+    private final BlockingQueue<Saliente> cola;
+    private final int maximoDescartes;
+    private final long plazoRespuestaMillis;
+    private final int maximoEnVuelo;
+    private final AtomicInteger enVuelo;
+    private int descartesSeguidos;
+    private long descartes;
+    // Instantes de encolado de las respuestas escritas desde el último flush (solo los
+    // usa la tarea de escritura, que es una a la vez)
+    private long[] encoladas;
+    private int escritas;
+    private boolean escribiendo;
+    private volatile boolean cerrada;
+
+    SalidaCliente(DataOutputStream flujo, ContextoCripto contexto, Runnable alFallar) {
+        this.flujo = flujo;
+        this.contexto = contexto;
+        this.alFallar = alFallar;
+        this.cola = new ArrayBlockingQueue<>(Configuracion.entero("virgo.difusion.cola", 256));
+        this.maximoDescartes = Configuracion.entero("virgo.difusion.maximoDescartes", 64);
+        this.plazoRespuestaMillis = Configuracion.enteroLargo("virgo.difusion.plazoRespuestaMs", 5000);
+        this.maximoEnVuelo = Configuracion.entero("virgo.cliente.maximoEnVuelo", 64);
+        this.enVuelo = new AtomicInteger();
+        this.encoladas = new long[16];
+    }
+
+    // Respuesta de estado al propio cliente sobre su mensaje id: espera lugar en la
+    // cola un tiempo acotado
+
+    void responder(byte estado, long id) throws IOException {
+        encolarRespuesta(new Saliente(estado, ByteBuffer.allocate(CodecTramas.BYTES_ID).putLong(id).array()));
+    }
+
+    // La moderación no tiene lugar: el cliente puede reintentar pasados esos milisegundos
+
+    void responderOcupado(long id, int reintentarMillis) throws IOException {
+        encolarRespuesta(new Saliente(CodecTramas.OCUPADO,
+                ByteBuffer.allocate(CodecTramas.BYTES_ID + Integer.BYTES).putLong(id).putInt(reintentarMillis).array()));
+    }
+
+    // Lugar para un mensaje más del cliente en moderación; false si ya tiene el máximo.
+    // Cada reserva se libera después de responder a ese mensaje
+
+    boolean reservar() {
+        if (enVuelo.incrementAndGet() > maximoEnVuelo) {
+            enVuelo.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    void liberar() {
+        enVuelo.decrementAndGet();
+    }
+
+    // Corta la conexión del cliente (p. ej. si no se le pudo responder)
+
+    void desconectar() {
+        if (!cerrada) {
+            alFallar.run();
+        }
+    }
+
+    private void encolarRespuesta(Saliente saliente) throws IOException {
+        boolean encolada;
+        try {
+            encolada = cola.offer(saliente, plazoRespuestaMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrumpido esperando la cola de salida");
+        }
+        if (!encolada) {
+            throw new IOException("cola de salida llena");
+        }
+        programar();
+    }
+
+    // Mensaje aprobado de otro cliente; nunca bloquea al que difunde
+
+    void difundir(Mensaje mensaje) {
+        if (cerrada) {
+            return;
+        }
+        boolean desconectar = false;
+        if (cola.offer(new Saliente(CodecTramas.DIFUSION, mensaje.getTextoUTF8()))) {
+            synchronized (this) {
+                descartesSeguidos = 0;
+            }
+        } else {
+            DESCARTES.increment();
+            synchronized (this) {
+                descartes++;
+                desconectar = ++descartesSeguidos >= maximoDescartes;
+            }
+        }
+        if (desconectar) {
+            Registro.info("Cliente lento: " + maximoDescartes + " difusiones descartadas seguidas, se desconecta");
+            alFallar.run();
+        } else {
+            programar();
+        }
+    }
+
+    synchronized long getDescartes() {
+        return descartes;
+    }
+
+    void cerrar() {
+        cerrada = true;
+        cola.clear();
+    }
+
+    private void programar() {
+        synchronized (this) {
+            if (escribiendo || cola.isEmpty()) {
+                return;
+            }
+            escribiendo = true;
+        }
+        Hilos.ejecutar(this::escribirPendientes);
+    }
+
+    private void escribirPendientes() {
+        try {
+            while (true) {
+                Saliente saliente;
+                while ((saliente = cola.poll()) != null && !cerrada) {
+                    escribir(saliente);
+                }
+                flujo.flush();
+                registrarEscritas();
+                synchronized (this) {
+                    if (cola.isEmpty() || cerrada) {
+                        escribiendo = false;
+                        return;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                escribiendo = false;
+            }
+            if (!cerrada) {
+                alFallar.run();
+            }
+        }
+    }
+
+    private void escribir(Saliente saliente) throws Exception {
+        // Solo el texto de las difusiones va cifrado; los datos de estado viajan tal cual
+        byte[] datos = saliente.codigo == CodecTramas.DIFUSION ? contexto.cifrar(saliente.datos) : saliente.datos;
+        flujo.writeInt(1 + datos.length);
+        flujo.writeByte(saliente.codigo);
+        flujo.write(datos);
+        if (saliente.encolada != 0) {
+            if (escritas == encoladas.length) {
+                encoladas = Arrays.copyOf(encoladas, escritas * 2);
+            }
+            encoladas[escritas++] = saliente.encolada;
+        }
+    }
+
+    private void registrarEscritas() {
+        long ahora = System.nanoTime();
+        for (int i = 0; i < escritas; i++) {
+            Metricas.RESPUESTA.registrar(ahora - encoladas[i]);
+        }
+        escritas = 0;
+    }
+
+    private static class Saliente {
+        final byte codigo;
+        final byte[] datos;
+        // System.nanoTime() al encolar una respuesta de estado; 0 en las difusiones
+        final long encolada;
+
+        Saliente(byte codigo, byte[] datos) {
+            this.codigo = codigo;
+            this.datos = datos;
+            this.encolada = codigo == CodecTramas.DIFUSION ? 0 : System.nanoTime();
+        }
+    }
+}
@@ -4,50 +4,200 @@ import javax.crypto.*;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.*;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 
 public class Servidor {
+    // Respuestas a los mensajes de los clientes, según la decisión
+    private static final LongAdder APROBADOS = Metricas.contador("decisiones.aprobadas");
+    private static final LongAdder RECHAZADOS = Metricas.contador("decisiones.rechazadas");
+    private static final LongAdder OCUPADOS = Metricas.contador("decisiones.ocupadas");
+
+    private ServerSocketChannel canalClientes;
     private ServerSocket serverSocketClientes;
     private ServerSocket serverSocketModerador;
-    private Socket moderadorSocket;
-    private ArrayList<Socket> clientes;
-    private final Object lockModerador;
-    private Map<Socket, String> nombresClientes;
-    private Map<Socket, PublicKey> clavesPublicasClientes;
-    private DataOutputStream salidaModerador;
-    private DataInputStream entradaModerador;
+    private final SesionesClientes sesiones;
     private PublicKey clavePublicaServidor;
     private PrivateKey clavePrivadaServidor;
-    private Map<Socket, SecretKey> clavesAESClientes;
-    private SecretKey claveAESModerador;
-    private PublicKey clavePublicaModerador;
-
-    public Servidor(int puertoModerador, int puertoClientes) throws IOException {
+    private KeyPair claveX25519Servidor;
+    private final PoolModeradores poolModeradores;
+    private final DiarioPendientes diarioPendientes;
+    private final AuditoriaModeracion auditoria;
+    private final EtapaHandshake etapaHandshake;
+    private final boolean permitirGCM;
+    private final boolean permitirCompresion;
+    private final TicketsSesion ticketsSesion;
+    private final ReglasModeracion reglasModeracion;
+    private final CacheDecisiones cacheDecisiones;
+    private final IndiceSimilares indiceSimilares;
+    private final boolean aplicarAprobacionesSimilares;
+    private final String decisionPorDefecto;
+    private final int reintentarMillis;
+
+    public Servidor(int puertoModerador, int puertoClientes) throws IOException, GeneralSecurityException {
         this.serverSocketModerador = new ServerSocket(puertoModerador);
-        this.serverSocketClientes = new ServerSocket(puertoClientes);
-        this.clientes = new ArrayList<>();
-        this.lockModerador = new Object();
-        this.nombresClientes = new HashMap<>();
-        this.clavesAESClientes = new HashMap<>();
-        this.clavesPublicasClientes = new HashMap<>();
+        // El ServerSocket de clientes sale de un canal para que sirva a los dos motores
+        this.canalClientes = ServerSocketChannel.open();
+        this.canalClientes.bind(new InetSocketAddress(puertoClientes));
+        this.serverSocketClientes = canalClientes.socket();
+        this.sesiones = new SesionesClientes();
+        this.permitirGCM = Configuracion.booleano("virgo.gcm", true);
+        this.permitirCompresion = Configuracion.booleano("virgo.compresion", false);
+        this.ticketsSesion = new TicketsSesion(Configuracion.enteroLargo("virgo.ticket.vigenciaMs", 10 * 60 * 1000),
+                Configuracion.entero("virgo.ticket.maximoUsados", 100000));
+        this.reglasModeracion = new ReglasModeracion(Path.of(Configuracion.texto("virgo.reglas", "reglas.txt")));
+        this.cacheDecisiones = new CacheDecisiones(Configuracion.entero("virgo.cache.entradas", 10000),
+                Configuracion.enteroLargo("virgo.cache.vigenciaMs", 10 * 60 * 1000));
+        this.indiceSimilares = new IndiceSimilares(Configuracion.entero("virgo.similares.porcentaje", 70),
+                Configuracion.entero("virgo.similares.entradas", 50000),
+                Configuracion.enteroLargo("virgo.similares.vigenciaMs", 10 * 60 * 1000));
+        this.aplicarAprobacionesSimilares = Configuracion.booleano("virgo.similares.aplicarAprobaciones", false);
+        this.diarioPendientes = Configuracion.booleano("virgo.diario", true)
+                ? new DiarioPendientes(Path.of(Configuracion.texto("virgo.diario.archivo", "pendientes.diario")),
+                        Configuracion.enteroLargo("virgo.diario.maximoBytes", 16 * 1024 * 1024))
+                : null;
+        this.auditoria = Configuracion.booleano("virgo.auditoria", true)
+                ? new AuditoriaModeracion(Path.of(Configuracion.texto("virgo.auditoria.directorio", "auditoria")),
+                        Configuracion.entero("virgo.auditoria.segmentoBytes", 64 * 1024 * 1024),
+                        Configuracion.entero("virgo.auditoria.cola", 65536),
+                        Configuracion.entero("virgo.auditoria.maximoSegmentos", 32),
+                        TimeUnit.DAYS.toMillis(Configuracion.entero("virgo.auditoria.retencionDias", 30)))
+                : null;
+        this.poolModeradores = new PoolModeradores(Configuracion.entero("virgo.moderador.maximoPendientes", 128),
+                Configuracion.entero("virgo.moderacion.maximoEnCurso", 1024),
+                Configuracion.enteroLargo("virgo.moderacion.plazoMs", 30000), diarioPendientes);
+        this.decisionPorDefecto = decisionValida(Configuracion.texto("virgo.moderacion.porDefecto", "RECHAZADO"));
+        this.reintentarMillis = Configuracion.entero("virgo.moderacion.reintentarMs", 2000);
+        this.etapaHandshake = new EtapaHandshake(
+                Configuracion.entero("virgo.handshake.trabajadores", Runtime.getRuntime().availableProcessors() * 2),
+                Configuracion.entero("virgo.handshake.cola", 1024),
+                Configuracion.enteroLargo("virgo.handshake.plazoMs", 5000),
+                sesiones::desconectar);
+
+        Registro.info("Servidor iniciado");
+        Registro.info("Puerto moderador: " + puertoModerador);
+        Registro.info("Puerto clientes: " + puertoClientes);
+    }
 
-        System.out.println("Servidor iniciado");
-        System.out.println("Puerto moderador: " + puertoModerador);
-        System.out.println("Puerto clientes: " + puertoClientes);
+    // Decisión que se aplica cuando vence el plazo de moderación: solo APROBADO o RECHAZADO
+
+    private static String decisionValida(String decision) {
+        String normalizada = decision.strip().toUpperCase();
+        if (!normalizada.equals("APROBADO") && !normalizada.equals("RECHAZADO")) {
+            throw new IllegalArgumentException("virgo.moderacion.porDefecto debe ser APROBADO o RECHAZADO: " + decision);
+        }
+        return normalizada;
     }
 
-    // Genera el par de claves pública y privada RSA para el servidor
+    // Carga las claves RSA y X25519 del servidor del archivo de identidad
+    // (las genera y las guarda la primera vez)
      
-    public void generarClavesRSA() throws NoSuchAlgorithmException {
-        KeyPairGenerator generador = KeyPairGenerator.getInstance("RSA");
-        generador.initialize(2048);
-        KeyPair parClaves = generador.generateKeyPair();
-        this.clavePublicaServidor = parClaves.getPublic();
-        this.clavePrivadaServidor = parClaves.getPrivate();
-        System.out.println("Claves del servidor generadas");
+    public void cargarClaves(String archivoIdentidad) throws Exception {
+        IdentidadServidor identidad = IdentidadServidor.cargarOGenerar(Path.of(archivoIdentidad));
+        this.clavePublicaServidor = identidad.getClaveRSA().getPublic();
+        this.clavePrivadaServidor = identidad.getClaveRSA().getPrivate();
+        this.claveX25519Servidor = identidad.getClaveX25519();
+    }
+
+    // Carga las reglas automáticas de moderación y las vuelve a cargar cuando cambia el archivo
+
+    public void iniciarReglasAutomaticas() {
+        reglasModeracion.iniciar(Configuracion.enteroLargo("virgo.reglas.revisionMs", 2000));
+    }
+
+    // Abre el registro de auditoría de las decisiones de moderación
+
+    public void iniciarAuditoria() throws IOException {
+        if (auditoria != null) {
+            auditoria.iniciar();
+        }
+    }
+
+    // Abre el diario de pendientes y vuelve a moderar los mensajes que la ejecución
+    // anterior dejó sin decisión, en orden de llegada. Ya pasaron por las reglas y la
+    // caché, así que van directo al pool con su id de entonces; siguen en el diario hasta
+    // que un moderador los decide, aunque el servidor se vuelva a reiniciar antes. Sus
+    // autores ya no esperan respuesta: si se aprueban se difunden a todos los conectados
+
+    public void recuperarPendientes() throws IOException {
+        if (diarioPendientes == null) {
+            return;
+        }
+        SortedMap<Long, Mensaje> recuperados = diarioPendientes.iniciar();
+        if (recuperados.isEmpty()) {
+            return;
+        }
+        Registro.info("Diario: " + recuperados.size() + " mensajes sin decisión de la ejecución anterior vuelven a moderarse");
+        poolModeradores.continuarIdsDesde(recuperados.lastKey());
+        for (Map.Entry<Long, Mensaje> recuperado : recuperados.entrySet()) {
+            Mensaje mensaje = recuperado.getValue();
+            long recibido = System.currentTimeMillis();
+            long inicio = System.nanoTime();
+            poolModeradores.recuperar(recuperado.getKey(), mensaje).thenAccept(decision -> {
+                auditar(mensaje, decision, recibido, inicio);
+                if ("APROBADO".equalsIgnoreCase(decision)) {
+                    Registro.detalle(() -> "✅ (recuperado) " + mensaje);
+                    difundir(null, mensaje);
+                } else {
+                    Registro.detalle(() -> "Mensaje recuperado " + decision.toLowerCase() + ": " + mensaje);
+                }
+            });
+        }
+    }
+
+    // Publica las métricas por etapa junto con los contadores de cada componente
+
+    public void publicarMetricas() throws Exception {
+        Metricas.indicador("clientes.conectados", sesiones::getConectadas);
+        Metricas.indicador("handshake.completados", etapaHandshake::getCompletados);
+        Metricas.indicador("handshake.rechazados", etapaHandshake::getRechazados);
+        Metricas.indicador("handshake.vencidos", etapaHandshake::getVencidos);
+        Metricas.indicador("tickets.usados", ticketsSesion::getUsados);
+        Metricas.indicador("reglas.aprobados", reglasModeracion::getAprobados);
+        Metricas.indicador("reglas.rechazados", reglasModeracion::getRechazados);
+        Metricas.indicador("reglas.alModerador", reglasModeracion::getModerados);
+        Metricas.indicador("cache.aciertos", cacheDecisiones::getAciertos);
+        Metricas.indicador("cache.fallos", cacheDecisiones::getFallos);
+        Metricas.indicador("cache.entradas", cacheDecisiones::getTamaño);
+        Metricas.indicador("similares.consultas", indiceSimilares::getConsultas);
+        Metricas.indicador("similares.parecidos", indiceSimilares::getParecidos);
+        Metricas.indicador("similares.entradas", indiceSimilares::getTamaño);
+        Metricas.indicador("moderacion.moderadores", poolModeradores::getConectados);
+        Metricas.indicador("moderacion.enCola", poolModeradores::getEnCola);
+        Metricas.indicador("moderacion.enCurso", poolModeradores::getEnCurso);
+        Metricas.indicador("moderacion.ocupados", poolModeradores::getOcupados);
+        Metricas.indicador("moderacion.vencidos", poolModeradores::getVencidos);
+        Metricas.indicador("moderacion.reintentados", poolModeradores::getReintentados);
+        if (diarioPendientes != null) {
+            Metricas.indicador("diario.vigentes", diarioPendientes::getVigentes);
+            Metricas.indicador("diario.registros", diarioPendientes::getRegistros);
+            Metricas.indicador("diario.sincronizaciones", diarioPendientes::getSincronizaciones);
+            Metricas.indicador("diario.errores", diarioPendientes::getErrores);
+            Metricas.indicador("diario.degradado", () -> diarioPendientes.estaDegradado() ? 1 : 0);
+        }
+        if (auditoria != null) {
+            Metricas.indicador("auditoria.registrados", auditoria::getRegistrados);
+            Metricas.indicador("auditoria.descartados", auditoria::getDescartados);
+            Metricas.indicador("auditoria.errores", auditoria::getErrores);
+            Metricas.indicador("auditoria.segmentos", auditoria::getSegmentos);
+            Metricas.indicador("auditoria.borrados", auditoria::getBorrados);
+        }
+        Metricas.indicador("registro.descartadas", Registro::getDescartadas);
+        Metricas.publicar();
     }
 
     // Convierte la clave pública del servidor a bytes
@@ -56,29 +206,56 @@ public class Servidor {
         return clavePublicaServidor.getEncoded();
     }
 
-    // Espera la conexión del moderador y establece la clave AES compartida
-     
-    public void esperarConexionModerador() throws Exception {
-        System.out.println("Esperando conexión del moderador...");
-        moderadorSocket = serverSocketModerador.accept();
-        System.out.println("Moderador conectado desde: " + moderadorSocket.getInetAddress());
+    // Inicia el hilo que acepta moderadores. Puede haber cualquier cantidad conectados;
+    // cada uno establece su propia clave AES y se suma al pool al terminar el handshake
+
+    public void esperarConexionesModeradores() {
+        poolModeradores.iniciar();
+        Hilos.iniciarBucle("aceptador-moderadores", () -> {
+            Registro.info("Esperando conexión de moderadores...");
+            while (!serverSocketModerador.isClosed()) {
+                try {
+                    Socket moderadorSocket = serverSocketModerador.accept();
+                    Registro.info("Moderador conectado desde: " + moderadorSocket.getInetAddress());
+                    Hilos.ejecutar(() -> procesarNuevoModerador(moderadorSocket));
+                } catch (IOException e) {
+                    Registro.error("Error al aceptar moderador: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Establece la clave AES compartida con un moderador y lo agrega al pool
+
+    private void procesarNuevoModerador(Socket moderadorSocket) {
+        try {
+            moderadorSocket.setTcpNoDelay(true);
+            DataOutputStream salidaModerador = new DataOutputStream(new BufferedOutputStream(moderadorSocket.getOutputStream()));
+            DataInputStream entradaModerador = new DataInputStream(moderadorSocket.getInputStream());
 
-        salidaModerador = new DataOutputStream(moderadorSocket.getOutputStream());
-        entradaModerador = new DataInputStream(moderadorSocket.getInputStream());
+            // Enviar clave pública al moderador
+            enviarClavePublicaAlModerador(salidaModerador);
 
-        // Enviar clave pública al moderador
-        enviarClavePublicaAlModerador();
+            // Recibir clave pública del moderador
+            recibirClavePublicaDelModerador(entradaModerador);
 
-        // Recibir clave pública del moderador
-        recibirClavePublicaDelModerador();
+            // Recibir y descifrar la clave AES del moderador
+            SecretKey claveAESModerador = recibirYDescifrarClaveAESDelModerador(entradaModerador);
 
-        // Recibir y descifrar la clave AES del moderador
-        recibirYDescifrarClaveAESDelModerador();
+            // A partir de aquí los mensajes viajan en lotes multiplexados por id
+            CanalModerador canal = new CanalModerador(moderadorSocket, entradaModerador, salidaModerador,
+                    claveAESModerador, poolModeradores);
+            canal.iniciar();
+            poolModeradores.agregar(canal);
+        } catch (Exception e) {
+            Registro.error("Error en el handshake con el moderador: " + e.getMessage());
+            try { moderadorSocket.close(); } catch (Exception ignored) {}
+        }
     }
 
     // Envía la clave pública RSA al moderador (en bytes)
      
-    private void enviarClavePublicaAlModerador() throws IOException {
+    private void enviarClavePublicaAlModerador(DataOutputStream salidaModerador) throws IOException {
         byte[] clavePublicaBytes = obtenerClavePublica();
         salidaModerador.writeInt(clavePublicaBytes.length);
         salidaModerador.write(clavePublicaBytes);
@@ -87,289 +264,476 @@ public class Servidor {
 
     // Recibe la clave pública del moderador
      
-    private void recibirClavePublicaDelModerador() throws Exception {
-        int tamaño = entradaModerador.readInt();
-        byte[] clavePublicaBytes = new byte[tamaño];
-        entradaModerador.readFully(clavePublicaBytes);
+    private PublicKey recibirClavePublicaDelModerador(DataInputStream entradaModerador) throws Exception {
+        byte[] clavePublicaBytes = CodecTramas.leerTrama(entradaModerador, CodecTramas.MAXIMO_CONTROL);
 
         KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-        clavePublicaModerador = keyFactory.generatePublic(new X509EncodedKeySpec(clavePublicaBytes));
+        return keyFactory.generatePublic(new X509EncodedKeySpec(clavePublicaBytes));
     }
 
     
      // Recibe la clave AES cifrada del moderador y la descifra con la clave privada RSA
      
-    private void recibirYDescifrarClaveAESDelModerador() throws Exception {
-        int tamaño = entradaModerador.readInt();
-        byte[] claveAESCifrada = new byte[tamaño];
-        entradaModerador.readFully(claveAESCifrada);
+    private SecretKey recibirYDescifrarClaveAESDelModerador(DataInputStream entradaModerador) throws Exception {
+        byte[] claveAESCifrada = CodecTramas.leerTrama(entradaModerador, CodecTramas.MAXIMO_CONTROL);
 
+        return descifrarClaveAES(clavePrivadaServidor, claveAESCifrada);
+    }
+
+    // Descifra con la clave privada RSA del servidor una clave AES que mandó el otro extremo
+
+    static SecretKey descifrarClaveAES(PrivateKey clavePrivada, byte[] claveAESCifrada) throws GeneralSecurityException {
         Cipher cifradorRSA = Cipher.getInstance("RSA");
-        cifradorRSA.init(Cipher.DECRYPT_MODE, clavePrivadaServidor);
+        cifradorRSA.init(Cipher.DECRYPT_MODE, clavePrivada);
         byte[] claveAESBytes = cifradorRSA.doFinal(claveAESCifrada);
 
-        claveAESModerador = new SecretKeySpec(claveAESBytes, 0, claveAESBytes.length, "AES");
-        
+        return new SecretKeySpec(claveAESBytes, 0, claveAESBytes.length, "AES");
     }
 
     // Inicia el hilo que espera conexiones de múltiples clientes
 
     public void esperarConexionesClientes() {
-        new Thread(() -> {
-            System.out.println(" Esperando clientes...");
-            while (true) {
+        Hilos.iniciarBucle("aceptador-clientes", () -> {
+            Registro.info(" Esperando clientes...");
+            while (!serverSocketClientes.isClosed()) {
                 try {
-                    Socket cliente = serverSocketClientes.accept();
-                    clientes.add(cliente);
-                    System.out.println("Cliente conectado desde: " + cliente.getInetAddress());
-
-                    procesarNuevoCliente(cliente);
-                } catch (Exception e) {
-                    System.err.println("Error al procesar cliente: " + e.getMessage());
-                    e.printStackTrace();
+                    SesionCliente sesion = registrarConexion(serverSocketClientes.accept());
+
+                    // El intercambio de claves se hace fuera de este hilo
+                    etapaHandshake.admitir(sesion, this::procesarNuevoCliente);
+                } catch (IOException e) {
+                    Registro.error("Error al aceptar cliente: " + e.getMessage());
                 }
             }
-        }).start();
+        });
+    }
+
+    // Inicia el motor NIO: pocos bucles de eventos atienden a todos los clientes
+
+    public void esperarConexionesClientesNIO(int numeroBucles, int numeroTrabajadores) throws IOException {
+        new MotorNIO(this, canalClientes, etapaHandshake, numeroBucles, numeroTrabajadores).iniciar();
+    }
+
+    // Abre la sesión de un socket recién aceptado. Se le desactiva Nagle: lo que se le
+    // escribe ya se junta en un buffer y sale en cada flush, y así no espera el ACK de lo anterior
+
+    SesionCliente registrarConexion(Socket cliente) {
+        try {
+            cliente.setTcpNoDelay(true);
+        } catch (SocketException e) {
+            Registro.error("No se pudo desactivar Nagle: " + e.getMessage());
+        }
+        SesionCliente sesion = sesiones.abrir(cliente);
+        Registro.detalle(() -> "Cliente #" + sesion.getId() + " conectado desde: " + cliente.getInetAddress());
+        return sesion;
     }
 
     // Procesa la conexión de un nuevo cliente ( intercambio de claves y nombre )
+    // y devuelve el arranque del hilo que manejará sus mensajes
 
-    private void procesarNuevoCliente(Socket cliente) throws Exception {
+    private Runnable procesarNuevoCliente(SesionCliente sesion) throws Exception {
+        Socket cliente = sesion.getSocket();
         DataInputStream entrada = new DataInputStream(cliente.getInputStream());
-        DataOutputStream salida = new DataOutputStream(cliente.getOutputStream());
+        DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(cliente.getOutputStream()));
 
-        // Enviar clave pública del servidor al cliente
+        realizarHandshakeCliente(sesion, entrada, salida);
+
+        return () -> {
+            registrarSalida(sesion, salida, () -> eliminarCliente(sesion));
+            iniciarHiloParaManejarMensajesDelCliente(sesion, entrada);
+        };
+    }
+
+    // Crea la cola de salida de un cliente ya identificado; alFallar lo desconecta
+
+    SalidaCliente registrarSalida(SesionCliente sesion, DataOutputStream salida, Runnable alFallar) {
+        SalidaCliente salidaCliente = new SalidaCliente(salida, sesion.getContexto(), alFallar);
+        sesion.setSalida(salidaCliente);
+        return salidaCliente;
+    }
+
+    // Intercambio de claves y nombre; al terminar la sesión queda identificada
+
+    void realizarHandshakeCliente(SesionCliente sesion, DataInputStream entrada, DataOutputStream salida) throws Exception {
+        // Enviar claves públicas del servidor al cliente (RSA y X25519 estática)
         enviarClavePublicaAlCliente(salida);
 
-        // Recibir la clave pública del cliente
-        PublicKey clavePublicaCliente = recibirClavePublicaDelCliente(entrada);
-        clavesPublicasClientes.put(cliente, clavePublicaCliente);
+        // El cliente elige cómo acordar la clave AES
+        int intercambio = entrada.readInt();
+
+        // Con un ticket válido la sesión se reanuda en un solo ida y vuelta
+        if (intercambio == IntercambioX25519.REANUDAR) {
+            if (reanudarSesionDelCliente(sesion, entrada, salida)) {
+                return;
+            }
+            // Ticket inválido o vencido: el cliente sigue con un handshake completo
+            intercambio = entrada.readInt();
+        }
+
+        PublicKey clavePublicaCliente;
+        SecretKey claveAESCliente;
+        if (intercambio == IntercambioX25519.X25519) {
+            claveAESCliente = acordarClaveX25519ConElCliente(entrada, salida);
+
+            // La clave RSA del cliente solo viene si piensa firmar sus mensajes
+            clavePublicaCliente = recibirClavePublicaDelCliente(entrada);
+        } else {
+            // Recibir la clave pública del cliente
+            clavePublicaCliente = recibirClavePublicaDelCliente(entrada);
 
-        // Recibir y descifrar la clave AES del cliente
-        SecretKey claveAESCliente = recibirYDescifrarClaveAESDelCliente(entrada);
-        clavesAESClientes.put(cliente, claveAESCliente);
+            // Recibir y descifrar la clave AES del cliente
+            claveAESCliente = recibirYDescifrarClaveAESDelCliente(entrada);
+        }
+
+        // Negociar el modo de la sesión (AES-GCM y/o firma RSA por mensaje)
+        int opciones = OpcionesSesion.negociar(entrada.readInt(), permitirGCM, permitirCompresion,
+                clavePublicaCliente != null);
+        salida.writeInt(opciones);
+        salida.flush();
+        if (opciones == 0) {
+            throw new IOException("sesión sin GCM ni firma: no hay forma de verificar los mensajes");
+        }
+
+        // Cifradores y verificador de la sesión, inicializados una sola vez
+        ContextoCripto contexto = ContextoCripto.sesion(claveAESCliente, opciones, true, clavePublicaCliente, null);
 
         // Recibir el nombre del cliente
-        int tamañoNombre = entrada.readInt();
-        byte[] nombreBytes = new byte[tamañoNombre];
-        entrada.readFully(nombreBytes);
-        String nombreCliente = new String(nombreBytes);
+        byte[] nombreBytes = CodecTramas.leerTrama(entrada, CodecTramas.MAXIMO_CONTROL);
+        String nombreCliente = new String(nombreBytes, StandardCharsets.UTF_8);
 
-        nombresClientes.put(cliente, nombreCliente);
-        System.out.println(" Cliente identificado como: " + nombreCliente);
+        identificar(sesion, nombreCliente, contexto);
+        Registro.detalle(() -> " Cliente identificado como: " + nombreCliente + " (" + OpcionesSesion.describir(opciones) + ")");
 
-        // Iniciar hilo para manejar mensajes de este cliente
-        iniciarHiloParaManejarMensajesDelCliente(cliente, entrada, salida, nombreCliente);
+        // Ticket para que pueda reanudar la sesión si se reconecta
+        enviarTicketAlCliente(salida, new TicketsSesion.Datos(claveAESCliente, opciones, nombreCliente,
+                clavePublicaCliente != null ? clavePublicaCliente.getEncoded() : new byte[0]));
     }
 
-    // envia la clave publica
+    // Registra el nombre y el contexto de la sesión; avisa si el nombre ya tenía otra
+
+    private void identificar(SesionCliente sesion, String nombreCliente, ContextoCripto contexto) {
+        SesionCliente anterior = sesiones.identificar(sesion, nombreCliente, contexto);
+        if (anterior != null) {
+            Registro.info(" El nombre " + nombreCliente + " ya estaba en uso por la sesión #" + anterior.getId());
+        }
+    }
+
+    // Reanuda una sesión a partir de un ticket: deriva una clave nueva de la anterior
+    // con los nonces de ambos lados. Devuelve false si el ticket no sirve
+
+    private boolean reanudarSesionDelCliente(SesionCliente sesion, DataInputStream entrada, DataOutputStream salida) throws Exception {
+        byte[] ticket = CodecTramas.leerTrama(entrada, CodecTramas.MAXIMO_CONTROL);
+        byte[] nonceCliente = CodecTramas.leerTrama(entrada, CodecTramas.MAXIMO_CONTROL);
+
+        TicketsSesion.Datos datos = ticketsSesion.abrir(ticket);
+        if (datos == null) {
+            salida.writeInt(0);
+            salida.flush();
+            return false;
+        }
+
+        byte[] nonceServidor = ticketsSesion.nuevoNonce();
+        salida.writeInt(1);
+        CodecTramas.escribirTrama(salida, nonceServidor);
+
+        SecretKey claveAESCliente = TicketsSesion.derivarClave(datos.getClave(), nonceCliente, nonceServidor);
+        byte[] clavePublicaBytes = datos.getClavePublicaCliente();
+        PublicKey clavePublicaCliente = clavePublicaBytes.length == 0 ? null
+                : KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(clavePublicaBytes));
+        String nombreCliente = datos.getNombre();
+        identificar(sesion, nombreCliente, ContextoCripto.sesion(claveAESCliente, datos.getOpciones(), true,
+                clavePublicaCliente, null));
+        Registro.detalle(() -> " Cliente reanudó su sesión: " + nombreCliente + " (" + OpcionesSesion.describir(datos.getOpciones()) + ")");
+
+        enviarTicketAlCliente(salida, new TicketsSesion.Datos(claveAESCliente, datos.getOpciones(), nombreCliente,
+                clavePublicaBytes));
+        return true;
+    }
+
+    private void enviarTicketAlCliente(DataOutputStream salida, TicketsSesion.Datos datos) throws Exception {
+        CodecTramas.escribirTrama(salida, ticketsSesion.emitir(datos));
+        salida.flush();
+    }
+
+    // envia las claves publicas (RSA y X25519)
     private void enviarClavePublicaAlCliente(DataOutputStream salida) throws IOException {
-        byte[] clavePublicaBytes = obtenerClavePublica();
-        salida.writeInt(clavePublicaBytes.length);
-        salida.write(clavePublicaBytes);
+        CodecTramas.escribirTrama(salida, obtenerClavePublica());
+        CodecTramas.escribirTrama(salida, claveX25519Servidor.getPublic().getEncoded());
         salida.flush();
     }
 
-    // recibe la clave publica del cliente
+    // recibe la clave publica del cliente (null si no envió ninguna)
     private PublicKey recibirClavePublicaDelCliente(DataInputStream entrada) throws Exception {
-        int tamaño = entrada.readInt();
-        byte[] clavePublicaBytes = new byte[tamaño];
-        entrada.readFully(clavePublicaBytes);
+        byte[] clavePublicaBytes = CodecTramas.leerTrama(entrada, CodecTramas.MAXIMO_CONTROL);
+        if (clavePublicaBytes.length == 0) {
+            return null;
+        }
 
         KeyFactory keyFactory = KeyFactory.getInstance("RSA");
         return keyFactory.generatePublic(new X509EncodedKeySpec(clavePublicaBytes));
     }
 
 
+    // acuerdo X25519: recibe la efímera del cliente, responde con una efímera propia
+    // y deriva la clave AES sin ninguna operación RSA
+    private SecretKey acordarClaveX25519ConElCliente(DataInputStream entrada, DataOutputStream salida) throws Exception {
+        byte[] efimeraClienteBytes = CodecTramas.leerTrama(entrada, CodecTramas.MAXIMO_CONTROL);
+        PublicKey efimeraCliente = IntercambioX25519.decodificar(efimeraClienteBytes);
+
+        KeyPair efimeraServidor = IntercambioX25519.generarPar();
+        CodecTramas.escribirTrama(salida, efimeraServidor.getPublic().getEncoded());
+        salida.flush();
+
+        byte[] secretoEstatico = IntercambioX25519.acordar(claveX25519Servidor.getPrivate(), efimeraCliente);
+        byte[] secretoEfimero = IntercambioX25519.acordar(efimeraServidor.getPrivate(), efimeraCliente);
+        return IntercambioX25519.derivarClaveAES(secretoEstatico, secretoEfimero,
+                efimeraCliente, efimeraServidor.getPublic());
+    }
+
     // recibe la clave y la descifra
     private SecretKey recibirYDescifrarClaveAESDelCliente(DataInputStream entrada) throws Exception {
-        int tamaño = entrada.readInt();
-        byte[] claveAESCifrada = new byte[tamaño];
-        entrada.readFully(claveAESCifrada);
-
-        Cipher cifradorRSA = Cipher.getInstance("RSA");
-        cifradorRSA.init(Cipher.DECRYPT_MODE, clavePrivadaServidor);
-        byte[] claveAESBytes = cifradorRSA.doFinal(claveAESCifrada);
+        byte[] claveAESCifrada = CodecTramas.leerTrama(entrada, CodecTramas.MAXIMO_CONTROL);
 
-        return new SecretKeySpec(claveAESBytes, 0, claveAESBytes.length, "AES");
+        return descifrarClaveAES(clavePrivadaServidor, claveAESCifrada);
     }
 
     // Hilo para manejar los mensajes de un cliente
 
-    private void iniciarHiloParaManejarMensajesDelCliente(Socket cliente, DataInputStream entrada,
-                                                          DataOutputStream salida, String nombreCliente) {
-        new Thread(() -> {
+    private void iniciarHiloParaManejarMensajesDelCliente(SesionCliente sesion, DataInputStream entrada) {
+        Socket cliente = sesion.getSocket();
+        // Los sockets aceptados por el canal de clientes tienen su SocketChannel: los
+        // paquetes se leen por él directo a los buffers del pool
+        ReadableByteChannel canal = cliente.getChannel() != null ? cliente.getChannel() : Channels.newChannel(entrada);
+        Hilos.ejecutar(() -> {
             try {
                 while (true) {
                     // Recibir el paquete (mensaje cifrado + firma)
-                    Paquete paquete = recibirPaquete(entrada);
+                    Paquete paquete = CodecTramas.leerPaquete(canal);
 
-                    procesarPaqueteDelCliente(cliente, paquete, salida, nombreCliente);
+                    procesarPaqueteDelCliente(sesion, paquete);
                 }
             } catch (Exception e) {
-                System.out.println("Cliente " + nombreCliente + " se desconectó.");
-                eliminarCliente(cliente);
+                eliminarCliente(sesion);
             }
-        }).start();
+        });
     }
 
-    // Recibe el paquete
-
-    private Paquete recibirPaquete(DataInputStream entrada) throws IOException {
-        // Recibir mensaje cifrado
-        int tamañoMensaje = entrada.readInt();
-        byte[] mensajeCifrado = new byte[tamañoMensaje];
-        entrada.readFully(mensajeCifrado);
-
-        // Recibir firma
-        int tamañoFirma = entrada.readInt();
-        byte[] firma = new byte[tamañoFirma];
-        entrada.readFully(firma);
-
-        return new Paquete(mensajeCifrado, firma);
-    }
+    // Procesa un paquete de un cliente: descifra, verifica la firma y pide la decisión.
+    // No espera la moderación: la respuesta (con el id del mensaje) sale cuando se
+    // completa la decisión, así un cliente puede tener varios mensajes en vuelo
 
-    // Procesa un paquete de un cliente: verifica firma, descifra, envía al moderador
+    void procesarPaqueteDelCliente(SesionCliente sesion, Paquete paquete) throws Exception {
+        long inicio = System.nanoTime();
+        ContextoCripto contexto = sesion.getContexto();
+        SalidaCliente salidaCliente = sesion.getSalida();
+        String nombreCliente = sesion.getNombre();
+        sesion.contarRecibido();
 
-    private void procesarPaqueteDelCliente(Socket cliente, Paquete paquete,
-                                           DataOutputStream salidaCliente, String nombreCliente) throws Exception {
-        // Descifrar el mensaje del cliente
-        String mensajeDescifrado = descifrarMensajeDelCliente(cliente, paquete.getMensajeCifradoBytes());
+        int tamaño;
+        boolean firmaValida = true;
+        try {
+            // Descifrar el mensaje del cliente (queda en el buffer de su sesión). En modo
+            // GCM esto ya verifica la integridad y el orden; si falla se corta la conexión
+            tamaño = contexto.descifrar(paquete.getMensajeCifrado());
+            Metricas.DESCIFRADO.registrarDesde(inicio);
+
+            // Verificar la firma digital sobre los mismos bytes descifrados (si la sesión la usa)
+            if (contexto.usaFirma()) {
+                long inicioFirma = System.nanoTime();
+                firmaValida = contexto.verificar(tamaño, paquete.getFirma());
+                Metricas.FIRMA.registrarDesde(inicioFirma);
+            }
+        } finally {
+            // Los buffers vuelven al pool antes de esperar al moderador
+            paquete.liberar();
+        }
 
-        // Verificar la firma digital
-        boolean firmaValida = verificarFirma(cliente, mensajeDescifrado, paquete.getFirmaBytes());
+        // El contenido es [id (long)][texto]: el id lo elige el cliente y vuelve en la respuesta
+        if (tamaño < CodecTramas.BYTES_ID) {
+            throw new IOException("Mensaje sin id de " + nombreCliente);
+        }
+        long id = ByteBuffer.wrap(contexto.getBuffer()).getLong(0);
 
         if (!firmaValida) {
-            System.out.println("FIRMA INVÁLIDA de " + nombreCliente + " - Mensaje rechazado");
-            byte[] respuesta = "RECHAZADO".getBytes();
-            salidaCliente.writeInt(respuesta.length);
-            salidaCliente.write(respuesta);
-            salidaCliente.flush();
+            Registro.info("FIRMA INVÁLIDA de " + nombreCliente + " - Mensaje rechazado");
+            salidaCliente.responder(CodecTramas.RECHAZADO, id);
             return;
         }
 
-        System.out.println("Firma válida de " + nombreCliente);
+        if (contexto.usaFirma()) {
+            Registro.detalle(() -> "Firma válida de " + nombreCliente);
+        }
 
         // Crear mensaje completo con origen
-        Mensaje mensaje = new Mensaje(nombreCliente, mensajeDescifrado);
+        Mensaje mensaje = new Mensaje(nombreCliente,
+                contexto.texto(CodecTramas.BYTES_ID, tamaño - CodecTramas.BYTES_ID));
 
-        // Cifrar y enviar al moderador
-        byte[] mensajeCifradoParaModerador = cifrarMensajeParaModerador(mensaje.toString());
-
-        // Enviar al moderador y esperar su decisión
-        String decision = enviarAlModeradorYEsperarDecision(mensajeCifradoParaModerador);
+        // Un cliente no puede acaparar la moderación: pasado su máximo en vuelo, ocupado
+        if (!salidaCliente.reservar()) {
+            Registro.detalle(() -> "Demasiados mensajes en vuelo de " + nombreCliente + ", se pide reintentar");
+            salidaCliente.responderOcupado(id, reintentarMillis);
+            return;
+        }
 
-        // Procesar la decisión del moderador
-        procesarDecisionDelModerador(decision, salidaCliente, mensaje.toString());
+        long recibido = System.currentTimeMillis();
+        long inicioModeracion = System.nanoTime();
+        decidir(mensaje).thenAcceptAsync(decision -> {
+            try {
+                auditar(mensaje, decision, recibido, inicioModeracion);
+                procesarDecisionDelModerador(decision, id, sesion, mensaje);
+                Metricas.TOTAL.registrarDesde(inicio);
+            } catch (IOException e) {
+                salidaCliente.desconectar();
+            } finally {
+                salidaCliente.liberar();
+            }
+        }, Hilos::ejecutar);
     }
 
-    // Verifica la firma digital de un mensaje
-    private boolean verificarFirma(Socket cliente, String mensaje, byte[] firma) throws Exception {
-        PublicKey clavePublicaCliente = clavesPublicasClientes.get(cliente);
-
-        Signature verificador = Signature.getInstance("SHA256withRSA");
-        verificador.initVerify(clavePublicaCliente);
-        verificador.update(mensaje.getBytes());
+    // Las reglas automáticas deciden lo obvio; solo lo dudoso va al moderador
 
-        return verificador.verify(firma);
+    private CompletableFuture<String> decidir(Mensaje mensaje) {
+        String decision = decidirPorReglas(mensaje);
+        return decision != null ? CompletableFuture.completedFuture(decision) : enviarAlModerador(mensaje);
     }
 
-    // Descifra un mensaje del cliente usando su clave AES
-
-    private String descifrarMensajeDelCliente(Socket cliente, byte[] mensajeCifrado) throws Exception {
-        SecretKey claveAESCliente = clavesAESClientes.get(cliente);
-
-        Cipher cifradorAES = Cipher.getInstance("AES");
-        cifradorAES.init(Cipher.DECRYPT_MODE, claveAESCliente);
-
-        return new String(cifradorAES.doFinal(mensajeCifrado));
+    // Decisión de las reglas automáticas, o null si el mensaje necesita un moderador
+
+    private String decidirPorReglas(Mensaje mensaje) {
+        switch (reglasModeracion.evaluar(mensaje.getContenido())) {
+            case APROBAR:
+                Registro.detalle(() -> "Aprobado por reglas: " + mensaje);
+                return "APROBADO";
+            case RECHAZAR:
+                Registro.detalle(() -> "Rechazado por reglas: " + mensaje);
+                return "RECHAZADO";
+            default:
+                return null;
+        }
     }
 
-    //Cifra un mensaje para enviarlo al moderador usando la clave AES compartida
-
-    private byte[] cifrarMensajeParaModerador(String mensaje) throws Exception {
-        Cipher cifradorAES = Cipher.getInstance("AES");
-        cifradorAES.init(Cipher.ENCRYPT_MODE, claveAESModerador);
-
-        return cifradorAES.doFinal(mensaje.getBytes());
+    // Envía un mensaje al pool de moderadores. Un texto repetido toma la decisión de la
+    // caché (o la de la copia en curso). La espera está acotada por el plazo del pool:
+    // si vence se aplica la decisión por defecto, y si el pool está lleno la respuesta es
+    // OCUPADO (ninguna de las dos queda en la caché ni en el índice de parecidos)
+
+    private CompletableFuture<String> enviarAlModerador(Mensaje mensaje) {
+        int[] firma = IndiceSimilares.firma(mensaje.getContenido());
+        return cacheDecisiones.decidir(mensaje.getContenido(), () -> moderarConSimilares(mensaje, firma))
+                .exceptionally(error -> {
+                    Throwable causa = error instanceof CompletionException ? error.getCause() : error;
+                    if (causa instanceof RejectedExecutionException) {
+                        Registro.detalle(() -> "Moderación saturada, se pide reintentar: " + mensaje);
+                        return "OCUPADO";
+                    }
+                    if (causa instanceof TimeoutException) {
+                        Registro.detalle(() -> "Plazo de moderación vencido (" + decisionPorDefecto + "): " + mensaje);
+                        return decisionPorDefecto;
+                    }
+                    return "RECHAZADO";
+                });
     }
 
-    // Envía mensaje al moderador y espera su decisión (sincronizado para evitar colisiones)
-
-    private String enviarAlModeradorYEsperarDecision(byte[] mensajeCifrado) throws Exception {
-        synchronized (lockModerador) {
-            try {
-                salidaModerador.writeInt(mensajeCifrado.length);
-                salidaModerador.write(mensajeCifrado);
-                salidaModerador.flush();
+    // Un texto parecido a uno rechazado hace poco se rechaza sin pasar por el moderador;
+    // si el parecido fue aprobado, se le sugiere al moderador (una palabra cambiada
+    // puede cambiar el sentido) salvo que virgo.similares.aplicarAprobaciones lo aplique.
+    // La decisión del moderador se agrega al índice
 
-                int tamaño = entradaModerador.readInt();
-                byte[] respuestaCifrada = new byte[tamaño];
-                entradaModerador.readFully(respuestaCifrada);
+    private CompletableFuture<String> moderarConSimilares(Mensaje mensaje, int[] firma) {
+        String parecida = indiceSimilares.buscar(firma);
+        if ("RECHAZADO".equals(parecida) || ("APROBADO".equals(parecida) && aplicarAprobacionesSimilares)) {
+            Registro.detalle(() -> "Decisión de un mensaje parecido (" + parecida + "): " + mensaje);
+            return CompletableFuture.completedFuture(parecida);
+        }
+        CompletableFuture<String> decision = poolModeradores.enviar(mensaje, parecida != null ? parecida : "");
+        decision.thenAccept(d -> indiceSimilares.agregar(firma, d));
+        return decision;
+    }
 
-                return descifrarRespuestaDelModerador(respuestaCifrada);
+    // Procesa la decisión del moderador, responde al cliente y, si se aprobó,
+    // difunde el mensaje a los demás
 
-            } catch (IOException ex) {
-                System.out.println("El moderador se desconectó.");
-                cerrarServidor();
-                System.exit(0);
-            }
+    private void procesarDecisionDelModerador(String decision, long id, SesionCliente sesion,
+                                              Mensaje mensaje) throws IOException {
+        SalidaCliente salidaCliente = sesion.getSalida();
+        if ("APROBADO".equalsIgnoreCase(decision)) {
+            APROBADOS.increment();
+            sesion.contarDecision(true);
+            Registro.detalle(() -> "✅" + mensaje);
+            salidaCliente.responder(CodecTramas.ENVIADO, id);
+            difundir(sesion, mensaje);
+        } else if ("OCUPADO".equals(decision)) {
+            OCUPADOS.increment();
+            salidaCliente.responderOcupado(id, reintentarMillis);
+        } else {
+            RECHAZADOS.increment();
+            sesion.contarDecision(false);
+            Registro.detalle(() -> "Mensaje rechazado: " + mensaje);
+            salidaCliente.responder(CodecTramas.RECHAZADO, id);
         }
-        return "RECHAZADO";
     }
 
-     // Descifra la respuesta del moderador
-
-    private String descifrarRespuestaDelModerador(byte[] respuestaCifrada) throws Exception {
-        Cipher cifradorAES = Cipher.getInstance("AES");
-        cifradorAES.init(Cipher.DECRYPT_MODE, claveAESModerador);
+    // Deja la decisión en el registro de auditoría (OCUPADO no es una decisión: el
+    // cliente reintenta). recibido es el instante de llegada en ms de época e inicio el
+    // System.nanoTime() en que empezó la moderación
 
-        return new String(cifradorAES.doFinal(respuestaCifrada));
+    private void auditar(Mensaje mensaje, String decision, long recibido, long inicio) {
+        if (auditoria != null && !"OCUPADO".equals(decision)) {
+            auditoria.registrar(mensaje, decision, recibido, System.nanoTime() - inicio);
+        }
     }
 
-    // Procesa la decisión del moderador y responde al cliente
+    // Encola un mensaje aprobado en la salida de cada cliente conectado (salvo el que
+    // lo envió, que ya recibe ENVIADO). Cada cola es acotada y no bloquea: un cliente
+    // lento pierde difusiones sin demorar a los demás
 
-    private void procesarDecisionDelModerador(String decision, DataOutputStream salidaCliente, String mensajeCompleto) throws IOException {
-        if ("APROBADO".equalsIgnoreCase(decision)) {
-            System.out.println("✅" + mensajeCompleto);
-            byte[] respuesta = "ENVIADO".getBytes();
-            salidaCliente.writeInt(respuesta.length);
-            salidaCliente.write(respuesta);
-        } else {
-            System.out.println("Mensaje rechazado: " + mensajeCompleto);
-            byte[] respuesta = "RECHAZADO".getBytes();
-            salidaCliente.writeInt(respuesta.length);
-            salidaCliente.write(respuesta);
+    private void difundir(SesionCliente origen, Mensaje mensaje) {
+        for (SesionCliente destino : sesiones.todas()) {
+            SalidaCliente salida = destino.getSalida();
+            if (destino != origen && salida != null) {
+                salida.difundir(mensaje);
+            }
         }
-        salidaCliente.flush();
     }
 
      // Elimina completamente un cliente del servidor (cuando se desconecta)
 
-    private void eliminarCliente(Socket cliente) {
-        try { cliente.close(); } catch (Exception ignored) {}
-
-        clientes.remove(cliente);
-        nombresClientes.remove(cliente);
-        clavesAESClientes.remove(cliente);
-        clavesPublicasClientes.remove(cliente);
-
-        System.out.println("Cliente desconectado y limpiado correctamente.");
+    void eliminarCliente(SesionCliente sesion) {
+        sesiones.desconectar(sesion);
     }
 
 
-     // Cierra todo si el moderador se desconecta
+     // Cierra los sockets de escucha y las conexiones de los clientes (al apagar el proceso)
 
-    private void cerrarServidor() {
-        try { moderadorSocket.close(); } catch (Exception ignored) {}
+    public void cerrarServidor() {
         try { serverSocketClientes.close(); } catch (Exception ignored) {}
         try { serverSocketModerador.close(); } catch (Exception ignored) {}
 
-        for (Socket c : clientes) {
-            try { c.close(); } catch (Exception ignored) {}
+        for (SesionCliente sesion : sesiones.todas()) {
+            sesion.cerrar();
         }
 
-        System.out.println(" Servidor apagado porque el moderador se desconectó.");
+        Registro.info(String.format(" Caché de decisiones: %d aciertos, %d fallos (%.1f%%)", cacheDecisiones.getAciertos(),
+                cacheDecisiones.getFallos(), cacheDecisiones.getTasaAciertos() * 100));
+        Registro.info(" Mensajes parecidos a uno ya moderado: " + indiceSimilares.getParecidos()
+                + " de " + indiceSimilares.getConsultas());
+        Registro.info(" Moderación: " + poolModeradores.getOcupados() + " rechazos por cola llena, "
+                + poolModeradores.getVencidos() + " plazos vencidos");
+        String compresion = Compresion.resumen();
+        if (compresion != null) {
+            Registro.info(compresion);
+        }
+        String tiempos = Metricas.resumen();
+        if (!tiempos.isEmpty()) {
+            Registro.info(" Tiempos por etapa:\n" + tiempos.stripTrailing());
+        }
+        if (auditoria != null) {
+            auditoria.vaciar();
+            Registro.info(" Auditoría: " + auditoria.getRegistrados() + " decisiones registradas, "
+                    + auditoria.getDescartados() + " descartadas");
+        }
+        Registro.info(" Servidor apagado.");
+        Registro.vaciar();
     }
 
 
@@ -379,6 +743,9 @@ public class Servidor {
         if (args.length != 2) {
             System.err.println(" Uso: java Servidor <puertoModerador> <puertoClientes>");
             System.err.println("   Ejemplo: java Servidor 50000 50001");
+            System.err.println("   Motor NIO: java -Dvirgo.motor=nio Servidor 50000 50001");
+            System.err.println("   Hilos virtuales: java -Dvirgo.hilos=virtual Servidor 50000 50001");
+            System.err.println("   Métricas por HTTP: java -Dvirgo.metricas.puerto=9090 Servidor 50000 50001");
             System.exit(1);
         }
 
@@ -387,9 +754,22 @@ public class Servidor {
             int puertoClientes = Integer.parseInt(args[1]);
 
             Servidor servidor = new Servidor(puertoModerador, puertoClientes);
-            servidor.generarClavesRSA();
-            servidor.esperarConexionModerador();
-            servidor.esperarConexionesClientes();
+            servidor.cargarClaves(Configuracion.texto("virgo.identidad", "servidor.identidad"));
+            servidor.iniciarReglasAutomaticas();
+            servidor.publicarMetricas();
+            servidor.iniciarAuditoria();
+            servidor.recuperarPendientes();
+            servidor.esperarConexionesModeradores();
+            Runtime.getRuntime().addShutdownHook(new Thread(servidor::cerrarServidor));
+
+            if ("nio".equalsIgnoreCase(Configuracion.texto("virgo.motor", "hilos"))) {
+                int procesadores = Runtime.getRuntime().availableProcessors();
+                servidor.esperarConexionesClientesNIO(
+                        Configuracion.entero("virgo.nio.bucles", procesadores),
+                        Configuracion.entero("virgo.nio.trabajadores", procesadores * 2));
+            } else {
+                servidor.esperarConexionesClientes();
+            }
 
         } catch (NumberFormatException e) {
             System.err.println(" Error: Los puertos deben ser números enteros");
@@ -0,0 +1,97 @@
+package virgo;
+
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// Todo lo de una conexión de cliente en un solo objeto: el socket, el nombre y el
+// contexto cripto que deja el handshake, su cola de salida y contadores de sus
+// mensajes. Se crea al aceptar el socket (todavía sin nombre) y se completa en el
+// handshake; el resto del servidor la recibe directamente, sin buscarla por socket.
+//
+// Los campos que completa el handshake son volatile: los escribe el trabajador del
+// handshake y los leen el hilo lector del cliente y los que difunden.
+
+class SesionCliente {
+    private final long id;
+    private final Socket socket;
+    private final AtomicBoolean cerrada;
+    private final LongAdder recibidos;
+    private final LongAdder aprobados;
+    private final LongAdder rechazados;
+    private volatile String nombre;
+    private volatile ContextoCripto contexto;
+    private volatile SalidaCliente salida;
+
+    SesionCliente(long id, Socket socket) {
+        this.id = id;
+        this.socket = socket;
+        this.cerrada = new AtomicBoolean();
+        this.recibidos = new LongAdder();
+        this.aprobados = new LongAdder();
+        this.rechazados = new LongAdder();
+    }
+
+    long getId() {
+        return id;
+    }
+
+    Socket getSocket() {
+        return socket;
+    }
+
+    // null hasta que termina el handshake
+
+    String getNombre() {
+        return nombre;
+    }
+
+    ContextoCripto getContexto() {
+        return contexto;
+    }
+
+    // null hasta que arranca el lector de sus mensajes; sin salida no recibe difusiones
+
+    SalidaCliente getSalida() {
+        return salida;
+    }
+
+    void identificar(String nombre, ContextoCripto contexto) {
+        this.contexto = contexto;
+        this.nombre = nombre;
+    }
+
+    void setSalida(SalidaCliente salida) {
+        this.salida = salida;
+    }
+
+    void contarRecibido() {
+        recibidos.increment();
+    }
+
+    void contarDecision(boolean aprobado) {
+        (aprobado ? aprobados : rechazados).increment();
+    }
+
+    // Cierra el socket y la salida una sola vez; true para quien la cerró
+
+    boolean cerrar() {
+        if (!cerrada.compareAndSet(false, true)) {
+            return false;
+        }
+        try { socket.close(); } catch (Exception ignored) {}
+        SalidaCliente salidaActual = salida;
+        if (salidaActual != null) {
+            salidaActual.cerrar();
+        }
+        return true;
+    }
+
+    // Resumen para el registro al desconectarse
+
+    String describir() {
+        return "#" + id + " " + (nombre != null ? nombre : socket.getInetAddress()) + " (" + recibidos.sum()
+                + " mensajes, " + aprobados.sum() + " aprobados, " + rechazados.sum() + " rechazados)";
+    }
+}
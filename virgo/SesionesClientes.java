@@ -0,0 +1,80 @@
+package virgo;
+
+import java.net.Socket;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Sesiones de los clientes conectados, por id (todas, desde que se acepta el socket)
+// y por nombre (las ya identificadas). Los dos mapas son concurrentes: el aceptador,
+// los trabajadores del handshake, los lectores y los que difunden los usan sin lock.
+// Si dos sesiones usan el mismo nombre (p. ej. una reconexión antes de que se note la
+// caída de la anterior), el índice por nombre apunta a la última.
+
+class SesionesClientes {
+    private final AtomicLong siguienteId;
+    private final Map<Long, SesionCliente> porId;
+    private final Map<String, SesionCliente> porNombre;
+
+    SesionesClientes() {
+        this.siguienteId = new AtomicLong();
+        this.porId = new ConcurrentHashMap<>();
+        this.porNombre = new ConcurrentHashMap<>();
+    }
+
+    // Sesión nueva para un socket recién aceptado
+
+    SesionCliente abrir(Socket socket) {
+        SesionCliente sesion = new SesionCliente(siguienteId.incrementAndGet(), socket);
+        porId.put(sesion.getId(), sesion);
+        return sesion;
+    }
+
+    // Completa la sesión con lo que dejó el handshake; devuelve la sesión que tenía
+    // ese nombre hasta ahora (o null)
+
+    SesionCliente identificar(SesionCliente sesion, String nombre, ContextoCripto contexto) {
+        sesion.identificar(nombre, contexto);
+        SesionCliente anterior = porNombre.put(nombre, sesion);
+        // Si se quitó mientras tanto (p. ej. venció el plazo del handshake) no queda en el índice
+        if (!porId.containsKey(sesion.getId())) {
+            porNombre.remove(nombre, sesion);
+        }
+        return anterior;
+    }
+
+    // Cierra la sesión y la quita (cuando el cliente se desconecta). Pueden llamarlo a la
+    // vez su lector, su salida y el handshake: solo el primero la quita y lo registra
+
+    void desconectar(SesionCliente sesion) {
+        sesion.cerrar();
+        if (quitar(sesion)) {
+            Registro.detalle(() -> "Cliente " + sesion.describir() + " se desconectó.");
+        }
+    }
+
+    // Quita la sesión de los dos índices; false si ya no estaba
+
+    boolean quitar(SesionCliente sesion) {
+        if (!porId.remove(sesion.getId(), sesion)) {
+            return false;
+        }
+        String nombre = sesion.getNombre();
+        if (nombre != null) {
+            porNombre.remove(nombre, sesion);
+        }
+        return true;
+    }
+
+    // Vista de todas las sesiones para recorrer (difundir, apagar); no copia nada
+
+    Collection<SesionCliente> todas() {
+        return porId.values();
+    }
+
+    int getConectadas() {
+        return porId.size();
+    }
+}
@@ -0,0 +1,90 @@
+package virgo;
+
+import java.util.concurrent.CompletableFuture;
+
+
+// Un mensaje enviado al moderador y la decisión que se espera para él.
+// El id viaja con el mensaje y vuelve con la decisión, así las respuestas
+// pueden llegar en cualquier orden. La sugerencia es la decisión que se tomó para
+// un mensaje parecido ("" si no hay ninguno), y se le muestra al moderador. Los
+// instantes de creación y de envío (System.nanoTime) miden la espera en la cola y la
+// ida y vuelta con el moderador. El canal es el del moderador que la tiene asignada
+// (null mientras espera en la cola del pool). Una solicitud recuperada es la de un
+// mensaje que la ejecución anterior dejó sin decisión en el diario de pendientes. El
+// vencimiento (System.nanoTime, 0 mientras no tenga plazo) viaja al moderador como
+// tiempo restante, para que no ofrezca decidir lo que el servidor ya no espera.
+
+class SolicitudModeracion {
+    private final long id;
+    private final Mensaje mensaje;
+    private final String sugerencia;
+    private final CompletableFuture<String> decision;
+    private final long creada;
+    private final boolean recuperada;
+    private volatile long enviada;
+    private volatile long vence;
+    private volatile CanalModerador canal;
+
+    SolicitudModeracion(long id, Mensaje mensaje, String sugerencia) {
+        this(id, mensaje, sugerencia, false);
+    }
+
+    SolicitudModeracion(long id, Mensaje mensaje, String sugerencia, boolean recuperada) {
+        this.id = id;
+        this.mensaje = mensaje;
+        this.sugerencia = sugerencia;
+        this.decision = new CompletableFuture<>();
+        this.creada = System.nanoTime();
+        this.recuperada = recuperada;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    Mensaje getMensaje() {
+        return mensaje;
+    }
+
+    String getSugerencia() {
+        return sugerencia;
+    }
+
+    CompletableFuture<String> getDecision() {
+        return decision;
+    }
+
+    long getCreada() {
+        return creada;
+    }
+
+    boolean esRecuperada() {
+        return recuperada;
+    }
+
+    long getEnviada() {
+        return enviada;
+    }
+
+    long getVence() {
+        return vence;
+    }
+
+    void vencerEn(long instante) {
+        this.vence = instante;
+    }
+
+    CanalModerador getCanal() {
+        return canal;
+    }
+
+    void asignar(CanalModerador canal) {
+        this.canal = canal;
+    }
+
+    // Salió en un lote hacia un moderador (otra vez, si volvió al pool)
+
+    void marcarEnviada(long instante) {
+        this.enviada = instante;
+    }
+}
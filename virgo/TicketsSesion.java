@@ -0,0 +1,173 @@
+package virgo;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+// Tickets de reanudación de sesión. Después de un handshake completo el servidor
+// entrega al cliente un ticket cifrado con una clave que solo él conoce, con la
+// clave AES de la sesión, sus opciones, el nombre y un vencimiento. Un cliente que
+// se reconecta presenta el ticket y un nonce; el servidor responde con otro nonce y
+// ambos derivan una clave nueva de la anterior, sin operaciones asimétricas:
+//   claveNueva = HKDF(claveAnterior, sal = nonceCliente || nonceServidor)
+// La clave de los tickets se genera al arrancar: los tickets sirven para
+// reconexiones mientras el servidor sigue en pie, no después de reiniciarlo.
+//
+// Cada ticket se acepta una sola vez (la reanudación entrega uno nuevo): quien copie
+// uno del tráfico o del cliente no puede reanudar con él otra vez. Los ya usados se
+// recuerdan por su iv hasta que vencen, como mucho maximoUsados; si no hay lugar ni
+// liberando los vencidos, el ticket se rechaza y el cliente hace el handshake completo.
+
+class TicketsSesion {
+    static final int BYTES_NONCE = 16;
+    private static final byte[] INFO = "virgo reanudacion".getBytes();
+    private static final int BYTES_IV = 12;
+
+    private final SecretKey claveTickets;
+    private final long vigenciaMillis;
+    private final int maximoUsados;
+    private final SecureRandom aleatorio;
+    // iv de los tickets ya usados y hasta cuándo vale cada uno
+    private final Map<ByteBuffer, Long> usados;
+
+    TicketsSesion(long vigenciaMillis, int maximoUsados) throws GeneralSecurityException {
+        KeyGenerator generador = KeyGenerator.getInstance("AES");
+        generador.init(256);
+        this.claveTickets = generador.generateKey();
+        this.vigenciaMillis = vigenciaMillis;
+        this.maximoUsados = maximoUsados;
+        this.aleatorio = new SecureRandom();
+        this.usados = new ConcurrentHashMap<>();
+    }
+
+    // Contenido de un ticket válido
+
+    static class Datos {
+        private final SecretKey clave;
+        private final int opciones;
+        private final String nombre;
+        private final byte[] clavePublicaCliente;
+
+        Datos(SecretKey clave, int opciones, String nombre, byte[] clavePublicaCliente) {
+            this.clave = clave;
+            this.opciones = opciones;
+            this.nombre = nombre;
+            this.clavePublicaCliente = clavePublicaCliente;
+        }
+
+        SecretKey getClave() {
+            return clave;
+        }
+
+        int getOpciones() {
+            return opciones;
+        }
+
+        String getNombre() {
+            return nombre;
+        }
+
+        byte[] getClavePublicaCliente() {
+            return clavePublicaCliente;
+        }
+    }
+
+    // Ticket = [iv][AES-GCM(vence, opciones, nombre, clave, clave pública del cliente)]
+
+    byte[] emitir(Datos datos) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream contenido = new DataOutputStream(bytes);
+        contenido.writeLong(System.currentTimeMillis() + vigenciaMillis);
+        contenido.writeInt(datos.getOpciones());
+        contenido.writeUTF(datos.getNombre());
+        byte[] clave = datos.getClave().getEncoded();
+        contenido.writeInt(clave.length);
+        contenido.write(clave);
+        contenido.writeInt(datos.getClavePublicaCliente().length);
+        contenido.write(datos.getClavePublicaCliente());
+
+        byte[] iv = new byte[BYTES_IV];
+        aleatorio.nextBytes(iv);
+        Cipher cifrador = Cipher.getInstance("AES/GCM/NoPadding");
+        cifrador.init(Cipher.ENCRYPT_MODE, claveTickets, new GCMParameterSpec(128, iv));
+        byte[] cifrado = cifrador.doFinal(bytes.toByteArray());
+
+        return IntercambioX25519.concatenar(iv, cifrado);
+    }
+
+    // Abre un ticket y lo da por usado; null si fue alterado, es de otro proceso, está
+    // vencido o ya se usó
+
+    Datos abrir(byte[] ticket) {
+        if (ticket.length <= BYTES_IV) {
+            return null;
+        }
+        try {
+            Cipher descifrador = Cipher.getInstance("AES/GCM/NoPadding");
+            descifrador.init(Cipher.DECRYPT_MODE, claveTickets, new GCMParameterSpec(128, ticket, 0, BYTES_IV));
+            byte[] claro = descifrador.doFinal(ticket, BYTES_IV, ticket.length - BYTES_IV);
+
+            DataInputStream contenido = new DataInputStream(new ByteArrayInputStream(claro));
+            long vence = contenido.readLong();
+            if (vence < System.currentTimeMillis() || !consumir(ticket, vence)) {
+                return null;
+            }
+            int opciones = contenido.readInt();
+            String nombre = contenido.readUTF();
+            byte[] clave = new byte[contenido.readInt()];
+            contenido.readFully(clave);
+            byte[] clavePublica = new byte[contenido.readInt()];
+            contenido.readFully(clavePublica);
+
+            return new Datos(new SecretKeySpec(clave, "AES"), opciones, nombre, clavePublica);
+        } catch (GeneralSecurityException | IOException e) {
+            return null;
+        }
+    }
+
+    // Anota el ticket como usado hasta que vence; false si ya lo estaba o no hay lugar
+
+    private boolean consumir(byte[] ticket, long vence) {
+        if (usados.size() >= maximoUsados) {
+            long ahora = System.currentTimeMillis();
+            usados.values().removeIf(hasta -> hasta < ahora);
+            if (usados.size() >= maximoUsados) {
+                return false;
+            }
+        }
+        return usados.putIfAbsent(ByteBuffer.wrap(Arrays.copyOf(ticket, BYTES_IV)), vence) == null;
+    }
+
+    int getUsados() {
+        return usados.size();
+    }
+
+    byte[] nuevoNonce() {
+        byte[] nonce = new byte[BYTES_NONCE];
+        aleatorio.nextBytes(nonce);
+        return nonce;
+    }
+
+    // Clave de la sesión reanudada; la calculan igual el cliente y el servidor
+
+    static SecretKey derivarClave(SecretKey claveAnterior, byte[] nonceCliente, byte[] nonceServidor)
+            throws GeneralSecurityException {
+        byte[] sal = IntercambioX25519.concatenar(nonceCliente, nonceServidor);
+        byte[] material = claveAnterior.getEncoded();
+        try {
+            return IntercambioX25519.hkdfClaveAES(sal, material, INFO);
+        } finally {
+            Arrays.fill(material, (byte) 0);
+        }
+    }
+}
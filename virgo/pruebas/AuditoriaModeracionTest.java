@@ -0,0 +1,197 @@
+package virgo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// Registro de auditoría: cambio de segmento, consultas por rango de tiempo y por
+// remitente, reapertura, retención e índices dañados. Los segmentos son chicos para
+// que unos cientos de registros pasen por varios
+
+class AuditoriaModeracionTest {
+    private static final int SEGMENTO = 4096;
+
+    @TempDir
+    Path directorio;
+
+    private AuditoriaModeracion abrir(int maximoSegmentos, long retencionMillis) throws IOException {
+        AuditoriaModeracion auditoria = new AuditoriaModeracion(directorio, SEGMENTO, 10_000, maximoSegmentos,
+                retencionMillis);
+        auditoria.iniciar();
+        return auditoria;
+    }
+
+    private static void registrar(AuditoriaModeracion auditoria, String remitente, int desde, int hasta) {
+        for (int i = desde; i < hasta; i++) {
+            auditoria.registrar(new Mensaje(remitente, "mensaje " + i), i % 3 == 0 ? "RECHAZADO" : "APROBADO",
+                    System.currentTimeMillis(), 1_500_000);
+        }
+    }
+
+    private static List<String> contenidos(List<AuditoriaModeracion.Entrada> entradas) {
+        List<String> contenidos = new ArrayList<>();
+        for (AuditoriaModeracion.Entrada entrada : entradas) {
+            contenidos.add(entrada.contenido);
+        }
+        return contenidos;
+    }
+
+    private static List<String> esperados(int desde, int hasta) {
+        List<String> esperados = new ArrayList<>();
+        for (int i = desde; i < hasta; i++) {
+            esperados.add("mensaje " + i);
+        }
+        return esperados;
+    }
+
+    private List<Path> archivos(String patron) throws IOException {
+        List<Path> archivos = new ArrayList<>();
+        try (DirectoryStream<Path> lista = Files.newDirectoryStream(directorio, patron)) {
+            lista.forEach(archivos::add);
+        }
+        archivos.sort(null);
+        return archivos;
+    }
+
+    @Test
+    void pasaDeSegmentoSinPerderRegistros() throws IOException {
+        AuditoriaModeracion auditoria = abrir(0, 0);
+        registrar(auditoria, "ana", 0, 300);
+        auditoria.vaciar();
+
+        assertEquals(300, auditoria.getRegistrados());
+        assertTrue(auditoria.getSegmentos() > 3, "segmentos: " + auditoria.getSegmentos());
+        List<AuditoriaModeracion.Entrada> todas = auditoria.consultar(null, 0, Long.MAX_VALUE, 1000);
+        assertEquals(esperados(0, 300), contenidos(todas));
+        for (int i = 1; i < todas.size(); i++) {
+            assertTrue(todas.get(i).decidido >= todas.get(i - 1).decidido);
+        }
+        assertEquals("RECHAZADO", todas.get(0).getDecision());
+        assertEquals("APROBADO", todas.get(1).getDecision());
+        assertEquals(1500, todas.get(0).esperaMicros);
+        // Los segmentos cerrados dejaron su índice
+        assertEquals(auditoria.getSegmentos() - 1, archivos("segmento-*.indice").size());
+    }
+
+    @Test
+    void consultaPorRemitenteEnTodosLosSegmentos() throws IOException {
+        AuditoriaModeracion auditoria = abrir(0, 0);
+        for (int i = 0; i < 150; i++) {
+            registrar(auditoria, i % 5 == 0 ? "beto" : "ana", i, i + 1);
+        }
+        auditoria.vaciar();
+
+        List<AuditoriaModeracion.Entrada> deBeto = auditoria.consultar("beto", 0, Long.MAX_VALUE, 1000);
+        assertEquals(30, deBeto.size());
+        for (AuditoriaModeracion.Entrada entrada : deBeto) {
+            assertEquals("beto", entrada.remitente);
+        }
+        assertEquals("mensaje 145", deBeto.get(29).contenido);
+        assertEquals(5, auditoria.consultar("beto", 0, Long.MAX_VALUE, 5).size());
+        assertTrue(auditoria.consultar("nadie", 0, Long.MAX_VALUE, 1000).isEmpty());
+    }
+
+    @Test
+    void consultaSoloElRangoDeTiempoPedido() throws Exception {
+        AuditoriaModeracion auditoria = abrir(0, 0);
+        registrar(auditoria, "ana", 0, 100);
+        auditoria.vaciar();
+        Thread.sleep(30);
+        long desde = System.currentTimeMillis();
+        registrar(auditoria, "ana", 100, 200);
+        auditoria.vaciar();
+        long hasta = System.currentTimeMillis();
+        Thread.sleep(30);
+        registrar(auditoria, "ana", 200, 300);
+        auditoria.vaciar();
+
+        assertEquals(esperados(100, 200), contenidos(auditoria.consultar(null, desde, hasta, 1000)));
+        assertEquals(esperados(100, 150), contenidos(auditoria.consultar(null, desde, hasta, 50)));
+        assertEquals(esperados(100, 200), contenidos(auditoria.consultar("ana", desde, hasta, 1000)));
+        assertTrue(auditoria.consultar(null, 0, desde - 20, 1000).size() >= 100);
+    }
+
+    @Test
+    void alReabrirSigueDondeQuedo() throws IOException {
+        AuditoriaModeracion primera = abrir(0, 0);
+        registrar(primera, "ana", 0, 120);
+        primera.vaciar();
+
+        AuditoriaModeracion segunda = abrir(0, 0);
+        registrar(segunda, "beto", 120, 240);
+        segunda.vaciar();
+
+        AuditoriaModeracion lectura = AuditoriaModeracion.abrirLectura(directorio);
+        assertEquals(esperados(0, 240), contenidos(lectura.consultar(null, 0, Long.MAX_VALUE, 1000)));
+        assertEquals(120, lectura.consultar("ana", 0, Long.MAX_VALUE, 1000).size());
+        assertEquals(120, lectura.consultar("beto", 0, Long.MAX_VALUE, 1000).size());
+    }
+
+    @Test
+    void laRetencionPorCantidadBorraLosSegmentosMasViejos() throws IOException {
+        AuditoriaModeracion auditoria = abrir(3, 0);
+        registrar(auditoria, "ana", 0, 300);
+        auditoria.vaciar();
+
+        assertEquals(3, auditoria.getSegmentos());
+        assertTrue(auditoria.getBorrados() > 0);
+        assertEquals(3, archivos("segmento-*.datos").size());
+        assertEquals(2, archivos("segmento-*.indice").size());
+        List<String> quedan = contenidos(auditoria.consultar(null, 0, Long.MAX_VALUE, 1000));
+        assertFalse(quedan.contains("mensaje 0"));
+        assertEquals("mensaje 299", quedan.get(quedan.size() - 1));
+        assertEquals(esperados(300 - quedan.size(), 300), quedan);
+    }
+
+    @Test
+    void laRetencionPorAntiguedadSeAplicaAlArrancar() throws Exception {
+        AuditoriaModeracion vieja = abrir(0, 0);
+        registrar(vieja, "ana", 0, 200);
+        vieja.vaciar();
+        int segmentos = vieja.getSegmentos();
+        Thread.sleep(20);
+
+        AuditoriaModeracion nueva = abrir(0, 10);
+
+        assertEquals(1, nueva.getSegmentos());
+        assertEquals(segmentos - 1, nueva.getBorrados());
+        assertTrue(archivos("segmento-*.indice").isEmpty());
+    }
+
+    @Test
+    void unIndiceDañadoSeRehaceRecorriendoElSegmento() throws IOException {
+        AuditoriaModeracion auditoria = abrir(0, 0);
+        registrar(auditoria, "ana", 0, 100);
+        auditoria.vaciar();
+        Path indice = archivos("segmento-*.indice").get(0);
+        // Cantidad de puntos, después del resumen: [magia, capacidad, fin, último, registros][dos long]
+        try (var canal = Files.newByteChannel(indice, StandardOpenOption.WRITE)) {
+            canal.position(5 * Integer.BYTES + 2 * Long.BYTES);
+            canal.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, Integer.MAX_VALUE));
+        }
+
+        AuditoriaModeracion lectura = AuditoriaModeracion.abrirLectura(directorio);
+
+        assertEquals(esperados(0, 100), contenidos(lectura.consultar(null, 0, Long.MAX_VALUE, 1000)));
+        assertEquals(100, lectura.consultar("ana", 0, Long.MAX_VALUE, 1000).size());
+    }
+
+    @Test
+    void sinDirectorioNoHayNada() throws IOException {
+        AuditoriaModeracion lectura = AuditoriaModeracion.abrirLectura(directorio.resolve("no-existe"));
+
+        assertTrue(lectura.consultar(null, 0, Long.MAX_VALUE, 10).isEmpty());
+        assertEquals(0, lectura.getSegmentos());
+    }
+}
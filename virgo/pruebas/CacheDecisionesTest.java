@@ -0,0 +1,146 @@
+package virgo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// Aciertos, copias que comparten la moderación en curso, fallos que no se guardan,
+// vencimiento y descarte por LRU de CacheDecisiones
+
+class CacheDecisionesTest {
+
+    // Cuenta cuántas veces se pidió moderar y deja el último futuro para completarlo a mano
+    private static class Moderacion implements Supplier<CompletableFuture<String>> {
+        final AtomicInteger pedidas = new AtomicInteger();
+        CompletableFuture<String> ultima;
+
+        @Override
+        public CompletableFuture<String> get() {
+            pedidas.incrementAndGet();
+            ultima = new CompletableFuture<>();
+            return ultima;
+        }
+    }
+
+    @Test
+    void laSegundaCopiaRecibeLaDecisionGuardada() {
+        CacheDecisiones cache = new CacheDecisiones(100, 60_000);
+        Moderacion moderacion = new Moderacion();
+
+        cache.decidir("compren ya", moderacion);
+        moderacion.ultima.complete("RECHAZADO");
+        CompletableFuture<String> copia = cache.decidir("compren ya", moderacion);
+
+        assertEquals("RECHAZADO", copia.getNow(null));
+        assertEquals(1, moderacion.pedidas.get());
+        assertEquals(1, cache.getAciertos());
+        assertEquals(1, cache.getFallos());
+    }
+
+    @Test
+    void lasCopiasNormalizadasSonLaMismaEntrada() {
+        CacheDecisiones cache = new CacheDecisiones(100, 60_000);
+        Moderacion moderacion = new Moderacion();
+
+        cache.decidir("Compren   YA", moderacion);
+        moderacion.ultima.complete("RECHAZADO");
+
+        assertEquals("RECHAZADO", cache.decidir("  compren ya ", moderacion).getNow(null));
+        assertEquals(1, moderacion.pedidas.get());
+    }
+
+    @Test
+    void lasCopiasQueLleganDuranteLaModeracionLaComparten() {
+        CacheDecisiones cache = new CacheDecisiones(100, 60_000);
+        Moderacion moderacion = new Moderacion();
+
+        CompletableFuture<String> primera = cache.decidir("hola", moderacion);
+        CompletableFuture<String> segunda = cache.decidir("hola", moderacion);
+        assertFalse(primera.isDone());
+        assertFalse(segunda.isDone());
+
+        moderacion.ultima.complete("APROBADO");
+        assertEquals("APROBADO", primera.getNow(null));
+        assertEquals("APROBADO", segunda.getNow(null));
+        assertEquals(1, moderacion.pedidas.get());
+    }
+
+    @Test
+    void unaModeracionQueFallaNoSeGuarda() {
+        CacheDecisiones cache = new CacheDecisiones(100, 60_000);
+        Moderacion moderacion = new Moderacion();
+
+        CompletableFuture<String> fallida = cache.decidir("hola", moderacion);
+        moderacion.ultima.completeExceptionally(new IllegalStateException("sin moderadores"));
+        assertTrue(fallida.isCompletedExceptionally());
+
+        CompletableFuture<String> otra = cache.decidir("hola", moderacion);
+        assertEquals(2, moderacion.pedidas.get());
+        moderacion.ultima.complete("APROBADO");
+        assertEquals("APROBADO", otra.getNow(null));
+        assertEquals(0, cache.getAciertos());
+    }
+
+    @Test
+    void siModerarLanzaLaDecisionFallaYNoQuedaEnLaCache() {
+        CacheDecisiones cache = new CacheDecisiones(100, 60_000);
+
+        CompletableFuture<String> decision = cache.decidir("hola", () -> {
+            throw new IllegalStateException("pool cerrado");
+        });
+
+        assertTrue(decision.isCompletedExceptionally());
+        assertEquals(0, cache.getTamaño());
+    }
+
+    @Test
+    void lasDecisionesVencen() throws InterruptedException {
+        CacheDecisiones cache = new CacheDecisiones(100, 20);
+        Moderacion moderacion = new Moderacion();
+
+        cache.decidir("hola", moderacion);
+        moderacion.ultima.complete("APROBADO");
+        Thread.sleep(60);
+        cache.decidir("hola", moderacion);
+
+        assertEquals(2, moderacion.pedidas.get());
+    }
+
+    @Test
+    void seDescartaLaUsadaHaceMasTiempo() {
+        CacheDecisiones cache = new CacheDecisiones(2, 60_000);
+        Moderacion moderacion = new Moderacion();
+        for (String texto : new String[] {"uno", "dos"}) {
+            cache.decidir(texto, moderacion);
+            moderacion.ultima.complete("APROBADO");
+        }
+
+        cache.decidir("uno", moderacion);
+        cache.decidir("tres", moderacion);
+        moderacion.ultima.complete("APROBADO");
+        assertEquals(3, moderacion.pedidas.get());
+
+        cache.decidir("uno", moderacion);
+        assertEquals(3, moderacion.pedidas.get());
+        cache.decidir("dos", moderacion);
+        assertEquals(4, moderacion.pedidas.get());
+        assertEquals(2, cache.getTamaño());
+    }
+
+    @Test
+    void sinEntradasSiempreModera() {
+        CacheDecisiones cache = new CacheDecisiones(0, 60_000);
+        Moderacion moderacion = new Moderacion();
+
+        cache.decidir("hola", moderacion);
+        moderacion.ultima.complete("APROBADO");
+        cache.decidir("hola", moderacion);
+
+        assertEquals(2, moderacion.pedidas.get());
+    }
+}
@@ -0,0 +1,126 @@
+package virgo;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// Ida y vuelta de Compresion: solo se comprime lo que pasa el umbral y ocupa menos, y
+// un mensaje comprimido que declara un tamaño inválido o no lo cumple se rechaza
+
+class CompresionTest {
+
+    private static byte[] texto(int tamaño) {
+        StringBuilder texto = new StringBuilder();
+        while (texto.length() < tamaño) {
+            texto.append("hola a todos, ").append(texto.length() % 7).append(' ');
+        }
+        return texto.substring(0, tamaño).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] idaYVuelta(Compresion compresion, byte[] datos, int desde, int tamaño)
+            throws DataFormatException {
+        int empaquetados = compresion.empaquetar(datos, desde, tamaño);
+        int original = compresion.desempaquetar(Arrays.copyOf(compresion.getEmpaquetado(), empaquetados), empaquetados);
+        return Arrays.copyOf(compresion.getDescomprimido(), original);
+    }
+
+    // Empaqueta con otra instancia y devuelve el mensaje tal como viajaría
+    private static byte[] empaquetado(byte[] datos) {
+        Compresion compresion = new Compresion(1 << 20);
+        int empaquetados = compresion.empaquetar(datos, 0, datos.length);
+        assertEquals(Compresion.DEFLATE, compresion.getEmpaquetado()[0]);
+        return Arrays.copyOf(compresion.getEmpaquetado(), empaquetados);
+    }
+
+    @Test
+    void unTextoLargoSeComprimeYVuelveIgual() throws DataFormatException {
+        Compresion compresion = new Compresion(1 << 20);
+        byte[] datos = texto(10_000);
+
+        int empaquetados = compresion.empaquetar(datos, 0, datos.length);
+
+        assertEquals(Compresion.DEFLATE, compresion.getEmpaquetado()[0]);
+        assertTrue(empaquetados < datos.length / 4, "empaquetados: " + empaquetados);
+        assertArrayEquals(datos, idaYVuelta(compresion, datos, 0, datos.length));
+    }
+
+    @Test
+    void unMensajeCortoViajaSinComprimir() throws DataFormatException {
+        Compresion compresion = new Compresion(1 << 20);
+        byte[] datos = texto(100);
+
+        assertEquals(1 + datos.length, compresion.empaquetar(datos, 0, datos.length));
+        assertEquals(Compresion.SIN_COMPRIMIR, compresion.getEmpaquetado()[0]);
+        assertArrayEquals(datos, idaYVuelta(compresion, datos, 0, datos.length));
+    }
+
+    @Test
+    void loQueNoSeAchicaViajaSinComprimir() throws DataFormatException {
+        Compresion compresion = new Compresion(1 << 20);
+        byte[] datos = new byte[4096];
+        new SplittableRandom(11).nextBytes(datos);
+
+        assertEquals(1 + datos.length, compresion.empaquetar(datos, 0, datos.length));
+        assertEquals(Compresion.SIN_COMPRIMIR, compresion.getEmpaquetado()[0]);
+        assertArrayEquals(datos, idaYVuelta(compresion, datos, 0, datos.length));
+    }
+
+    @Test
+    void respetaElDesplazamientoDeLosDatos() throws DataFormatException {
+        Compresion compresion = new Compresion(1 << 20);
+        byte[] datos = texto(3000);
+
+        assertArrayEquals(Arrays.copyOfRange(datos, 500, 2500), idaYVuelta(compresion, datos, 500, 2000));
+        assertArrayEquals(Arrays.copyOfRange(datos, 7, 57), idaYVuelta(compresion, datos, 7, 50));
+    }
+
+    @Test
+    void laMismaInstanciaSirveParaMensajesDeDistintoTamaño() throws DataFormatException {
+        Compresion compresion = new Compresion(1 << 20);
+
+        for (int tamaño : new int[] {0, 1, 255, 256, 5000, 300, 100_000, 10}) {
+            byte[] datos = texto(tamaño);
+            assertArrayEquals(datos, idaYVuelta(compresion, datos, 0, tamaño), "tamaño " + tamaño);
+        }
+    }
+
+    @Test
+    void unTamañoDeclaradoMayorAlMaximoSeRechaza() {
+        byte[] mensaje = empaquetado(texto(10_000));
+
+        assertThrows(DataFormatException.class, () -> new Compresion(5000).desempaquetar(mensaje, mensaje.length));
+    }
+
+    @Test
+    void unTamañoDeclaradoQueNoCoincideSeRechaza() {
+        byte[] mensaje = empaquetado(texto(10_000));
+        Compresion compresion = new Compresion(1 << 20);
+
+        ByteBuffer.wrap(mensaje, 1, Integer.BYTES).putInt(10_001);
+        assertThrows(DataFormatException.class, () -> compresion.desempaquetar(mensaje, mensaje.length));
+        ByteBuffer.wrap(mensaje, 1, Integer.BYTES).putInt(9_999);
+        assertThrows(DataFormatException.class, () -> compresion.desempaquetar(mensaje, mensaje.length));
+        ByteBuffer.wrap(mensaje, 1, Integer.BYTES).putInt(-1);
+        assertThrows(DataFormatException.class, () -> compresion.desempaquetar(mensaje, mensaje.length));
+    }
+
+    @Test
+    void unMensajeCortadoOMalFormadoSeRechaza() {
+        byte[] mensaje = empaquetado(texto(10_000));
+        Compresion compresion = new Compresion(1 << 20);
+
+        assertThrows(DataFormatException.class, () -> compresion.desempaquetar(mensaje, mensaje.length / 2));
+        assertThrows(DataFormatException.class, () -> compresion.desempaquetar(mensaje, 3));
+        assertThrows(DataFormatException.class, () -> compresion.desempaquetar(new byte[0], 0));
+        assertThrows(DataFormatException.class, () -> compresion.desempaquetar(new byte[] {7, 1, 2}, 3));
+        // Después de un rechazo la instancia sigue sirviendo
+        assertDoesNotThrow(() -> compresion.desempaquetar(mensaje, mensaje.length));
+    }
+}
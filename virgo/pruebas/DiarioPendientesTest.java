@@ -0,0 +1,173 @@
+package virgo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// Recuperación del diario de pendientes después de una caída: las ALTA sin BAJA
+// vuelven en orden de id, un registro cortado o dañado marca el fin y la compactación
+// no pierde mensajes vigentes. Cada "reinicio" es un DiarioPendientes nuevo sobre el
+// mismo archivo (el anterior queda como un proceso caído: no se cierra)
+
+class DiarioPendientesTest {
+
+    @TempDir
+    Path directorio;
+
+    private Path archivo() {
+        return directorio.resolve("pendientes.diario");
+    }
+
+    private static void esperar(DiarioPendientes diario, long id, Mensaje mensaje) throws Exception {
+        diario.alta(id, mensaje).get(5, TimeUnit.SECONDS);
+    }
+
+    // Las BAJA no se esperan: una ALTA anotada después sale en la misma tanda o en una posterior
+    private static void esperarBajas(DiarioPendientes diario, long idMarca) throws Exception {
+        esperar(diario, idMarca, new Mensaje("marca", "marca"));
+    }
+
+    @Test
+    void recuperaLosMensajesSinDecisionEnOrden() throws Exception {
+        DiarioPendientes diario = new DiarioPendientes(archivo(), 1 << 20);
+        assertTrue(diario.iniciar().isEmpty());
+        esperar(diario, 3, new Mensaje("ana", "tercero"));
+        esperar(diario, 1, new Mensaje("beto", "primero"));
+        esperar(diario, 2, new Mensaje("ana", "segundo"));
+        diario.baja(2);
+        esperarBajas(diario, 4);
+
+        SortedMap<Long, Mensaje> recuperados = new DiarioPendientes(archivo(), 1 << 20).iniciar();
+
+        assertEquals(List.of(1L, 3L, 4L), List.copyOf(recuperados.keySet()));
+        assertEquals("beto", recuperados.get(1L).getOrigen());
+        assertEquals("primero", recuperados.get(1L).getContenido());
+        assertEquals("tercero", recuperados.get(3L).getContenido());
+    }
+
+    @Test
+    void losRecuperadosSiguenEnElDiarioHastaSuBaja() throws Exception {
+        DiarioPendientes diario = new DiarioPendientes(archivo(), 1 << 20);
+        diario.iniciar();
+        esperar(diario, 1, new Mensaje("ana", "hola"));
+        esperar(diario, 2, new Mensaje("ana", "chau"));
+
+        DiarioPendientes segundo = new DiarioPendientes(archivo(), 1 << 20);
+        assertEquals(2, segundo.iniciar().size());
+        assertEquals(2, segundo.getVigentes());
+        // Se vuelve a caer antes de que un moderador decida: siguen ahí
+        DiarioPendientes tercero = new DiarioPendientes(archivo(), 1 << 20);
+        assertEquals(List.of(1L, 2L), List.copyOf(tercero.iniciar().keySet()));
+        tercero.baja(1);
+        esperarBajas(tercero, 3);
+
+        assertEquals(List.of(2L, 3L), List.copyOf(new DiarioPendientes(archivo(), 1 << 20).iniciar().keySet()));
+    }
+
+    @Test
+    void unRegistroCortadoMarcaElFin() throws Exception {
+        DiarioPendientes diario = new DiarioPendientes(archivo(), 1 << 20);
+        diario.iniciar();
+        esperar(diario, 1, new Mensaje("ana", "completo"));
+        // Una escritura que no terminó: cabecera de 100 bytes y solo 10 de datos
+        ByteBuffer cortado = ByteBuffer.allocate(18).putInt(100).putInt(0);
+        Files.write(archivo(), cortado.array(), StandardOpenOption.APPEND);
+
+        SortedMap<Long, Mensaje> recuperados = new DiarioPendientes(archivo(), 1 << 20).iniciar();
+
+        assertEquals(List.of(1L), List.copyOf(recuperados.keySet()));
+        // La compactación al arrancar quitó la cola cortada
+        assertEquals(List.of(1L), List.copyOf(new DiarioPendientes(archivo(), 1 << 20).iniciar().keySet()));
+    }
+
+    @Test
+    void unRegistroConElCrcMalMarcaElFin() throws Exception {
+        DiarioPendientes diario = new DiarioPendientes(archivo(), 1 << 20);
+        diario.iniciar();
+        esperar(diario, 1, new Mensaje("ana", "bien"));
+        long antes = Files.size(archivo());
+        esperar(diario, 2, new Mensaje("ana", "dañado"));
+        esperar(diario, 3, new Mensaje("ana", "después"));
+
+        byte[] bytes = Files.readAllBytes(archivo());
+        bytes[(int) antes + 2 * Integer.BYTES + 3] ^= 0x55;
+        Files.write(archivo(), bytes);
+
+        assertEquals(List.of(1L), List.copyOf(new DiarioPendientes(archivo(), 1 << 20).iniciar().keySet()));
+    }
+
+    @Test
+    void unTamañoAbsurdoNoSeReserva() throws Exception {
+        ByteBuffer basura = ByteBuffer.allocate(8).putInt(Integer.MAX_VALUE).putInt(0);
+        Files.write(archivo(), basura.array());
+
+        assertTrue(new DiarioPendientes(archivo(), 1 << 20).iniciar().isEmpty());
+    }
+
+    @Test
+    void compactarDejaSoloLosVigentes() throws Exception {
+        DiarioPendientes diario = new DiarioPendientes(archivo(), 512);
+        diario.iniciar();
+        for (long id = 1; id <= 200; id++) {
+            esperar(diario, id, new Mensaje("ana", "mensaje " + id));
+            if (id % 10 != 0) {
+                diario.baja(id);
+            }
+        }
+        esperarBajas(diario, 201);
+
+        assertTrue(Files.size(archivo()) < 200 * 20, "el diario no se compactó: " + Files.size(archivo()));
+        SortedMap<Long, Mensaje> recuperados = new DiarioPendientes(archivo(), 512).iniciar();
+        assertEquals(21, recuperados.size());
+        for (long id = 10; id <= 200; id += 10) {
+            assertEquals("mensaje " + id, recuperados.get(id).getContenido());
+        }
+    }
+
+    @Test
+    void unaCompactacionFallidaNoDejaDeEscribir() throws Exception {
+        // Un directorio con algo adentro en lugar del temporal hace fallar cada compactación
+        Path temporal = directorio.resolve("pendientes.diario.tmp");
+        DiarioPendientes diario = new DiarioPendientes(archivo(), 256);
+        diario.iniciar();
+        Files.createDirectories(temporal.resolve("ocupado"));
+        for (long id = 1; id <= 50; id++) {
+            esperar(diario, id, new Mensaje("ana", "mensaje " + id));
+        }
+        long errores = diario.getErrores();
+        assertTrue(errores > 0);
+        assertFalse(diario.estaDegradado());
+
+        Files.delete(temporal.resolve("ocupado"));
+        Files.delete(temporal);
+        for (long id = 1; id <= 40; id++) {
+            diario.baja(id);
+        }
+        esperarBajas(diario, 51);
+
+        assertEquals(errores, diario.getErrores());
+        assertTrue(Files.size(archivo()) < 20 * 30, "el diario no se compactó: " + Files.size(archivo()));
+        SortedMap<Long, Mensaje> recuperados = new DiarioPendientes(archivo(), 1 << 20).iniciar();
+        assertEquals(11, recuperados.size());
+        assertEquals("mensaje 41", recuperados.get(41L).getContenido());
+    }
+
+    @Test
+    void sinArchivoNoHayNadaQueRecuperar() throws IOException {
+        DiarioPendientes diario = new DiarioPendientes(archivo(), 1 << 20);
+
+        assertTrue(diario.iniciar().isEmpty());
+        assertTrue(Files.exists(archivo()));
+    }
+}
@@ -0,0 +1,94 @@
+package virgo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// Percentiles de Histograma: exactos para valores chicos y con error menor al 1% en
+// cualquier escala; cuenta, media y máximo, también con varios hilos registrando
+
+class HistogramaTest {
+
+    @Test
+    void losValoresChicosSonExactos() {
+        Histograma histograma = new Histograma();
+        for (int valor = 1; valor <= 100; valor++) {
+            histograma.registrar(valor);
+        }
+
+        assertEquals(1, histograma.percentil(0));
+        assertEquals(50, histograma.percentil(50));
+        assertEquals(90, histograma.percentil(90));
+        assertEquals(99, histograma.percentil(99));
+        assertEquals(100, histograma.percentil(100));
+        assertEquals(100, histograma.getMaximo());
+        assertEquals(50.5, histograma.getMedia(), 1e-9);
+    }
+
+    @Test
+    void elErrorDeCadaPercentilEsMenorAlUnoPorCiento() {
+        Histograma histograma = new Histograma();
+        SplittableRandom aleatorio = new SplittableRandom(3);
+        long[] valores = new long[100_000];
+        for (int i = 0; i < valores.length; i++) {
+            // De microsegundos a horas, para pasar por muchas potencias de dos
+            valores[i] = (long) Math.exp(aleatorio.nextDouble(0, Math.log(3_600_000_000.0)));
+            histograma.registrar(valores[i]);
+        }
+        Arrays.sort(valores);
+
+        for (double porcentaje : new double[] {1, 10, 50, 90, 99, 99.9, 99.99}) {
+            long exacto = valores[(int) Math.ceil(valores.length * porcentaje / 100.0) - 1];
+            long informado = histograma.percentil(porcentaje);
+            assertTrue(informado >= exacto, porcentaje + ": " + informado + " < " + exacto);
+            assertTrue(informado - exacto <= exacto / 100, porcentaje + ": " + informado + " lejos de " + exacto);
+        }
+        assertEquals(valores[valores.length - 1], histograma.getMaximo());
+        assertEquals(valores[valores.length - 1], histograma.percentil(100));
+    }
+
+    @Test
+    void vacioInformaCeros() {
+        Histograma histograma = new Histograma();
+
+        assertEquals(0, histograma.getCantidad());
+        assertEquals(0, histograma.percentil(99));
+        assertEquals(0, histograma.getMedia());
+    }
+
+    @Test
+    void losNegativosCuentanComoCeroYLosEnormesNoDesbordan() {
+        Histograma histograma = new Histograma();
+        histograma.registrar(-5);
+        histograma.registrar(Long.MAX_VALUE);
+
+        assertEquals(0, histograma.percentil(50));
+        assertEquals(Long.MAX_VALUE, histograma.percentil(100));
+        assertEquals(2, histograma.getCantidad());
+    }
+
+    @Test
+    void variosHilosNoPierdenRegistros() throws InterruptedException {
+        Histograma histograma = new Histograma();
+        Thread[] hilos = new Thread[4];
+        for (int h = 0; h < hilos.length; h++) {
+            hilos[h] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    histograma.registrar(i % 1000);
+                }
+            });
+            hilos[h].start();
+        }
+        for (Thread hilo : hilos) {
+            hilo.join();
+        }
+
+        assertEquals(200_000, histograma.getCantidad());
+        assertEquals(999, histograma.getMaximo());
+        assertEquals(499.5, histograma.getMedia(), 1e-9);
+    }
+}
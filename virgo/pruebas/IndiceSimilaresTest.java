@@ -0,0 +1,87 @@
+package virgo;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// Variantes de un mismo texto en IndiceSimilares: la normalización, las variantes que
+// se reconocen y los textos distintos que no, vencimiento y límite de entradas
+
+class IndiceSimilaresTest {
+    private static final String SPAM = "Compren ya las mejores ofertas de relojes importados, envío gratis a todo "
+            + "el país y pago en cuotas sin interés, escriban hoy mismo";
+
+    @Test
+    void laFirmaNoDependeDeMayusculasNiPuntuacion() {
+        assertArrayEquals(IndiceSimilares.firma("Compren YA!!! en   www.oferta.com"),
+                IndiceSimilares.firma("compren ya en www oferta com"));
+    }
+
+    @Test
+    void unTextoCortoNoTieneFirma() {
+        IndiceSimilares indice = new IndiceSimilares(70, 100, 60_000);
+
+        assertNull(IndiceSimilares.firma("hola!!"));
+        assertNull(indice.buscar(null));
+        indice.agregar(null, "APROBADO");
+        assertEquals(0, indice.getTamaño());
+    }
+
+    @Test
+    void reconoceUnaVarianteDelMismoTexto() {
+        IndiceSimilares indice = new IndiceSimilares(70, 100, 60_000);
+        indice.agregar(IndiceSimilares.firma(SPAM), "RECHAZADO");
+
+        assertEquals("RECHAZADO", indice.buscar(IndiceSimilares.firma(SPAM)));
+        assertEquals("RECHAZADO", indice.buscar(IndiceSimilares.firma(SPAM.replace("relojes", "reloges"))));
+        assertEquals("RECHAZADO", indice.buscar(IndiceSimilares.firma(SPAM.toUpperCase() + "!!!")));
+        assertEquals(3, indice.getParecidos());
+    }
+
+    @Test
+    void unTextoDistintoNoSeConfunde() {
+        IndiceSimilares indice = new IndiceSimilares(70, 100, 60_000);
+        indice.agregar(IndiceSimilares.firma(SPAM), "RECHAZADO");
+
+        assertNull(indice.buscar(IndiceSimilares.firma(
+                "Mañana a las diez nos juntamos en la biblioteca para terminar el trabajo práctico de física")));
+        assertNull(indice.buscar(IndiceSimilares.firma(SPAM.substring(0, SPAM.length() / 3))));
+        assertEquals(2, indice.getConsultas());
+        assertEquals(0, indice.getParecidos());
+    }
+
+    @Test
+    void lasEntradasVencen() throws InterruptedException {
+        IndiceSimilares indice = new IndiceSimilares(70, 100, 20);
+        indice.agregar(IndiceSimilares.firma(SPAM), "RECHAZADO");
+
+        Thread.sleep(60);
+
+        assertNull(indice.buscar(IndiceSimilares.firma(SPAM)));
+    }
+
+    @Test
+    void seDescartanLasEntradasMasViejas() {
+        IndiceSimilares indice = new IndiceSimilares(70, 2, 60_000);
+        String[] textos = {SPAM, "Vendo bicicleta rodado veintiséis casi nueva, con luces y candado incluido",
+                "Se busca gato naranja perdido cerca de la plaza principal, responde al nombre de Tomás"};
+        for (String texto : textos) {
+            indice.agregar(IndiceSimilares.firma(texto), "APROBADO");
+        }
+
+        assertEquals(2, indice.getTamaño());
+        assertNull(indice.buscar(IndiceSimilares.firma(textos[0])));
+        assertEquals("APROBADO", indice.buscar(IndiceSimilares.firma(textos[1])));
+        assertEquals("APROBADO", indice.buscar(IndiceSimilares.firma(textos[2])));
+    }
+
+    @Test
+    void sinEntradasNoGuardaNada() {
+        IndiceSimilares indice = new IndiceSimilares(70, 0, 60_000);
+        indice.agregar(IndiceSimilares.firma(SPAM), "RECHAZADO");
+
+        assertEquals(0, indice.getTamaño());
+        assertNull(indice.buscar(IndiceSimilares.firma(SPAM)));
+    }
+}
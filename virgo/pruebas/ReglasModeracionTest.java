@@ -0,0 +1,157 @@
+package virgo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// Coincidencias de AutomataPalabras (comparadas con una búsqueda ingenua) y veredictos
+// y recarga del archivo de ReglasModeracion
+
+class ReglasModeracionTest {
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void soloCoincidenPalabrasCompletas() {
+        AutomataPalabras automata = new AutomataPalabras(List.of("mal"));
+
+        assertTrue(automata.coincide("qué mal"));
+        assertTrue(automata.coincide("mal, muy mal"));
+        assertFalse(automata.coincide("animal"));
+        assertFalse(automata.coincide("malo"));
+    }
+
+    @Test
+    void noDistingueMayusculas() {
+        AutomataPalabras automata = new AutomataPalabras(List.of("Árbol"));
+
+        assertTrue(automata.coincide("un ÁRBOL alto"));
+        assertTrue(automata.coincide("un árbol alto"));
+    }
+
+    @Test
+    void encuentraFrasesYPalabrasDentroDeOtrasCandidatas() {
+        // "abc" lleva por el camino de "abcd" y hay que seguir el enlace de fallo hasta "bc"
+        AutomataPalabras automata = new AutomataPalabras(List.of("abcd", "bc", "dos palabras"));
+
+        assertTrue(automata.coincide("abc bc"));
+        assertFalse(automata.coincide("abc"));
+        assertTrue(automata.coincide("son dos palabras."));
+        assertFalse(automata.coincide("dos palabrasmás"));
+    }
+
+    @Test
+    void sinPalabrasNoCoincideNada() {
+        AutomataPalabras automata = new AutomataPalabras(List.of("", "  "));
+
+        assertTrue(automata.estaVacio());
+        assertFalse(automata.coincide("cualquier cosa"));
+    }
+
+    @Test
+    void coincideIgualQueUnaBusquedaIngenua() {
+        SplittableRandom aleatorio = new SplittableRandom(7);
+        for (int prueba = 0; prueba < 2000; prueba++) {
+            List<String> palabras = new ArrayList<>();
+            for (int i = aleatorio.nextInt(1, 6); i > 0; i--) {
+                palabras.add(texto(aleatorio, 1, 5, "abA"));
+            }
+            String texto = texto(aleatorio, 0, 30, "abB ");
+            assertEquals(coincideIngenuo(palabras, texto), new AutomataPalabras(palabras).coincide(texto),
+                    () -> palabras + " en '" + texto + "'");
+        }
+    }
+
+    private static String texto(SplittableRandom aleatorio, int minimo, int maximo, String alfabeto) {
+        StringBuilder texto = new StringBuilder();
+        for (int i = aleatorio.nextInt(minimo, maximo + 1); i > 0; i--) {
+            texto.append(alfabeto.charAt(aleatorio.nextInt(alfabeto.length())));
+        }
+        return texto.toString();
+    }
+
+    private static boolean coincideIngenuo(List<String> palabras, String texto) {
+        String minusculas = texto.toLowerCase(Locale.ROOT);
+        for (String palabra : palabras) {
+            String buscada = palabra.trim().toLowerCase(Locale.ROOT);
+            if (buscada.isEmpty()) {
+                continue;
+            }
+            for (int i = minusculas.indexOf(buscada); i >= 0; i = minusculas.indexOf(buscada, i + 1)) {
+                int fin = i + buscada.length();
+                if ((i == 0 || !Character.isLetterOrDigit(texto.charAt(i - 1)))
+                        && (fin == texto.length() || !Character.isLetterOrDigit(texto.charAt(fin)))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private ReglasModeracion reglas(String... lineas) throws IOException {
+        Path archivo = directorio.resolve("reglas.txt");
+        Files.write(archivo, List.of(lineas), StandardCharsets.UTF_8);
+        ReglasModeracion reglas = new ReglasModeracion(archivo);
+        reglas.iniciar(20);
+        return reglas;
+    }
+
+    @Test
+    void elRechazoGanaALaAprobacion() throws IOException {
+        ReglasModeracion reglas = reglas(
+                "# comentario",
+                "rechazar: spam",
+                "aprobar: hola",
+                "rechazar-regex: https?://\\S+",
+                "aprobar-regex: ^(gracias)[!. ]*$");
+
+        assertEquals(ReglasModeracion.Veredicto.APROBAR, reglas.evaluar("hola a todos"));
+        assertEquals(ReglasModeracion.Veredicto.APROBAR, reglas.evaluar("GRACIAS!"));
+        assertEquals(ReglasModeracion.Veredicto.RECHAZAR, reglas.evaluar("hola, compren spam"));
+        assertEquals(ReglasModeracion.Veredicto.RECHAZAR, reglas.evaluar("hola, miren HTTP://ejemplo.com"));
+        assertEquals(ReglasModeracion.Veredicto.MODERAR, reglas.evaluar("gracias por todo"));
+        assertEquals(2, reglas.getAprobados());
+        assertEquals(2, reglas.getRechazados());
+        assertEquals(1, reglas.getModerados());
+    }
+
+    @Test
+    void sinArchivoTodoVaAlModerador() {
+        ReglasModeracion reglas = new ReglasModeracion(directorio.resolve("no-existe.txt"));
+        reglas.iniciar(1000);
+
+        assertEquals(ReglasModeracion.Veredicto.MODERAR, reglas.evaluar("spam"));
+    }
+
+    @Test
+    void unArchivoConErroresNoReemplazaLasReglas() throws Exception {
+        ReglasModeracion reglas = reglas("rechazar: spam");
+        Path archivo = directorio.resolve("reglas.txt");
+
+        Files.write(archivo, List.of("rechazar-regex: (sin cerrar", "aprobar: spam"), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(archivo, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        Thread.sleep(200);
+        assertEquals(ReglasModeracion.Veredicto.RECHAZAR, reglas.evaluar("spam"));
+
+        Files.write(archivo, List.of("aprobar: spam"), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(archivo, FileTime.fromMillis(System.currentTimeMillis() + 20_000));
+        long limite = System.nanoTime() + 5_000_000_000L;
+        while (reglas.evaluar("spam") != ReglasModeracion.Veredicto.APROBAR && System.nanoTime() < limite) {
+            Thread.sleep(20);
+        }
+        assertEquals(ReglasModeracion.Veredicto.APROBAR, reglas.evaluar("spam"));
+    }
+}
@@ -0,0 +1,116 @@
+package virgo;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// Tickets de reanudación: contenido, vencimiento, alteraciones, otro proceso, un solo
+// uso y derivación de la clave nueva
+
+class TicketsSesionTest {
+    private static final SecretKey CLAVE = new SecretKeySpec(new byte[] {
+            1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}, "AES");
+
+    private static TicketsSesion.Datos datos() {
+        return new TicketsSesion.Datos(CLAVE, OpcionesSesion.GCM, "ana", new byte[] {42, 43});
+    }
+
+    @Test
+    void unTicketValidoDevuelveSuContenido() throws Exception {
+        TicketsSesion tickets = new TicketsSesion(60_000, 100);
+
+        TicketsSesion.Datos abiertos = tickets.abrir(tickets.emitir(datos()));
+
+        assertNotNull(abiertos);
+        assertArrayEquals(CLAVE.getEncoded(), abiertos.getClave().getEncoded());
+        assertEquals(OpcionesSesion.GCM, abiertos.getOpciones());
+        assertEquals("ana", abiertos.getNombre());
+        assertArrayEquals(new byte[] {42, 43}, abiertos.getClavePublicaCliente());
+    }
+
+    @Test
+    void unTicketVencidoNoSirve() throws Exception {
+        TicketsSesion tickets = new TicketsSesion(-1, 100);
+
+        assertNull(tickets.abrir(tickets.emitir(datos())));
+    }
+
+    @Test
+    void unTicketAlteradoNoSirve() throws Exception {
+        TicketsSesion tickets = new TicketsSesion(60_000, 100);
+        byte[] ticket = tickets.emitir(datos());
+
+        for (int i = 0; i < ticket.length; i++) {
+            byte[] alterado = ticket.clone();
+            alterado[i] ^= 1;
+            assertNull(tickets.abrir(alterado), "byte " + i);
+        }
+        assertNull(tickets.abrir(Arrays.copyOf(ticket, ticket.length - 1)));
+        assertNull(tickets.abrir(new byte[5]));
+        // Ningún intento alterado lo gastó
+        assertNotNull(tickets.abrir(ticket));
+    }
+
+    @Test
+    void unTicketDeOtroProcesoNoSirve() throws Exception {
+        byte[] ticket = new TicketsSesion(60_000, 100).emitir(datos());
+
+        assertNull(new TicketsSesion(60_000, 100).abrir(ticket));
+    }
+
+    @Test
+    void cadaTicketSirveUnaSolaVez() throws Exception {
+        TicketsSesion tickets = new TicketsSesion(60_000, 100);
+        byte[] ticket = tickets.emitir(datos());
+
+        assertNotNull(tickets.abrir(ticket));
+        assertNull(tickets.abrir(ticket));
+        assertNull(tickets.abrir(ticket.clone()));
+        assertEquals(1, tickets.getUsados());
+    }
+
+    @Test
+    void sinLugarParaAnotarloElTicketSeRechaza() throws Exception {
+        TicketsSesion tickets = new TicketsSesion(60_000, 2);
+        byte[] primero = tickets.emitir(datos());
+        byte[] segundo = tickets.emitir(datos());
+        byte[] tercero = tickets.emitir(datos());
+
+        assertNotNull(tickets.abrir(primero));
+        assertNotNull(tickets.abrir(segundo));
+        assertNull(tickets.abrir(tercero));
+        assertEquals(2, tickets.getUsados());
+    }
+
+    @Test
+    void losUsadosVencidosLiberanLugar() throws Exception {
+        TicketsSesion tickets = new TicketsSesion(50, 1);
+        assertNotNull(tickets.abrir(tickets.emitir(datos())));
+
+        Thread.sleep(100);
+
+        assertNotNull(tickets.abrir(tickets.emitir(datos())));
+        assertEquals(1, tickets.getUsados());
+    }
+
+    @Test
+    void laClaveNuevaDependeDeLosDosNonces() throws Exception {
+        TicketsSesion tickets = new TicketsSesion(60_000, 100);
+        byte[] nonceCliente = tickets.nuevoNonce();
+        byte[] nonceServidor = tickets.nuevoNonce();
+
+        SecretKey delCliente = TicketsSesion.derivarClave(CLAVE, nonceCliente, nonceServidor);
+        SecretKey delServidor = TicketsSesion.derivarClave(CLAVE, nonceCliente.clone(), nonceServidor.clone());
+        SecretKey otra = TicketsSesion.derivarClave(CLAVE, nonceCliente, tickets.nuevoNonce());
+
+        assertArrayEquals(delCliente.getEncoded(), delServidor.getEncoded());
+        assertFalse(Arrays.equals(delCliente.getEncoded(), otra.getEncoded()));
+        assertFalse(Arrays.equals(delCliente.getEncoded(), CLAVE.getEncoded()));
+        assertEquals(TicketsSesion.BYTES_NONCE, nonceCliente.length);
+    }
+}
@@ -0,0 +1,170 @@
+package virgo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+// LectorTramas (lectura incremental de NIO) y CodecTramas (lectura bloqueante de
+// paquetes y pool de buffers por clases de tamaño)
+
+class TramasTest {
+
+    private static ByteBuffer trama(byte[] contenido) {
+        ByteBuffer trama = ByteBuffer.allocate(Integer.BYTES + contenido.length);
+        trama.putInt(contenido.length).put(contenido);
+        return trama.flip();
+    }
+
+    private static byte[] bytes(int tamaño) {
+        byte[] datos = new byte[tamaño];
+        for (int i = 0; i < tamaño; i++) {
+            datos[i] = (byte) (i * 31 + 7);
+        }
+        return datos;
+    }
+
+    private static byte[] contenido(ByteBuffer trama) {
+        byte[] leido = new byte[trama.remaining()];
+        trama.get(leido);
+        return leido;
+    }
+
+    @Test
+    void armaLaTramaAunqueLlegueDeAUnByte() throws IOException {
+        byte[] esperado = bytes(3000);
+        ByteBuffer datos = trama(esperado);
+        LectorTramas lector = new LectorTramas(CodecTramas.MAXIMO_MENSAJE);
+
+        ByteBuffer completa = null;
+        while (datos.hasRemaining()) {
+            assertNull(completa, "la trama no puede estar completa antes del último byte");
+            completa = lector.leer(ByteBuffer.wrap(new byte[] {datos.get()}));
+        }
+
+        assertNotNull(completa);
+        assertArrayEquals(esperado, contenido(completa));
+        CodecTramas.devolverBuffer(completa);
+    }
+
+    @Test
+    void separaVariasTramasDeUnaMismaLectura() throws IOException {
+        byte[] primera = bytes(10);
+        byte[] segunda = bytes(2000);
+        ByteBuffer datos = ByteBuffer.allocate(2 * Integer.BYTES + primera.length + segunda.length);
+        datos.put(trama(primera)).put(trama(segunda)).flip();
+        LectorTramas lector = new LectorTramas(CodecTramas.MAXIMO_MENSAJE);
+
+        assertArrayEquals(primera, contenido(lector.leer(datos)));
+        assertArrayEquals(segunda, contenido(lector.leer(datos)));
+        assertFalse(datos.hasRemaining());
+        assertNull(lector.leer(datos));
+    }
+
+    @Test
+    void rechazaUnTamañoMayorQueElMaximo() {
+        LectorTramas lector = new LectorTramas(100);
+        ByteBuffer cabecera = ByteBuffer.allocate(Integer.BYTES).putInt(101).flip();
+
+        assertThrows(IOException.class, () -> lector.leer(cabecera));
+    }
+
+    @Test
+    void rechazaUnTamañoNegativo() {
+        LectorTramas lector = new LectorTramas(CodecTramas.MAXIMO_MENSAJE);
+        ByteBuffer cabecera = ByteBuffer.allocate(Integer.BYTES).putInt(-1).flip();
+
+        assertThrows(IOException.class, () -> lector.leer(cabecera));
+    }
+
+    @Test
+    void elMaximoDelLectorNoPasaDelDeUnMensaje() {
+        LectorTramas lector = new LectorTramas(Integer.MAX_VALUE);
+        ByteBuffer cabecera = ByteBuffer.allocate(Integer.BYTES).putInt(CodecTramas.MAXIMO_MENSAJE + 1).flip();
+
+        assertThrows(IOException.class, () -> lector.leer(cabecera));
+    }
+
+    private static ReadableByteChannel canal(byte[] mensaje, byte[] firma) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodecTramas.escribirPaquete(new DataOutputStream(bytes), new Paquete(mensaje, firma));
+        return Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    void leePaquetesEscritosConElCodec() throws IOException {
+        byte[] mensaje = bytes(5000);
+        byte[] firma = bytes(256);
+
+        Paquete paquete = CodecTramas.leerPaquete(canal(mensaje, firma));
+
+        assertArrayEquals(mensaje, contenido(paquete.getMensajeCifrado().duplicate()));
+        assertArrayEquals(firma, contenido(paquete.getFirma().duplicate()));
+        paquete.liberar();
+    }
+
+    @Test
+    void leeUnPaqueteSinFirma() throws IOException {
+        Paquete paquete = CodecTramas.leerPaquete(canal(bytes(40), new byte[0]));
+
+        assertEquals(40, paquete.getMensajeCifrado().remaining());
+        assertEquals(0, paquete.getFirma().remaining());
+        paquete.liberar();
+    }
+
+    @Test
+    void rechazaUnaFirmaMayorQueElMaximo() {
+        assertThrows(IOException.class,
+                () -> CodecTramas.leerPaquete(canal(bytes(40), bytes(CodecTramas.MAXIMO_FIRMA + 1))));
+    }
+
+    @Test
+    void unPaqueteCortadoEsFinDeDatos() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodecTramas.escribirPaquete(new DataOutputStream(bytes), new Paquete(bytes(500), bytes(64)));
+        byte[] cortado = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 10);
+
+        assertThrows(EOFException.class,
+                () -> CodecTramas.leerPaquete(Channels.newChannel(new ByteArrayInputStream(cortado))));
+    }
+
+    @Test
+    void tomaElBufferDeLaClaseMasChicaQueAlcanza() {
+        ByteBuffer chico = CodecTramas.tomarBuffer(100);
+        ByteBuffer justo = CodecTramas.tomarBuffer(1024);
+        ByteBuffer siguiente = CodecTramas.tomarBuffer(1025);
+        ByteBuffer maximo = CodecTramas.tomarBuffer(CodecTramas.MAXIMO_MENSAJE);
+
+        assertEquals(1024, chico.capacity());
+        assertEquals(1024, justo.capacity());
+        assertEquals(4096, siguiente.capacity());
+        assertEquals(CodecTramas.MAXIMO_MENSAJE, maximo.capacity());
+        assertThrows(IllegalArgumentException.class, () -> CodecTramas.tomarBuffer(CodecTramas.MAXIMO_MENSAJE + 1));
+
+        for (ByteBuffer buffer : new ByteBuffer[] {chico, justo, siguiente, maximo}) {
+            CodecTramas.devolverBuffer(buffer);
+        }
+    }
+
+    @Test
+    void unBufferDevueltoVuelveLimpio() {
+        ByteBuffer usado = CodecTramas.tomarBuffer(2000);
+        usado.put(bytes(2000)).flip();
+        CodecTramas.devolverBuffer(usado);
+
+        ByteBuffer otro = CodecTramas.tomarBuffer(2000);
+        assertEquals(0, otro.position());
+        assertEquals(otro.capacity(), otro.limit());
+        CodecTramas.devolverBuffer(otro);
+    }
+}